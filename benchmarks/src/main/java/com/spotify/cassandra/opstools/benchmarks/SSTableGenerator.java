@@ -0,0 +1,114 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.benchmarks;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ArrayBackedSortedColumns;
+import org.apache.cassandra.db.Column;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnFamilyType;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.DeletedColumn;
+import org.apache.cassandra.db.ExpiringColumn;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.RandomPartitioner;
+import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.io.compress.LZ4Compressor;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTableMetadata;
+import org.apache.cassandra.io.sstable.SSTableWriter;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes sstables with synthetic data using Cassandra's own sstable writer, the same way
+ * the tools would find them on a node.
+ *
+ * Every cell is a tombstone with probability tombstoneRatio, half of them deleted and
+ * half expired, and otherwise a regular cell with a short value.
+ */
+public class SSTableGenerator {
+  public static final String KEYSPACE = "bench";
+
+  private final File directory;
+  private final CFMetaData cfm;
+
+  public SSTableGenerator(File directory, String columnFamily, boolean compressed) {
+    this.directory = directory;
+    this.cfm = new CFMetaData(KEYSPACE, columnFamily, ColumnFamilyType.Standard,
+                              UTF8Type.instance, UTF8Type.instance);
+    if (compressed) {
+      cfm.compressionParameters(new CompressionParameters(LZ4Compressor.create(new HashMap<String, String>())));
+    }
+  }
+
+  /**
+   * Sets up Cassandra the way the tools do, without a cassandra.yaml
+   */
+  public static void initClientMode() {
+    Config.setClientMode(true);
+    DatabaseDescriptor.setPartitioner(new RandomPartitioner());
+  }
+
+  /**
+   * @param timestamp the write timestamp of the first cell, later cells get increasing timestamps
+   * @return the descriptor of the written sstable
+   */
+  public Descriptor write(int generation, int rows, int columns, double tombstoneRatio, long timestamp) {
+    IPartitioner partitioner = DatabaseDescriptor.getPartitioner();
+    Descriptor desc = new Descriptor(directory, KEYSPACE, cfm.cfName, generation, false);
+    Random random = new Random(generation);
+    int now = (int) (System.currentTimeMillis() / 1000);
+
+    List<DecoratedKey> keys = new ArrayList<DecoratedKey>(rows);
+    for (int i = 0; i < rows; i++) {
+      keys.add(partitioner.decorateKey(ByteBufferUtil.bytes("key" + i)));
+    }
+    Collections.sort(keys);
+
+    SSTableWriter writer = new SSTableWriter(desc.filenameFor(Component.DATA), rows, cfm, partitioner,
+                                             SSTableMetadata.createCollector(cfm.comparator));
+    for (DecoratedKey key : keys) {
+      ColumnFamily row = ArrayBackedSortedColumns.factory.create(cfm);
+      for (int j = 0; j < columns; j++) {
+        ByteBuffer name = ByteBufferUtil.bytes(String.format("column%06d", j));
+        double r = random.nextDouble();
+        if (r < tombstoneRatio / 2) {
+          row.addColumn(new DeletedColumn(name, now, timestamp));
+        } else if (r < tombstoneRatio) {
+          row.addColumn(new ExpiringColumn(name, ByteBufferUtil.bytes("expired"), timestamp, 60, now - 1));
+        } else {
+          row.addColumn(new Column(name, ByteBufferUtil.bytes("value" + j), timestamp));
+        }
+        timestamp++;
+      }
+      writer.append(key, row);
+    }
+    // Opening the reader also writes the index summary, like a flush would. Closing it would need
+    // the file cache, which isn't available in client mode, so it's left for the garbage collector.
+    writer.closeAndOpenReader();
+    return desc;
+  }
+}
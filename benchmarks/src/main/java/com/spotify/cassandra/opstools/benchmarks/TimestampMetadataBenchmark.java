@@ -0,0 +1,85 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.benchmarks;
+
+import com.spotify.cassandra.opstools.SSTableTimestampViewer;
+
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many times per second spcassandra-sstable-timestamp can read the metadata of many sstables
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TimestampMetadataBenchmark {
+
+  @Param({"10", "500"})
+  public int sstables;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  private File directory;
+  private List<String> filenames;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    SSTableGenerator.initClientMode();
+    directory = Files.createTempDirectory("timestamp-bench").toFile();
+    SSTableGenerator generator = new SSTableGenerator(directory, "timestamps", false);
+
+    filenames = new ArrayList<String>();
+    for (int i = 1; i <= sstables; i++) {
+      // Sstables overlapping their neighbours in time, like a size tiered table being written to
+      Descriptor desc = generator.write(i, 10, 10, 0.01, i * 50L);
+      filenames.add(desc.filenameFor(Component.DATA));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  public List<SSTableTimestampViewer.TimeMetadata> loadMetadata() throws IOException, InterruptedException {
+    return SSTableTimestampViewer.loadMetadata(filenames, threads);
+  }
+}
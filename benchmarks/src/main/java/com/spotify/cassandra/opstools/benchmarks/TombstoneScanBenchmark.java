@@ -0,0 +1,102 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.benchmarks;
+
+import com.spotify.cassandra.opstools.SSTableReaders;
+import com.spotify.cassandra.opstools.tombstones.IteratorTombstoneScanner;
+import com.spotify.cassandra.opstools.tombstones.RawTombstoneScanner;
+import com.spotify.cassandra.opstools.tombstones.TombstoneScanner;
+import com.spotify.cassandra.opstools.tombstones.TombstoneSummary;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.ColumnFamilyType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many times per second the tombstones of a whole sstable can be counted, the same way
+ * spcassandra-tombstones does.
+ *
+ * Every sstable holds about a million cells, spread over partitions of the given width.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TombstoneScanBenchmark {
+  private static final int CELLS = 1000000;
+
+  @Param({"10", "1000"})
+  public int columns;
+
+  @Param({"0.01", "0.2"})
+  public double tombstoneRatio;
+
+  @Param({"false", "true"})
+  public boolean compressed;
+
+  @Param({"iterator", "raw"})
+  public String engine;
+
+  private File directory;
+  private SSTableReader reader;
+  private TombstoneScanner scanner;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    SSTableGenerator.initClientMode();
+    directory = Files.createTempDirectory("tombstone-bench").toFile();
+    Descriptor desc = new SSTableGenerator(directory, "scan", compressed)
+        .write(1, CELLS / columns, columns, tombstoneRatio, 0);
+
+    reader = SSTableReader.open(desc, new CFMetaData(desc.ksname, desc.cfname, ColumnFamilyType.Standard,
+                                                     UTF8Type.instance, UTF8Type.instance));
+    scanner = engine.equals("raw") ? new RawTombstoneScanner() : new IteratorTombstoneScanner();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    SSTableReaders.release(reader);
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  public TombstoneSummary scan() throws IOException {
+    TombstoneSummary summary = new TombstoneSummary();
+    scanner.scan(reader, null, summary);
+    return summary;
+  }
+}
@@ -14,28 +14,25 @@
 package com.spotify.cassandra.opstools;
 
 import org.apache.cassandra.service.StorageServiceMBean;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 
 import java.io.IOException;
 import java.net.InetAddress;
 
-import javax.management.JMX;
-import javax.management.MBeanServerConnection;
-import javax.management.ObjectName;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
-import javax.management.remote.JMXServiceURL;
-
 public class AbortRepairs {
 
-  public static void main(String[] args) throws IOException, InterruptedException {
-    JMXServiceURL jmxUrl;
-    JMXConnector jmxc = null;
+  public static void main(String[] args) throws IOException, InterruptedException, ParseException {
+    Options options = new Options();
+    JmxConnections.addOptions(options);
+    CommandLine cmd = new BasicParser().parse(options, args);
+
+    JmxConnections connections = JmxConnections.fromCommandLine(cmd);
     try {
-      jmxUrl = new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi", InetAddress.getLocalHost().getCanonicalHostName(), 7199));
-      jmxc = JMXConnectorFactory.connect(jmxUrl);
-      MBeanServerConnection mbeanServerConn = jmxc.getMBeanServerConnection();
-      ObjectName name = new ObjectName("org.apache.cassandra.db:type=StorageService");
-      StorageServiceMBean ssProxy = JMX.newMBeanProxy(mbeanServerConn, name, StorageServiceMBean.class);
+      StorageServiceMBean ssProxy = connections.proxy(InetAddress.getLocalHost().getCanonicalHostName(),
+                                                      "org.apache.cassandra.db:type=StorageService", StorageServiceMBean.class);
 
       ssProxy.forceTerminateAllRepairSessions();
 
@@ -43,9 +40,7 @@ public class AbortRepairs {
     } catch (Exception e) {
       System.err.println("Failed to stop all repair sessions: " + e);
     } finally {
-      if (jmxc != null) {
-        jmxc.close();
-      }
+      connections.close();
     }
   }
 }
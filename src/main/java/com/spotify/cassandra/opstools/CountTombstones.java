@@ -13,33 +13,66 @@
  */
 package com.spotify.cassandra.opstools;
 
+import com.spotify.cassandra.opstools.tombstones.GcGrace;
+import com.spotify.cassandra.opstools.tombstones.IteratorTombstoneScanner;
+import com.spotify.cassandra.opstools.tombstones.PartitionListener;
+import com.spotify.cassandra.opstools.tombstones.RawTombstoneScanner;
+import com.spotify.cassandra.opstools.tombstones.SSTableSplits;
+import com.spotify.cassandra.opstools.tombstones.ScanRate;
+import com.spotify.cassandra.opstools.tombstones.TombstoneCache;
+import com.spotify.cassandra.opstools.tombstones.TombstoneCount;
+import com.spotify.cassandra.opstools.tombstones.TombstoneEstimate;
+import com.spotify.cassandra.opstools.tombstones.TombstoneSampler;
+import com.spotify.cassandra.opstools.tombstones.TombstoneScanner;
+import com.spotify.cassandra.opstools.tombstones.TombstoneSummary;
+import com.spotify.cassandra.opstools.tombstones.TopPartitions;
+
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
-import org.apache.cassandra.db.Column;
 import org.apache.cassandra.db.ColumnFamilyType;
-import org.apache.cassandra.db.OnDiskAtom;
 import org.apache.cassandra.db.marshal.BytesType;
 import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Component;
 import org.apache.cassandra.io.sstable.Descriptor;
-import org.apache.cassandra.io.sstable.SSTableIdentityIterator;
+import org.apache.cassandra.io.sstable.SSTableMetadata;
 import org.apache.cassandra.io.sstable.SSTableReader;
-import org.apache.cassandra.io.sstable.SSTableScanner;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Counts the number of tombstones in a SSTable
  */
 public class CountTombstones {
+  private static final int PROGRESS_INTERVAL_SECONDS = 10;
 
   /**
    * Counts the number of tombstones, per row, in a given SSTable
@@ -52,19 +85,39 @@ public class CountTombstones {
    *
    * @throws java.io.IOException on failure to open/read/write files or output streams
    */
-  public static void main(String[] args) throws IOException, ParseException {
-    String usage = String.format("Usage: %s [-l] <sstable> [<sstable> ...]%n", CountTombstones.class.getName());
+  public static void main(String[] args) throws IOException, ParseException, InterruptedException {
+    String usage = String.format("Usage: %s [-l] [-r] [-b] [-c <cache file>] [-n <partitions>] [-t <n> [-o count|ratio]] [-j <threads> [-s <splits>]] [-R <bytes/s>] [-g <seconds> [-T <time>]] [-d <data dir> [-k <keyspace>] [-f <columnfamily>]] [<sstable> ...]%n", CountTombstones.class.getName());
 
     final Options options = new Options();
     options.addOption("l", "legend", false, "Include column name explanation");
     options.addOption("p", "partitioner", true, "The partitioner used by database");
+    options.addOption("j", "threads", true, "Number of threads scanning sstables concurrently (default: 1)");
+    options.addOption("s", "splits", true, "Number of token ranges to split each sstable into when using several threads (default: 1)");
+    options.addOption("r", "raw", false, "Classify columns from their serialization flags without deserializing them");
+    options.addOption("t", "top", true, "Only print the N partitions with the most tombstones, once the scan is done");
+    options.addOption("o", "order", true, "Rank partitions for --top by tombstone 'count' or 'ratio' (default: count)");
+    options.addOption("b", "breakdown", false, "Print tombstones by kind and a histogram of tombstones per partition (implies --raw)");
+    options.addOption("n", "sample", true, "Only estimate the tombstone ratio from N randomly chosen partitions per sstable");
+    options.addOption("c", "cache", true, "Remember per sstable totals in this file and only scan sstables not seen before");
+    options.addOption("d", "data-dir", true, "Scan all sstables in this data directory, reporting progress on stderr");
+    options.addOption("k", "keyspace", true, "Only scan sstables of this keyspace in the data directory");
+    options.addOption("f", "columnfamily", true, "Only scan sstables of this column family in the data directory");
+    options.addOption("R", "rate", true, "Maximum number of bytes read per second (default: unlimited)");
+    options.addOption("g", "gc-grace", true, "Report tombstones a compaction could drop given this gc_grace_seconds");
+    options.addOption("T", "time", true, "Reference time for --gc-grace, in seconds since the epoch (default: now)");
 
     CommandLineParser parser = new BasicParser();
     CommandLine cmd = parser.parse(options, args);
 
-    if (cmd.getArgs().length < 1)
+    if (cmd.getArgs().length < 1 && !cmd.hasOption("d"))
+    {
+      System.err.println("You must supply at least one sstable or a data directory");
+      System.err.println(usage);
+      System.exit(1);
+    }
+    if (cmd.hasOption("g") && cmd.hasOption("c"))
     {
-      System.err.println("You must supply at least one sstable");
+      System.err.println("Droppable tombstones depend on the reference time and can't be cached");
       System.err.println(usage);
       System.exit(1);
     }
@@ -83,64 +136,411 @@ public class CountTombstones {
 
     PrintStream out = System.out;
 
+    List<Descriptor> descriptors = new ArrayList<Descriptor>();
+    if (cmd.hasOption("d")) {
+      descriptors.addAll(DataDirectory.findSSTables(new File(cmd.getOptionValue("d")),
+                                                    cmd.getOptionValue("k"), cmd.getOptionValue("f")));
+    }
     for (String arg : cmd.getArgs()) {
       String ssTableFileName = new File(arg).getAbsolutePath();
 
-      Descriptor descriptor = Descriptor.fromFilename(ssTableFileName);
+      descriptors.add(Descriptor.fromFilename(ssTableFileName));
+    }
+
+    int threads = cmd.hasOption("j") ? Integer.parseInt(cmd.getOptionValue("j")) : 1;
+    int splits = cmd.hasOption("s") ? Integer.parseInt(cmd.getOptionValue("s")) : 1;
+    ScanRate rate = new ScanRate(cmd.hasOption("R") ? Long.parseLong(cmd.getOptionValue("R")) : 0);
+    GcGrace gcGrace = cmd.hasOption("g") ? gcGrace(descriptors, cmd) : null;
+    // Deserializing turns cells that have already expired into deleted cells, which would throw off the breakdown
+    boolean raw = cmd.hasOption("r") || cmd.hasOption("b");
+    TombstoneScanner scanner = raw ? new RawTombstoneScanner(rate, gcGrace) : new IteratorTombstoneScanner(rate, gcGrace);
 
-      run(descriptor, cmd, out);
+    if (cmd.hasOption("n")) {
+      int partitions = Integer.parseInt(cmd.getOptionValue("n"));
+      for (Descriptor descriptor : descriptors) {
+        sample(descriptor, partitions, out);
+      }
+      System.exit(0);
+    }
+
+    TombstoneCache cache = null;
+    if (cmd.hasOption("c")) {
+      cache = TombstoneCache.load(new File(cmd.getOptionValue("c")), raw ? "raw" : "iterator");
+    }
+
+    ScheduledExecutorService progress = null;
+    ProgressReporter reporter = null;
+    if (cmd.hasOption("d")) {
+      long bytes = 0;
+      for (Descriptor descriptor : descriptors) {
+        if (cache == null || cache.get(descriptor) == null) {
+          bytes += new File(descriptor.filenameFor(Component.DATA)).length();
+        }
+      }
+      reporter = new ProgressReporter(rate, bytes);
+      progress = Executors.newSingleThreadScheduledExecutor();
+      progress.scheduleAtFixedRate(reporter, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    TombstoneSummary totals = new TombstoneSummary();
+    if (threads > 1) {
+      totals = runParallel(descriptors, scanner, cache, cmd, out, threads, splits);
+    } else {
+      for (Descriptor descriptor : descriptors) {
+        totals.add(run(descriptor, scanner, cache, cmd, out));
+      }
+    }
+
+    if (progress != null) {
+      progress.shutdownNow();
+      reporter.run();
+    }
+
+    if (cache != null) {
+      cache.save();
+    }
+
+    if (descriptors.size() > 1) {
+      if (cmd.hasOption("b")) {
+        printBreakdown(totals, out);
+      }
+      if (cmd.hasOption("g")) {
+        printDroppable(totals, out);
+      }
+      if (cmd.hasOption("l")) {
+        out.printf("#total_tombstones (#total_columns) in all %d sstables\n", descriptors.size());
+      }
+      out.printf("%d (%d)%n", totals.totals.tombstones(), totals.totals.columns);
     }
 
     System.exit(0);
   }
 
-  private static void run(Descriptor desc, CommandLine cmd, PrintStream out) throws IOException {
+  /**
+   * Scans the sstables on a pool of {@code threads} workers.
+   *
+   * Each sstable is split into {@code splits} token sub-ranges which are scanned independently.
+   * The output of each sub-range is buffered and written in sstable and token order,
+   * so the result is identical to a sequential run. Only the sstable being written and the
+   * {@code threads} after it are opened and scanned at any time, and each is released once all
+   * its ranges are written, so buffered output and open readers stay bounded.
+   */
+  private static TombstoneSummary runParallel(List<Descriptor> descriptors, TombstoneScanner scanner,
+                                              TombstoneCache cache, CommandLine cmd, PrintStream out,
+                                              int threads, int splits) throws IOException, InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Queue<SSTableScan> scanning = new LinkedList<SSTableScan>();
+    try {
+      int submitted = 0;
+      TombstoneSummary totals = new TombstoneSummary();
+      for (int i = 0; i < descriptors.size(); i++) {
+        while (submitted < descriptors.size() && submitted <= i + threads) {
+          Descriptor descriptor = descriptors.get(submitted++);
+          boolean cached = cache != null && cache.get(descriptor) != null;
+          scanning.add(cached ? new SSTableScan(null, Collections.<Future<BufferedRun>>emptyList())
+                              : submit(descriptor, scanner, cmd, executor, splits));
+        }
+
+        // Stays queued until all its ranges are written, so a failure still releases it below
+        SSTableScan scan = scanning.peek();
+        Descriptor descriptor = descriptors.get(i);
+        printHeader(descriptor, cmd, out);
+        TombstoneSummary cached = cache != null ? cache.get(descriptor) : null;
+        if (cached != null) {
+          scanning.remove();
+          printTotals(cached, cmd, out);
+          totals.add(cached);
+          continue;
+        }
+        TombstoneSummary sstableTotals = new TombstoneSummary();
+        TopPartitions sstableTop = newTopPartitions(cmd);
+        for (Future<BufferedRun> future : scan.ranges) {
+          BufferedRun result;
+          try {
+            result = future.get();
+          } catch (ExecutionException e) {
+            throw new IOException("Failed to scan " + descriptor, e.getCause());
+          }
+          result.output.writeTo(out);
+          sstableTotals.add(result.summary);
+          if (sstableTop != null) {
+            sstableTop.addAll(result.top);
+          }
+        }
+        scanning.remove().release();
+        if (sstableTop != null) {
+          printTop(sstableTop, out);
+        }
+        printTotals(sstableTotals, cmd, out);
+        totals.add(sstableTotals);
+        if (cache != null) {
+          cache.put(descriptor, sstableTotals);
+        }
+      }
+      return totals;
+    } finally {
+      // Ranges still being scanned must finish before their readers are released
+      executor.shutdownNow();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      for (SSTableScan scan : scanning) {
+        scan.release();
+      }
+    }
+  }
+
+  /**
+   * Opens the sstable and submits a scan of each of its sub-ranges, buffering their output
+   */
+  private static SSTableScan submit(Descriptor descriptor, final TombstoneScanner scanner,
+                                    final CommandLine cmd, ExecutorService executor,
+                                    int splits) throws IOException {
+    final SSTableReader reader = open(descriptor);
+    List<Future<BufferedRun>> rangeFutures = new ArrayList<Future<BufferedRun>>();
+    for (final Range<Token> range : SSTableSplits.split(reader, splits)) {
+      rangeFutures.add(executor.submit(new Callable<BufferedRun>() {
+        @Override
+        public BufferedRun call() throws IOException {
+          ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+          PrintStream bufferOut = new PrintStream(buffer);
+          TombstoneSummary summary = new TombstoneSummary();
+          TopPartitions top = newTopPartitions(cmd);
+          scanner.scan(reader, range, new Tee(summary, top != null ? top : new PartitionPrinter(bufferOut)));
+          bufferOut.flush();
+          return new BufferedRun(buffer, summary, top);
+        }
+      }));
+    }
+    return new SSTableScan(reader, rangeFutures);
+  }
+
+  private static TombstoneSummary run(Descriptor desc, TombstoneScanner scanner, TombstoneCache cache,
+                                      CommandLine cmd, PrintStream out) throws IOException {
+    printHeader(desc, cmd, out);
+    TombstoneSummary cached = cache != null ? cache.get(desc) : null;
+    if (cached != null) {
+      printTotals(cached, cmd, out);
+      return cached;
+    }
+
+    SSTableReader reader = open(desc);
+    TombstoneSummary summary = new TombstoneSummary();
+    TopPartitions top = newTopPartitions(cmd);
+    try {
+      scanner.scan(reader, null, new Tee(summary, top != null ? top : new PartitionPrinter(out)));
+    } finally {
+      SSTableReaders.release(reader);
+    }
+    if (top != null) {
+      printTop(top, out);
+    }
+    printTotals(summary, cmd, out);
+    if (cache != null) {
+      cache.put(desc, summary);
+    }
+
+    return summary;
+  }
+
+  private static void sample(Descriptor desc, int partitions, PrintStream out) throws IOException {
+    SSTableReader reader = open(desc);
+
+    TombstoneEstimate estimate = new TombstoneEstimate();
+    long totalPartitions;
+    try {
+      new TombstoneSampler(new Random()).sample(reader, partitions, estimate);
+      totalPartitions = reader.estimatedKeys();
+    } finally {
+      SSTableReaders.release(reader);
+    }
+    out.printf(desc.baseFilename() + "\n");
+    out.printf("Sampled %d of ~%d partitions%n", estimate.partitions, totalPartitions);
+    out.printf("Estimated tombstone ratio: %.2f%% (+/- %.2f%%)%n",
+               estimate.ratio() * 100, estimate.ratioMargin() * 100);
+    out.printf("Estimated tombstones: %.0f (+/- %.0f)%n",
+               estimate.tombstones(totalPartitions), estimate.tombstonesMargin(totalPartitions));
+  }
+
+  /**
+   * Tombstones are judged droppable against the minimum timestamps of all the given sstables
+   */
+  private static GcGrace gcGrace(List<Descriptor> descriptors, CommandLine cmd) throws IOException {
+    Map<Descriptor, Long> minTimestamps = new HashMap<Descriptor, Long>();
+    for (Descriptor descriptor : descriptors) {
+      minTimestamps.put(descriptor, SSTableMetadata.serializer.deserialize(descriptor).left.minTimestamp);
+    }
+    int now = cmd.hasOption("T") ? Integer.parseInt(cmd.getOptionValue("T"))
+                                 : (int) (System.currentTimeMillis() / 1000);
+    return new GcGrace(now, Integer.parseInt(cmd.getOptionValue("g")), minTimestamps);
+  }
+
+  /**
+   * Opens an sstable, which must be released with {@link SSTableReaders#release} once scanned
+   */
+  private static SSTableReader open(Descriptor desc) throws IOException {
     // Since we don't have a schema, make one up!
     CFMetaData cfm = new CFMetaData(desc.ksname, desc.cfname, ColumnFamilyType.Standard,
                                     UTF8Type.instance, UTF8Type.instance);
 
-    SSTableReader reader = SSTableReader.open(desc, cfm);
-    SSTableScanner scanner = reader.getScanner();
+    return SSTableReader.open(desc, cfm);
+  }
+
+  /**
+   * @return a listener keeping the worst partitions if --top was given, otherwise null
+   */
+  private static TopPartitions newTopPartitions(CommandLine cmd) {
+    if (!cmd.hasOption("t")) {
+      return null;
+    }
+    TopPartitions.Order order = TopPartitions.Order.valueOf(cmd.getOptionValue("o", "count").toUpperCase());
+    return new TopPartitions(Integer.parseInt(cmd.getOptionValue("t")), order);
+  }
+
+  private static void printTop(TopPartitions top, PrintStream out) {
+    for (TopPartitions.Partition partition : top.sorted()) {
+      out.printf("%s %d (%d)%n", formatKey(partition.key), partition.tombstones, partition.columns);
+    }
+  }
+
+  private static String formatKey(ByteBuffer key) {
+    try {
+      return UTF8Type.instance.getString(key);
+    } catch (RuntimeException e) {
+      return BytesType.instance.getString(key);
+    }
+  }
 
-    long totalTombstones = 0, totalColumns = 0;
+  private static void printHeader(Descriptor desc, CommandLine cmd, PrintStream out) {
     if (cmd.hasOption("l")) {
       out.printf(desc.baseFilename() + "\n");
       out.printf("rowkey #tombstones (#columns)\n");
     }
-    while (scanner.hasNext()) {
-      SSTableIdentityIterator row = (SSTableIdentityIterator) scanner.next();
+  }
 
-      int tombstonesCount = 0, columnsCount = 0;
-      while (row.hasNext())
-      {
-        OnDiskAtom column = row.next();
-        long now = System.currentTimeMillis();
-        if (column instanceof Column && ((Column) column).isMarkedForDelete(now)) {
-          tombstonesCount++;
-        }
-        columnsCount++;
+  private static void printTotals(TombstoneSummary summary, CommandLine cmd, PrintStream out) {
+    if (cmd.hasOption("b")) {
+      printBreakdown(summary, out);
+    }
+    if (cmd.hasOption("g")) {
+      printDroppable(summary, out);
+    }
+    if (cmd.hasOption("l")) {
+      out.printf("#total_tombstones (#total_columns)\n");
+    }
+    out.printf("%d (%d)%n", summary.totals.tombstones(), summary.totals.columns);
+  }
+
+  private static void printBreakdown(TombstoneSummary summary, PrintStream out) {
+    out.printf("Deleted cells: %d%n", summary.totals.deletedCells);
+    out.printf("Expired cells: %d%n", summary.totals.expiredCells);
+    out.printf("Range tombstones: %d%n", summary.totals.rangeTombstones);
+    out.printf("Partition deletions: %d%n", summary.totals.partitionDeletions);
+    out.printf("Partitions by number of cell and range tombstones (of %d partitions):%n", summary.partitions);
+    for (int i = 0; i < summary.buckets(); i++) {
+      long partitions = summary.partitionsInBucket(i);
+      if (partitions > 0) {
+        long start = TombstoneSummary.bucketStart(i), end = TombstoneSummary.bucketEnd(i);
+        out.printf("%16s: %d (%.2f%%)%n", start == end ? String.valueOf(start) : start + "-" + end,
+                   partitions, (double) partitions / summary.partitions * 100);
       }
-      totalTombstones += tombstonesCount;
-      totalColumns += columnsCount;
-
-      if (tombstonesCount > 0) {
-        String key;
-        try {
-          key = UTF8Type.instance.getString(row.getKey().key);
-        } catch (RuntimeException e) {
-          key = BytesType.instance.getString(row.getKey().key);
-        }
-        out.printf("%s %d (%d)%n", key, tombstonesCount, columnsCount);
+    }
+  }
+
+  private static void printDroppable(TombstoneSummary summary, PrintStream out) {
+    out.printf("Tombstones past gc_grace: %d (%d blocked by older sstables)%n",
+               summary.totals.droppable, summary.totals.blocked);
+    out.printf("Estimated reclaimable bytes: %d%n", summary.totals.droppableBytes);
+  }
+
+  /**
+   * Prints the partitions containing tombstones
+   */
+  private static class PartitionPrinter implements PartitionListener {
+    private final PrintStream out;
+
+    PartitionPrinter(PrintStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void partition(ByteBuffer key, TombstoneCount partition) {
+      if (partition.tombstones() > 0) {
+        out.printf("%s %d (%d)%n", formatKey(key), partition.tombstones(), partition.columns);
       }
+    }
+  }
+
+  /**
+   * Passes every partition on to two listeners
+   */
+  private static class Tee implements PartitionListener {
+    private final PartitionListener first;
+    private final PartitionListener second;
 
+    Tee(PartitionListener first, PartitionListener second) {
+      this.first = first;
+      this.second = second;
     }
 
-    if (cmd.hasOption("l")) {
-      out.printf("#total_tombstones (#total_columns)\n");
+    @Override
+    public void partition(ByteBuffer key, TombstoneCount partition) {
+      first.partition(key, partition);
+      second.partition(key, partition);
+    }
+  }
+
+  /**
+   * Prints how much of the sstables has been read, and how fast
+   */
+  private static class ProgressReporter implements Runnable {
+    private final ScanRate rate;
+    private final long totalBytes;
+    private final long startNanos = System.nanoTime();
+
+    ProgressReporter(ScanRate rate, long totalBytes) {
+      this.rate = rate;
+      this.totalBytes = totalBytes;
+    }
+
+    @Override
+    public void run() {
+      long bytes = rate.bytes();
+      double seconds = Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+      System.err.printf("Scanned %s of %s (%.1f%%) in %.0fs, %s/s%n",
+                        FileUtils.byteCountToDisplaySize(bytes), FileUtils.byteCountToDisplaySize(totalBytes),
+                        totalBytes > 0 ? Math.min(bytes * 100.0 / totalBytes, 100) : 100.0, seconds,
+                        FileUtils.byteCountToDisplaySize((long) (bytes / seconds)));
+    }
+  }
+
+  /**
+   * An open sstable and the scans of its ranges
+   */
+  private static class SSTableScan {
+    public final SSTableReader reader;
+    public final List<Future<BufferedRun>> ranges;
+
+    SSTableScan(SSTableReader reader, List<Future<BufferedRun>> ranges) {
+      this.reader = reader;
+      this.ranges = ranges;
+    }
+
+    void release() throws IOException {
+      if (reader != null) {
+        SSTableReaders.release(reader);
+      }
     }
-    out.printf("%d (%d)%n", totalTombstones, totalColumns);
+  }
 
-    scanner.close();
+  private static class BufferedRun {
+    public final ByteArrayOutputStream output;
+    public final TombstoneSummary summary;
+    public final TopPartitions top;
+
+    BufferedRun(ByteArrayOutputStream output, TombstoneSummary summary, TopPartitions top) {
+      this.output = output;
+      this.summary = summary;
+      this.top = top;
+    }
   }
 
 }
@@ -0,0 +1,84 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.io.sstable.Descriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the sstables in a Cassandra data directory
+ */
+public class DataDirectory {
+  private static final String DATA_SUFFIX = "-Data.db";
+
+  private DataDirectory() {
+  }
+
+  /**
+   * Lists the live sstables below the given directory, skipping snapshots, incremental backups and
+   * temporary sstables being written.
+   *
+   * @param keyspace only include sstables of this keyspace, unless null
+   * @param columnFamily only include sstables of this column family, unless null
+   * @return the sstables sorted by file name
+   */
+  public static List<Descriptor> findSSTables(File root, final String keyspace, final String columnFamily)
+      throws IOException {
+    final List<Descriptor> descriptors = new ArrayList<Descriptor>();
+    Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        String name = dir.getFileName().toString();
+        if (name.equals(Directories.SNAPSHOT_SUBDIR) || name.equals(Directories.BACKUPS_SUBDIR)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (!file.getFileName().toString().endsWith(DATA_SUFFIX)) {
+          return FileVisitResult.CONTINUE;
+        }
+        Descriptor desc = Descriptor.fromFilename(file.toAbsolutePath().toString());
+        if (!desc.temporary
+            && (keyspace == null || keyspace.equals(desc.ksname))
+            && (columnFamily == null || columnFamily.equals(desc.cfname))) {
+          descriptors.add(desc);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    Collections.sort(descriptors, new Comparator<Descriptor>() {
+      @Override
+      public int compare(Descriptor a, Descriptor b) {
+        return a.baseFilename().compareTo(b.baseFilename());
+      }
+    });
+    return descriptors;
+  }
+}
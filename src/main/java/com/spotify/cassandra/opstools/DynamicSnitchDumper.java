@@ -16,29 +16,53 @@ package com.spotify.cassandra.opstools;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.cassandra.locator.DynamicEndpointSnitchMBean;
+import org.apache.cassandra.service.StorageServiceMBean;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 
-import javax.management.*;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
-import javax.management.remote.JMXServiceURL;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class DynamicSnitchDumper {
-  private static final String fmtUrl = "service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi";
-  private static final String dsnitchObjName = "org.apache.cassandra.db:type=DynamicEndpointSnitch";
+  // in cassandra 1.1, the mbean has a "random" instance number, so match any other key properties
+  private static final String dsnitchObjName = "org.apache.cassandra.db:type=DynamicEndpointSnitch,*";
+  // Peers whose score is this many median deviations above the median are flagged
+  private static final double OUTLIER_THRESHOLD = 3.5;
+  private static final long REPORT_INTERVAL_MILLIS = 10000;
+  private static final int MATRIX_THREADS = 32;
+  private static final int ASYMMETRIC_PAIRS = 10;
 
-  public static void main(String ... args) throws IOException, MalformedObjectNameException {
+  public static void main(String ... argv) throws IOException, InterruptedException, ParseException {
+    Options options = new Options();
+    JmxConnections.addOptions(options);
+    CommandLine cmd = new BasicParser().parse(options, argv);
+    String[] args = cmd.getArgs();
 
     String host = "localhost";
     if (args.length > 0)
       host = args[0];
-    int port = 7199;
+    int port = JmxConnections.DEFAULT_PORT;
     if (args.length > 1)
       port = Integer.parseInt(args[1]);
     boolean munin = false;
@@ -48,9 +72,26 @@ public class DynamicSnitchDumper {
     if (args.length > 3 && args[3].equals("config"))
       muninConfig = true;
 
-    JMXServiceURL jmxUrl = new JMXServiceURL(String.format(fmtUrl, host, port));
-    Map<String,Object> env = new HashMap<String,Object>();
-    DynamicEndpointSnitchMBean dsnitch = getDSnitchMbean(jmxUrl, env);
+    JmxConnections connections = JmxConnections.fromCommandLine(cmd, port);
+    if (args.length > 2 && args[2].equals("matrix")) {
+      boolean csv = args.length > 3 && args[3].equals("csv");
+      List<String> nodes = Arrays.asList(args).subList(csv ? 4 : 3, args.length);
+      try {
+        matrix(connections, host, nodes, csv);
+      } finally {
+        connections.close();
+      }
+      return;
+    }
+
+    DynamicEndpointSnitchMBean dsnitch = connections.find(host, dsnitchObjName, DynamicEndpointSnitchMBean.class);
+
+    if (args.length > 2 && args[2].equals("sample")) {
+      long intervalMillis = args.length > 3 ? Long.parseLong(args[3]) : 500;
+      int window = args.length > 4 ? Integer.parseInt(args[4]) : 120;
+      sample(dsnitch, intervalMillis, window);
+      return;
+    }
 
     Map<InetAddress, Double> sorted = sortMap(dsnitch.getScores());
     if (munin) {
@@ -64,6 +105,139 @@ public class DynamicSnitchDumper {
       }
     }
   }
+  /**
+   * Gets the scores of every node concurrently, and shows how the nodes see each other. Nodes that
+   * haven't answered once every node had the time to connect and answer are left out.
+   *
+   * @param nodes the nodes to ask, or all live nodes the seed knows of if empty
+   */
+  private static void matrix(final JmxConnections connections, String seed, List<String> nodes, boolean csv)
+      throws IOException, InterruptedException {
+    if (nodes.isEmpty())
+      nodes = connections.proxy(seed, "org.apache.cassandra.db:type=StorageService", StorageServiceMBean.class).getLiveNodes();
+
+    final HostNames hostNames = new HostNames();
+    int threads = Math.max(1, Math.min(nodes.size(), MATRIX_THREADS));
+    // Threads stuck on a node that doesn't answer must not keep the tool from exiting
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).build());
+    Map<String, Future<Map<InetAddress, Double>>> futures = new LinkedHashMap<String, Future<Map<InetAddress, Double>>>();
+    for (final String node : nodes) {
+      futures.put(node, executor.submit(new Callable<Map<InetAddress, Double>>() {
+        @Override
+        public Map<InetAddress, Double> call() throws IOException {
+          Map<InetAddress, Double> scores = connections.find(node, dsnitchObjName, DynamicEndpointSnitchMBean.class).getScores();
+          // Resolve the names in parallel too; the observers are most of the targets
+          hostNames.get(InetAddress.getByName(node));
+          return scores;
+        }
+      }));
+    }
+    executor.shutdown();
+
+    // Each node gets the connect timeout to connect and as long again to answer, behind the nodes
+    // queued before it
+    long timeoutMillis = (nodes.size() + threads - 1) / threads * 2 * connections.timeoutMillis();
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    ScoreMatrix matrix = new ScoreMatrix();
+    Map<String, Throwable> failures = new TreeMap<String, Throwable>();
+    for (Map.Entry<String, Future<Map<InetAddress, Double>>> future : futures.entrySet()) {
+      try {
+        Map<InetAddress, Double> scores = future.getValue().get(Math.max(0, deadline - System.currentTimeMillis()),
+                                                                TimeUnit.MILLISECONDS);
+        matrix.put(InetAddress.getByName(future.getKey()), scores);
+      } catch (ExecutionException e) {
+        failures.put(future.getKey(), e.getCause());
+      } catch (TimeoutException e) {
+        future.getValue().cancel(true);
+        failures.put(future.getKey(), new TimeoutException("No scores within " + TimeUnit.MILLISECONDS.toSeconds(timeoutMillis) + "s"));
+      }
+    }
+    executor.shutdownNow();
+
+    if (csv)
+      printCsv(matrix, hostNames);
+    else
+      printMatrixSummary(matrix, hostNames);
+    for (Map.Entry<String, Throwable> failure : failures.entrySet())
+      System.err.println("Failed to get the scores of " + failure.getKey() + ": " + failure.getValue());
+  }
+
+  private static void printMatrixSummary(ScoreMatrix matrix, HostNames hostNames) {
+    System.out.printf("Scores of %d nodes as seen by %d nodes, slowest first%n", matrix.targets().size(), matrix.observers().size());
+    for (ScoreMatrix.Target target : matrix.summarize()) {
+      System.out.printf("%s : median %.4f, min %.4f, max %.4f (seen by %s), %d observers%n", hostNames.get(target.target),
+                        target.median, target.min, target.max, hostNames.get(target.worstObserver), target.observers);
+    }
+    System.out.println();
+    System.out.println("Most asymmetric pairs:");
+    for (ScoreMatrix.Pair pair : matrix.mostAsymmetric(ASYMMETRIC_PAIRS)) {
+      System.out.printf("%s sees %s at %.4f, which sees it at %.4f%n", hostNames.get(pair.first), hostNames.get(pair.second),
+                        pair.firstToSecond, pair.secondToFirst);
+    }
+  }
+
+  private static void printCsv(ScoreMatrix matrix, HostNames hostNames) {
+    Set<InetAddress> targets = matrix.targets();
+    StringBuilder header = new StringBuilder("observer");
+    for (InetAddress target : targets)
+      header.append(',').append(hostNames.get(target));
+    System.out.println(header);
+    for (InetAddress observer : matrix.observers()) {
+      StringBuilder row = new StringBuilder(hostNames.get(observer));
+      for (InetAddress target : targets) {
+        Double score = matrix.score(observer, target);
+        row.append(',').append(score == null ? "" : score.toString());
+      }
+      System.out.println(row);
+    }
+  }
+
+  /**
+   * Polls the scores over the same connection until interrupted. Peers becoming outliers are reported
+   * as soon as they are seen, and percentiles over the last window samples every 10 seconds.
+   */
+  private static void sample(DynamicEndpointSnitchMBean dsnitch, long intervalMillis, int window) throws InterruptedException {
+    SnitchSampler sampler = new SnitchSampler(window);
+    HostNames hostNames = new HostNames();
+    Set<InetAddress> outliers = new HashSet<InetAddress>();
+    long nextReport = System.currentTimeMillis() + REPORT_INTERVAL_MILLIS;
+    long nextSample = System.currentTimeMillis();
+    while (true) {
+      sampler.add(dsnitch.getScores());
+
+      Set<InetAddress> current = sampler.outliers(OUTLIER_THRESHOLD);
+      for (InetAddress peer : current) {
+        if (!outliers.contains(peer))
+          System.out.printf("%s: %s is an outlier with score %s%n", new Date(), hostNames.get(peer), sampler.history(peer).latest());
+      }
+      for (InetAddress peer : outliers) {
+        if (!current.contains(peer))
+          System.out.printf("%s: %s is no longer an outlier, score %s%n", new Date(), hostNames.get(peer), sampler.history(peer).latest());
+      }
+      outliers = current;
+
+      if (System.currentTimeMillis() >= nextReport) {
+        printPercentiles(sampler, outliers, hostNames);
+        nextReport += REPORT_INTERVAL_MILLIS;
+      }
+      nextSample += intervalMillis;
+      Thread.sleep(Math.max(0, nextSample - System.currentTimeMillis()));
+    }
+  }
+
+  private static void printPercentiles(SnitchSampler sampler, Set<InetAddress> outliers, HostNames hostNames) {
+    System.out.printf("%s:%n", new Date());
+    Set<InetAddress> peers = new TreeSet<InetAddress>(HostNames.ORDER);
+    peers.addAll(sampler.peers());
+    for (InetAddress peer : peers) {
+      SnitchSampler.History history = sampler.history(peer);
+      System.out.printf("%s : latest %.4f, p50 %.4f, p95 %.4f, p99 %.4f, max %.4f (%d samples)%s%n",
+                        hostNames.get(peer), history.latest(), history.percentile(0.5), history.percentile(0.95),
+                        history.percentile(0.99), history.max(), history.count(), outliers.contains(peer) ? " OUTLIER" : "");
+    }
+    System.out.println();
+  }
+
   private static String getMuninHost(String hostname) {
     return hostname.replace(".spotify.net", "").replace(".","_");
   }
@@ -85,23 +259,6 @@ public class DynamicSnitchDumper {
     }
   }
 
-  private static DynamicEndpointSnitchMBean getDSnitchMbean(JMXServiceURL jmxUrl, Map<String, Object> env) throws IOException, MalformedObjectNameException {
-    JMXConnector jmxc = JMXConnectorFactory.connect(jmxUrl, env);
-    MBeanServerConnection mbeanServerConn = jmxc.getMBeanServerConnection();
-    Set<ObjectName> objs = mbeanServerConn.queryNames(null, null);
-    ObjectName realName = null;
-
-    // in cassandra 1.1, the mbean has a "random" instance number, listing mbeans and finding the real one.
-    for (ObjectName ob : objs) {
-      if (ob.getCanonicalName().contains("DynamicEndpointSnitch"))
-        realName = ob;
-    }
-    if (realName != null)
-      return JMX.newMBeanProxy(mbeanServerConn, realName, DynamicEndpointSnitchMBean.class);
-    else
-      throw new RuntimeException("Could not find the DynamicEndpointSnitch mbean!");
-  }
-
   private static Map<InetAddress, Double> sortMap(Map<InetAddress, Double> scores) {
     return ImmutableSortedMap.copyOf(scores, Ordering.natural().onResultOf(Functions.forMap(scores)).compound(new Comparator<InetAddress>() {
           @Override
@@ -0,0 +1,57 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import java.net.InetAddress;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches reverse DNS lookups, which are slow and done for the same few hundred peers over and over
+ */
+public class HostNames {
+  /**
+   * Orders addresses by their bytes, IPv4 before IPv6. Unlike their textual representation, this
+   * doesn't change when the host name is looked up.
+   */
+  public static final Comparator<InetAddress> ORDER = new Comparator<InetAddress>() {
+    @Override
+    public int compare(InetAddress o1, InetAddress o2) {
+      byte[] a = o1.getAddress();
+      byte[] b = o2.getAddress();
+      if (a.length != b.length) {
+        return a.length - b.length;
+      }
+      for (int i = 0; i < a.length; i++) {
+        int comparison = (a[i] & 0xff) - (b[i] & 0xff);
+        if (comparison != 0) {
+          return comparison;
+        }
+      }
+      return 0;
+    }
+  };
+
+  private final ConcurrentMap<InetAddress, String> names = new ConcurrentHashMap<InetAddress, String>();
+
+  public String get(InetAddress address) {
+    String name = names.get(address);
+    if (name == null) {
+      name = address.getHostName();
+      names.putIfAbsent(address, name);
+    }
+    return name;
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import org.apache.cassandra.tools.NodeProbe;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.JMX;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Opens JMX connections to Cassandra nodes with the same port, credentials and connect timeout, and
+ * keeps one connection per host open until closed. Safe to use from several threads; connecting to
+ * one host doesn't hold up connecting to another.
+ */
+public class JmxConnections implements Closeable {
+  public static final int DEFAULT_PORT = 7199;
+  public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+  private static final String URL_FORMAT = "service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi";
+
+  private final int port;
+  private final String username;
+  private final String password;
+  private final long timeoutMillis;
+  private final ConcurrentMap<String, Future<JMXConnector>> connectors = new ConcurrentHashMap<String, Future<JMXConnector>>();
+  private final ConcurrentMap<String, Future<NodeProbe>> nodeProbes = new ConcurrentHashMap<String, Future<NodeProbe>>();
+
+  public JmxConnections() {
+    this(DEFAULT_PORT, null, null, DEFAULT_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * @param username the JMX user, or null when JMX authentication is disabled
+   * @param timeoutMillis how long to wait for a connection; calls on an open connection are not limited
+   */
+  public JmxConnections(int port, String username, String password, long timeoutMillis) {
+    this.port = port;
+    this.username = username;
+    this.password = password;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Adds the -p/--port, -u/--username, -pw/--password and -T/--timeout options
+   */
+  public static void addOptions(Options options) {
+    options.addOption("p", "port", true, "JMX port to connect to (default: " + DEFAULT_PORT + ")");
+    options.addOption("u", "username", true, "JMX username");
+    options.addOption("pw", "password", true, "JMX password");
+    options.addOption("T", "timeout", true, "Seconds to wait for a JMX connection (default: "
+                                            + TimeUnit.MILLISECONDS.toSeconds(DEFAULT_TIMEOUT_MILLIS) + ")");
+  }
+
+  public static JmxConnections fromCommandLine(CommandLine cmd) {
+    return fromCommandLine(cmd, DEFAULT_PORT);
+  }
+
+  /**
+   * @param defaultPort the port to connect to unless -p was given, e.g. for tools also taking it as an argument
+   */
+  public static JmxConnections fromCommandLine(CommandLine cmd, int defaultPort) {
+    return new JmxConnections(cmd.hasOption("p") ? Integer.parseInt(cmd.getOptionValue("p")) : defaultPort,
+                              cmd.getOptionValue("u"), cmd.getOptionValue("pw"),
+                              cmd.hasOption("T") ? TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue("T")))
+                                                 : DEFAULT_TIMEOUT_MILLIS);
+  }
+
+  public int port() {
+    return port;
+  }
+
+  /**
+   * @return how long to wait for a connection
+   */
+  public long timeoutMillis() {
+    return timeoutMillis;
+  }
+
+  public MBeanServerConnection connection(final String host) throws IOException {
+    return cached(connectors, host, new Callable<JMXConnector>() {
+      @Override
+      public JMXConnector call() throws IOException {
+        Map<String, Object> env = new HashMap<String, Object>();
+        if (username != null) {
+          env.put(JMXConnector.CREDENTIALS, new String[] {username, password});
+        }
+        return JMXConnectorFactory.connect(new JMXServiceURL(String.format(URL_FORMAT, host, port)), env);
+      }
+    }).getMBeanServerConnection();
+  }
+
+  /**
+   * @param name the name of the MBean, e.g. "org.apache.cassandra.db:type=StorageService"
+   */
+  public <T> T proxy(String host, String name, Class<T> mbeanInterface) throws IOException {
+    return JMX.newMBeanProxy(connection(host), objectName(name), mbeanInterface);
+  }
+
+  /**
+   * Finds the only MBean matching a pattern, for MBeans whose names have parts that vary between
+   * Cassandra versions
+   *
+   * @param pattern an ObjectName pattern, e.g. "org.apache.cassandra.db:type=DynamicEndpointSnitch,*"
+   */
+  public <T> T find(String host, String pattern, Class<T> mbeanInterface) throws IOException {
+    MBeanServerConnection connection = connection(host);
+    Set<ObjectName> names = connection.queryNames(objectName(pattern), null);
+    if (names.size() != 1) {
+      throw new IOException(String.format("Expected one MBean matching %s on %s, found %d", pattern, host, names.size()));
+    }
+    return JMX.newMBeanProxy(connection, names.iterator().next(), mbeanInterface);
+  }
+
+  /**
+   * @return a NodeProbe for the host, which has its own connection
+   */
+  public NodeProbe nodeProbe(final String host) throws IOException {
+    return cached(nodeProbes, host, new Callable<NodeProbe>() {
+      @Override
+      public NodeProbe call() throws IOException {
+        return username == null ? new NodeProbe(host, port) : new NodeProbe(host, port, username, password);
+      }
+    });
+  }
+
+  /**
+   * Closes and forgets the connections to a host, so that the next call reconnects. Useful once a
+   * connection is broken, e.g. because the node restarted.
+   */
+  public void evict(String host) throws IOException {
+    Future<JMXConnector> connector = connectors.remove(host);
+    JMXConnector openedConnector = connector == null ? null : opened(connector);
+    Future<NodeProbe> nodeProbe = nodeProbes.remove(host);
+    NodeProbe openedNodeProbe = nodeProbe == null ? null : opened(nodeProbe);
+    try {
+      if (openedConnector != null) {
+        openedConnector.close();
+      }
+    } finally {
+      if (openedNodeProbe != null) {
+        openedNodeProbe.close();
+      }
+    }
+  }
+
+  private static ObjectName objectName(String name) {
+    try {
+      return new ObjectName(name);
+    } catch (MalformedObjectNameException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * Connects to the host in a thread of its own, so that the attempt can be given up after the timeout.
+   * Failed attempts are not cached.
+   */
+  private <T> T cached(ConcurrentMap<String, Future<T>> cache, String host, Callable<T> connect) throws IOException {
+    Future<T> future = cache.get(host);
+    if (future == null) {
+      FutureTask<T> task = new FutureTask<T>(connect);
+      future = cache.putIfAbsent(host, task);
+      if (future == null) {
+        future = task;
+        Thread thread = new Thread(task, "jmx-connect-" + host);
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      cache.remove(host, future);
+      future.cancel(true);
+      throw new IOException(String.format("Timed out connecting to %s:%d", host, port));
+    } catch (ExecutionException e) {
+      cache.remove(host, future);
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(String.format("Failed to connect to %s:%d", host, port), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while connecting to " + host);
+    }
+  }
+
+  /**
+   * Closes all connections
+   */
+  @Override
+  public void close() throws IOException {
+    for (Future<JMXConnector> connector : connectors.values()) {
+      JMXConnector opened = opened(connector);
+      if (opened != null) {
+        opened.close();
+      }
+    }
+    for (Future<NodeProbe> nodeProbe : nodeProbes.values()) {
+      NodeProbe opened = opened(nodeProbe);
+      if (opened != null) {
+        opened.close();
+      }
+    }
+    connectors.clear();
+    nodeProbes.clear();
+  }
+
+  private static <T> T opened(Future<T> future) {
+    if (!future.isDone() || future.isCancelled()) {
+      return null;
+    }
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+}
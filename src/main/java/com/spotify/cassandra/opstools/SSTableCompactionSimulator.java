@@ -0,0 +1,209 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import com.spotify.cassandra.opstools.compaction.CompactionSimulator;
+import com.spotify.cassandra.opstools.compaction.CompactionStrategy;
+import com.spotify.cassandra.opstools.compaction.SimulatedSSTable;
+import com.spotify.cassandra.opstools.compaction.StrategyOptions;
+
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Predicts what a compaction strategy would do with the sstables of a column family
+ */
+public class SSTableCompactionSimulator {
+
+  public static void main(String[] args) throws IOException, InterruptedException, ParseException {
+    String usage = String.format("Usage: %s [-s <strategy>] [-o <options>] [-r] [-v] [-D <time>] [-g <seconds>] " +
+                                 "[-d <data dir> [-k <keyspace>] [-f <columnfamily>]] [<sstable> ...]%n",
+                                 SSTableCompactionSimulator.class.getName());
+
+    final Options options = new Options();
+    options.addOption("p", "partitioner", true, "The partitioner used by database");
+    options.addOption("s", "strategy", true, "SizeTieredCompactionStrategy (default) or DateTieredCompactionStrategy");
+    options.addOption("o", "options", true, "Compaction options, e.g. min_threshold=4,bucket_high=1.5");
+    options.addOption("r", "replay", false, "Add the sstables one at a time in the order they were written, compacting in between");
+    options.addOption("v", "verbose", false, "Print every compaction");
+    options.addOption("D", "droppable-by", true, "Drop the tombstones droppable by this time, in seconds since the epoch, when compacting");
+    options.addOption("g", "gc-grace", true, "gc_grace_seconds of the column family (default: 864000)");
+    options.addOption("j", "threads", true, "Number of threads reading sstable metadata (default: number of processors)");
+    options.addOption("d", "data-dir", true, "Simulate all sstables in this data directory");
+    options.addOption("k", "keyspace", true, "Only simulate sstables of this keyspace in the data directory");
+    options.addOption("f", "columnfamily", true, "Only simulate sstables of this column family in the data directory");
+
+    CommandLineParser parser = new BasicParser();
+    CommandLine cmd = parser.parse(options, args);
+
+    if (cmd.getArgs().length < 1 && !cmd.hasOption("d")) {
+      System.err.println("You must supply at least one sstable or a data directory");
+      System.err.println(usage);
+      System.exit(1);
+    }
+
+    CompactionStrategy strategy;
+    try {
+      strategy = StrategyOptions.create(cmd.hasOption("s") ? cmd.getOptionValue("s") : "SizeTieredCompactionStrategy",
+                                        cmd.getOptionValue("o"));
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(usage);
+      System.exit(1);
+      return;
+    }
+
+    // Fake DatabaseDescriptor settings so we don't have to load cassandra.yaml etc
+    Config.setClientMode(true);
+    String partitionerName = String.format("org.apache.cassandra.dht.%s",
+                                           cmd.hasOption("p") ? cmd.getOptionValue("p") : "RandomPartitioner");
+    IPartitioner<?> partitioner;
+    try {
+      Class<?> clazz = Class.forName(partitionerName);
+      partitioner = (IPartitioner<?>) clazz.newInstance();
+      DatabaseDescriptor.setPartitioner(partitioner);
+    } catch (Exception e) {
+      throw new RuntimeException("Can't instantiate partitioner " + partitionerName);
+    }
+
+    List<Descriptor> descriptors = new ArrayList<Descriptor>();
+    if (cmd.hasOption("d")) {
+      descriptors.addAll(DataDirectory.findSSTables(new File(cmd.getOptionValue("d")),
+                                                    cmd.getOptionValue("k"), cmd.getOptionValue("f")));
+    }
+    for (String arg : cmd.getArgs()) {
+      descriptors.add(Descriptor.fromFilename(new File(arg).getAbsolutePath()));
+    }
+
+    // Sstables are only compacted with other sstables of the same column family
+    Map<String, List<Descriptor>> columnFamilies = new LinkedHashMap<String, List<Descriptor>>();
+    for (Descriptor descriptor : descriptors) {
+      String name = descriptor.ksname + "." + descriptor.cfname;
+      if (!columnFamilies.containsKey(name)) {
+        columnFamilies.put(name, new ArrayList<Descriptor>());
+      }
+      columnFamilies.get(name).add(descriptor);
+    }
+
+    // Without -D no tombstones are dropped
+    int gcBefore = Integer.MIN_VALUE;
+    if (cmd.hasOption("D")) {
+      int gcGrace = cmd.hasOption("g") ? Integer.parseInt(cmd.getOptionValue("g"))
+                                       : SSTableTimestampViewer.DEFAULT_GC_GRACE_SECONDS;
+      gcBefore = Integer.parseInt(cmd.getOptionValue("D")) - gcGrace;
+    }
+    int threads = cmd.hasOption("j") ? Integer.parseInt(cmd.getOptionValue("j"))
+                                     : Runtime.getRuntime().availableProcessors();
+
+    PrintStream out = System.out;
+    out.println(strategy);
+    out.println();
+    for (Map.Entry<String, List<Descriptor>> entry : columnFamilies.entrySet()) {
+      List<SimulatedSSTable> sstables = load(entry.getValue(), partitioner, threads, gcBefore);
+      CompactionSimulator simulator = new CompactionSimulator(strategy);
+      out.printf("%s: %d sstables%n", entry.getKey(), sstables.size());
+
+      if (cmd.hasOption("r")) {
+        // Sstables are flushed in the order of their newest data
+        Collections.sort(sstables, new Comparator<SimulatedSSTable>() {
+          @Override
+          public int compare(SimulatedSSTable a, SimulatedSSTable b) {
+            return Long.compare(a.maxTimestamp, b.maxTimestamp);
+          }
+        });
+        for (SimulatedSSTable sstable : sstables) {
+          simulator.add(sstable);
+          simulator.compact(cmd.hasOption("v") ? out : null);
+        }
+      } else {
+        for (SimulatedSSTable sstable : sstables) {
+          simulator.add(sstable);
+        }
+        print("Before", simulator, partitioner, out);
+        simulator.compact(cmd.hasOption("v") ? out : null);
+      }
+
+      out.printf("Compactions: %d%n", simulator.compactions());
+      out.printf("Bytes compacted: %d read, %d written (%.2f times the data)%n", simulator.bytesRead(),
+                 simulator.bytesWritten(), simulator.bytesAdded() == 0 ? 0 : (double) simulator.bytesWritten() / simulator.bytesAdded());
+      if (cmd.hasOption("r")) {
+        out.printf("Write amplification: %.2f%n", simulator.writeAmplification());
+      }
+      print("After", simulator, partitioner, out);
+      out.println();
+    }
+
+    System.exit(0);
+  }
+
+  private static void print(String when, CompactionSimulator simulator, IPartitioner<?> partitioner, PrintStream out) {
+    long bytes = 0;
+    List<SSTableTimestampViewer.TimeMetadata> metadata = new ArrayList<SSTableTimestampViewer.TimeMetadata>();
+    for (SimulatedSSTable sstable : simulator.sstables()) {
+      bytes += sstable.size;
+      metadata.add(new SSTableTimestampViewer.TimeMetadata(sstable.name, sstable.minTimestamp, sstable.maxTimestamp,
+                                                           sstable.size, sstable.droppableBytes));
+    }
+    Collections.sort(metadata, new Comparator<SSTableTimestampViewer.TimeMetadata>() {
+      @Override
+      public int compare(SSTableTimestampViewer.TimeMetadata a, SSTableTimestampViewer.TimeMetadata b) {
+        return Long.compare(a.minTimestamp, b.minTimestamp);
+      }
+    });
+
+    TokenOverlap overlap = simulator.overlap(partitioner);
+    out.printf("%s: %d sstables, %d bytes%n", when, simulator.sstables().size(), bytes);
+    out.printf("  Worst case sstables per read: p50 %d, p95 %d, p99 %d, max %d%n", overlap.percentile(0.5),
+               overlap.percentile(0.95), overlap.percentile(0.99), overlap.maxDepth());
+    out.printf("  Most sstables covering the same time: %d%n",
+               metadata.isEmpty() ? 0 : SSTableTimestampViewer.sweep(metadata, null).time().length - 1);
+  }
+
+  private static List<SimulatedSSTable> load(List<Descriptor> descriptors, IPartitioner<?> partitioner, int threads,
+                                             int gcBefore) throws IOException, InterruptedException {
+    List<String> fnames = new ArrayList<String>(descriptors.size());
+    for (Descriptor descriptor : descriptors) {
+      fnames.add(descriptor.filenameFor(Component.DATA));
+    }
+    List<SSTableTimestampViewer.TimeMetadata> metadata = SSTableTimestampViewer.loadMetadata(fnames, threads, gcBefore, null);
+
+    List<SimulatedSSTable> sstables = new ArrayList<SimulatedSSTable>(descriptors.size());
+    for (int i = 0; i < descriptors.size(); i++) {
+      SSTableTimestampViewer.TimeMetadata md = metadata.get(i);
+      Token<?>[] bounds = SSTableTokenOverlap.tokenBounds(descriptors.get(i), partitioner);
+      sstables.add(new SimulatedSSTable(md.name, md.dataFileSize, md.droppableBytes, md.minTimestamp, md.maxTimestamp,
+                                        bounds[0], bounds[1]));
+    }
+    return sstables;
+  }
+}
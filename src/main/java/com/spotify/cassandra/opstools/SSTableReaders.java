@@ -0,0 +1,39 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+import java.io.IOException;
+
+/**
+ * Frees sstable readers opened by the tools
+ */
+public class SSTableReaders {
+  private SSTableReaders() {
+  }
+
+  /**
+   * Frees the bloom filter and index summary of a reader, which live off-heap and are never
+   * reclaimed by the garbage collector. Neither {@code releaseReference()}, which only tidies
+   * sstables marked obsolete, nor {@code close()}, which needs the file cache configured in
+   * cassandra.yaml, can do it for a reader opened in client mode.
+   *
+   * The reader can't be used afterwards.
+   */
+  public static void release(SSTableReader reader) throws IOException {
+    reader.getBloomFilter().close();
+    reader.releaseSummary();
+  }
+}
@@ -17,15 +17,27 @@ import com.google.common.collect.Lists;
 
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTableMetadata;
+import org.apache.cassandra.utils.EstimatedHistogram;
+import org.apache.cassandra.utils.StreamingHistogram;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Shows the minimum and maximum sstable timestamps
@@ -35,89 +47,348 @@ public class SSTableTimestampViewer
     /**
      * @param args a list of sstables whose metadata we're interested in
      */
-    public static void main(String[] args) throws IOException
+    public static void main(String[] args) throws IOException, ParseException, InterruptedException
     {
         PrintStream out = System.out;
-        if (args.length == 0)
+
+        Options options = new Options();
+        options.addOption("i", "skip-intervals", false, "Don't print every interval, only the time covered by each number of sstables");
+        options.addOption("j", "threads", true, "Number of threads reading sstable metadata (default: number of processors)");
+        options.addOption("D", "droppable-by", true, "Estimate the data droppable by this time, in seconds since the epoch (default: now)");
+        options.addOption("g", "gc-grace", true, "gc_grace_seconds of the column family (default: 864000)");
+        options.addOption("w", "watch", true, "Keep watching the sstables in this column family directory");
+        options.addOption("I", "interval", true, "How often to print the time covered by each number of sstables when watching, in seconds (default: 60)");
+
+        CommandLineParser parser = new BasicParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption("w"))
         {
-            out.println("Usage: spcassandra-sstable-timestamp <sstable filenames>");
-            System.exit(1);
+            long interval = cmd.hasOption("I") ? Long.parseLong(cmd.getOptionValue("I")) : 60;
+            new SSTableWatcher(new java.io.File(cmd.getOptionValue("w"))).run(TimeUnit.SECONDS.toMillis(interval), out);
+            return;
         }
-
-        List<TimeMetadata> metadata = Lists.newArrayListWithExpectedSize(args.length);
-        for (String fname : args)
+        if (cmd.getArgs().length == 0)
         {
-            Descriptor descriptor = Descriptor.fromFilename(fname);
-            SSTableMetadata md = SSTableMetadata.serializer.deserialize(descriptor).left;
-            metadata.add(new TimeMetadata(descriptor.toString(), md.minTimestamp, md.maxTimestamp, new java.io.File(descriptor.baseFilename() + "-Data.db").length()));
+            out.println("Usage: spcassandra-sstable-timestamp [-i] [-j <threads>] [-D <time>] [-g <seconds>] <sstable filenames>");
+            out.println("       spcassandra-sstable-timestamp -w <column family directory> [-I <seconds>]");
+            System.exit(1);
         }
 
+        int threads = cmd.hasOption("j") ? Integer.parseInt(cmd.getOptionValue("j"))
+                                         : Runtime.getRuntime().availableProcessors();
+        int droppableBy = cmd.hasOption("D") ? Integer.parseInt(cmd.getOptionValue("D")) : (int) (System.currentTimeMillis() / 1000);
+        int gcGrace = cmd.hasOption("g") ? Integer.parseInt(cmd.getOptionValue("g")) : DEFAULT_GC_GRACE_SECONDS;
+        MergedHistograms histograms = new MergedHistograms();
+        List<TimeMetadata> metadata = loadMetadata(Arrays.asList(cmd.getArgs()), threads, droppableBy - gcGrace, histograms);
+
         Collections.sort(metadata, new Comparator<TimeMetadata>() {
             public int compare(TimeMetadata o1, TimeMetadata o2) {
                 return Long.compare(o1.minTimestamp, o2.minTimestamp);
             }
         });
 
-        long[] timespanHistogram = new long[metadata.size() + 1];
-        SortedSet<TimeMetadata> currentOverlaps = new TreeSet<>(new Comparator<TimeMetadata>() {
+        for (TimeMetadata md : metadata)
+            out.println(md);
+
+        Timespans timespans = sweep(metadata, cmd.hasOption("i") ? null : out);
+        out.println();
+
+        printTimespans(out, timespans.time());
+        out.println();
+
+        String date = new Date(droppableBy * 1000L).toString();
+        printWeighted(out, "Data", timespans.weighted(Timespans.BYTES));
+        printWeighted(out, "Data droppable by " + date, timespans.weighted(Timespans.DROPPABLE_BYTES));
+        out.println();
+
+        double tombstones = histograms.tombstones(Integer.MAX_VALUE);
+        double droppable = histograms.tombstones(droppableBy - gcGrace);
+        out.printf("Estimated tombstones droppable by %s (gc_grace %ss): %.0f of %.0f (%.2f%%)%n", date, gcGrace, droppable, tombstones, tombstones == 0 ? 0 : droppable / tombstones * 100);
+        EstimatedHistogram partitionSize = histograms.partitionSize();
+        if (partitionSize.count() > 0)
+            out.printf("Estimated partition size in bytes: p50 %s, p75 %s, p95 %s, p99 %s, max %s%s%n",
+                       partitionSize.percentile(0.5), partitionSize.percentile(0.75), partitionSize.percentile(0.95), partitionSize.percentile(0.99),
+                       partitionSize.max(), partitionSize.isOverflowed() ? " (overflowed)" : "");
+    }
+
+    static void printTimespans(PrintStream out, long[] timespanHistogram)
+    {
+        long timespan = 0;
+        for (long time : timespanHistogram)
+            timespan += time;
+        for (int i = 0; i < timespanHistogram.length; i++)
+            out.printf("Total time covered by %s sstables: %s (%.2f%%)%n", i, timespanHistogram[i], timespan == 0 ? 0 : (double)timespanHistogram[i] / timespan * 100);
+    }
+
+    private static void printWeighted(PrintStream out, String what, double[] histogram)
+    {
+        double total = 0;
+        for (double bytes : histogram)
+            total += bytes;
+        for (int i = 0; i < histogram.length; i++)
+            out.printf("%s in time covered by %s sstables: %.0f bytes (%.2f%%)%n", what, i, histogram[i], total == 0 ? 0 : histogram[i] / total * 100);
+    }
+
+    /**
+     * Reads the timestamps from the Statistics component of each sstable
+     */
+    public static List<TimeMetadata> loadMetadata(List<String> fnames) throws IOException
+    {
+        return loadMetadata(fnames, Integer.MIN_VALUE, null);
+    }
+
+    private static List<TimeMetadata> loadMetadata(List<String> fnames, int gcBefore, MergedHistograms histograms) throws IOException
+    {
+        List<TimeMetadata> metadata = Lists.newArrayListWithExpectedSize(fnames.size());
+        for (String fname : fnames)
+            metadata.add(loadMetadata(fname, gcBefore, histograms));
+        return metadata;
+    }
+
+    /**
+     * Reads the timestamps from the Statistics component of each sstable, using several threads
+     *
+     * @return the metadata in the same order as fnames
+     */
+    public static List<TimeMetadata> loadMetadata(List<String> fnames, int threads) throws IOException, InterruptedException
+    {
+        return loadMetadata(fnames, threads, Integer.MIN_VALUE, null);
+    }
+
+    /**
+     * Reads the timestamps from the Statistics component of each sstable, using several threads, and estimates
+     * how much of each sstable is droppable tombstones
+     *
+     * @param gcBefore tombstones deleted before this time, in seconds, are counted as droppable
+     * @param histograms merges the histograms of all sstables, unless null
+     * @return the metadata in the same order as fnames
+     */
+    public static List<TimeMetadata> loadMetadata(List<String> fnames, int threads, final int gcBefore, final MergedHistograms histograms) throws IOException, InterruptedException
+    {
+        if (threads <= 1)
+            return loadMetadata(fnames, gcBefore, histograms);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<TimeMetadata>> futures = Lists.newArrayListWithExpectedSize(fnames.size());
+            for (final String fname : fnames)
+            {
+                futures.add(executor.submit(new Callable<TimeMetadata>() {
+                    public TimeMetadata call() throws IOException {
+                        return loadMetadata(fname, gcBefore, histograms);
+                    }
+                }));
+            }
+
+            List<TimeMetadata> metadata = Lists.newArrayListWithExpectedSize(fnames.size());
+            for (int i = 0; i < futures.size(); i++)
+            {
+                try
+                {
+                    metadata.add(futures.get(i).get());
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IOException("Failed to read metadata of " + fnames.get(i), e.getCause());
+                }
+            }
+            return metadata;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static TimeMetadata loadMetadata(String fname, int gcBefore, MergedHistograms histograms) throws IOException
+    {
+        Descriptor descriptor = Descriptor.fromFilename(fname);
+        SSTableMetadata md = SSTableMetadata.serializer.deserialize(descriptor).left;
+        if (histograms != null)
+            histograms.add(md);
+        long dataFileSize = new java.io.File(descriptor.baseFilename() + "-Data.db").length();
+        // The droppable tombstone ratio is relative to the number of columns, not their size
+        double droppableRatio = Math.min(Math.max(md.getEstimatedDroppableTombstoneRatio(gcBefore), 0), 1);
+        return new TimeMetadata(descriptor.toString(), md.minTimestamp, md.maxTimestamp, dataFileSize, (long) (dataFileSize * droppableRatio));
+    }
+
+    static final int DEFAULT_GC_GRACE_SECONDS = 864000;
+
+    /**
+     * Sweeps over the timestamps of the given sstables, which must be sorted by minimum timestamp
+     */
+    static Timespans sweep(List<TimeMetadata> metadata, PrintStream out)
+    {
+        List<TimeMetadata> byMaxTimestamp = Lists.newArrayList(metadata);
+        Collections.sort(byMaxTimestamp, new Comparator<TimeMetadata>() {
             public int compare(TimeMetadata o1, TimeMetadata o2) {
                 return Long.compare(o1.maxTimestamp, o2.maxTimestamp);
             }
         });
 
-        List<Interval<Long, Integer>> intervals = Lists.newArrayList();
+        int n = metadata.size();
+        long[] minTimestamps = new long[n];
+        long[] maxTimestamps = new long[n];
+        double[][] startRates = new double[Timespans.WEIGHTS][n];
+        double[][] endRates = new double[Timespans.WEIGHTS][n];
+        double[][] pointWeights = new double[Timespans.WEIGHTS][n];
+        for (int i = 0; i < n; i++)
+        {
+            TimeMetadata start = metadata.get(i);
+            TimeMetadata end = byMaxTimestamp.get(i);
+            minTimestamps[i] = start.minTimestamp;
+            maxTimestamps[i] = end.maxTimestamp;
+            for (int w = 0; w < Timespans.WEIGHTS; w++)
+            {
+                // Data is assumed to be spread evenly over the timespan of each sstable
+                long startSpan = start.maxTimestamp - start.minTimestamp;
+                long endSpan = end.maxTimestamp - end.minTimestamp;
+                startRates[w][i] = startSpan > 0 ? (double) start.weight(w) / startSpan : 0;
+                endRates[w][i] = endSpan > 0 ? (double) end.weight(w) / endSpan : 0;
+                pointWeights[w][i] = startSpan > 0 ? 0 : start.weight(w);
+            }
+        }
+        return sweep(minTimestamps, startRates, pointWeights, maxTimestamps, endRates, out);
+    }
 
+    /**
+     * Sweeps over the sstable start and end timestamps in order, keeping track of how many sstables overlap.
+     *
+     * Sstables end in the order of their maximum timestamps, so the two sorted arrays are all that is needed.
+     * An sstable starting at the same time another one ends overlaps with it. The weights of the overlapping
+     * sstables are tracked as a rate per unit of time, which changes as sstables start and end.
+     *
+     * @param minTimestamps the minimum timestamps of all sstables, sorted
+     * @param startRates the weights per unit of time of the sstables, in the order of minTimestamps
+     * @param pointWeights the weights of sstables whose minimum and maximum timestamps are the same
+     * @param maxTimestamps the maximum timestamps of all sstables, sorted
+     * @param endRates the weights per unit of time of the sstables, in the order of maxTimestamps
+     * @param out prints every interval between two start or end timestamps, unless null
+     */
+    static Timespans sweep(long[] minTimestamps, double[][] startRates, double[][] pointWeights,
+                           long[] maxTimestamps, double[][] endRates, PrintStream out)
+    {
+        Timespans timespans = new Timespans();
+        double[] rates = new double[Timespans.WEIGHTS];
+        int overlaps = 0;
+        int ends = 0;
         long currentTime = 0;
         boolean wasMax = false;
-        for (TimeMetadata md : metadata)
+        for (int starts = 0; starts < minTimestamps.length; starts++)
         {
-            while (currentOverlaps.size() > 0 && currentOverlaps.first().maxTimestamp < md.minTimestamp) {
-                intervals.add(new Interval<>(currentTime, !wasMax, currentOverlaps.first().maxTimestamp, true, currentOverlaps.size()));
-                timespanHistogram[currentOverlaps.size()] += currentOverlaps.first().maxTimestamp - currentTime;
-                currentTime = currentOverlaps.first().maxTimestamp;
+            long minTimestamp = minTimestamps[starts];
+            while (overlaps > 0 && maxTimestamps[ends] < minTimestamp)
+            {
+                timespans.interval(out, currentTime, !wasMax, maxTimestamps[ends], true, overlaps, rates);
+                // Reset when nothing overlaps, so rounding errors do not carry over to the next sstables
+                overlaps--;
+                for (int w = 0; w < Timespans.WEIGHTS; w++)
+                    rates[w] = overlaps > 0 ? rates[w] - endRates[w][ends] : 0;
+                currentTime = maxTimestamps[ends++];
                 wasMax = true;
-                currentOverlaps.remove(currentOverlaps.first());
             }
-            if (currentTime != 0) {
-                intervals.add(new Interval<>(currentTime, !wasMax, md.minTimestamp, false, currentOverlaps.size()));
-                timespanHistogram[currentOverlaps.size()] += md.minTimestamp - currentTime;
-            }
-            currentTime = md.minTimestamp;
+            if (starts > 0)
+                timespans.interval(out, currentTime, !wasMax, minTimestamp, false, overlaps, rates);
+            currentTime = minTimestamp;
             wasMax = false;
-            currentOverlaps.add(md);
+            overlaps++;
+            for (int w = 0; w < Timespans.WEIGHTS; w++)
+            {
+                rates[w] += startRates[w][starts];
+                timespans.point(w, overlaps, pointWeights[w][starts]);
+            }
         }
-        while (currentOverlaps.size() > 0) {
-            intervals.add(new Interval<>(currentTime, !wasMax, currentOverlaps.first().maxTimestamp, true, currentOverlaps.size()));
-            timespanHistogram[currentOverlaps.size()] += currentOverlaps.first().maxTimestamp - currentTime;
-            currentTime = currentOverlaps.first().maxTimestamp;
+        while (overlaps > 0)
+        {
+            timespans.interval(out, currentTime, !wasMax, maxTimestamps[ends], true, overlaps, rates);
+            for (int w = 0; w < Timespans.WEIGHTS; w++)
+                rates[w] -= endRates[w][ends];
+            currentTime = maxTimestamps[ends++];
             wasMax = true;
-            currentOverlaps.remove(currentOverlaps.first());
+            overlaps--;
         }
+        return timespans;
+    }
 
-        for (TimeMetadata md : metadata)
-            out.println(md);
+    /**
+     * The time covered by each number of overlapping sstables, and the data in that time
+     */
+    static class Timespans
+    {
+        static final int WEIGHTS = 2;
+        static final int BYTES = 0;
+        static final int DROPPABLE_BYTES = 1;
 
-        for (Interval<Long, Integer> interval : intervals)
-            out.println(interval);
-        out.println();
+        private long[] time = new long[2];
+        private double[][] weighted = new double[WEIGHTS][2];
+        private int maxOverlaps;
 
-        for (int i = 0; i < timespanHistogram.length; i++)
-            out.printf("Total time covered by %s sstables: %s (%.2f%%)%n", i, timespanHistogram[i], (double)timespanHistogram[i] / (currentTime - metadata.get(0).minTimestamp) * 100);
+        void interval(PrintStream out, long lowerBound, boolean closedLowerBound, long upperBound, boolean closedUpperBound, int overlaps, double[] rates)
+        {
+            if (out != null)
+                out.printf("In interval %s%s, %s%s: %s sstables%n",
+                           closedLowerBound ? "[" : "(", lowerBound, upperBound, closedUpperBound ? "]" : ")", overlaps);
+            grow(overlaps);
+            time[overlaps] += upperBound - lowerBound;
+            for (int w = 0; w < WEIGHTS; w++)
+                weighted[w][overlaps] += rates[w] * (upperBound - lowerBound);
+        }
+
+        void point(int weight, int overlaps, double value)
+        {
+            grow(overlaps);
+            weighted[weight][overlaps] += value;
+        }
+
+        private void grow(int overlaps)
+        {
+            maxOverlaps = Math.max(maxOverlaps, overlaps);
+            if (overlaps < time.length)
+                return;
+            int length = Math.max(overlaps + 1, time.length * 2);
+            time = Arrays.copyOf(time, length);
+            for (int w = 0; w < WEIGHTS; w++)
+                weighted[w] = Arrays.copyOf(weighted[w], length);
+        }
+
+        /**
+         * @return the time covered by exactly i sstables, for every i up to the maximum number of overlapping sstables
+         */
+        long[] time()
+        {
+            return Arrays.copyOf(time, maxOverlaps + 1);
+        }
+
+        /**
+         * @return the given weight of the data in time covered by exactly i sstables
+         */
+        double[] weighted(int weight)
+        {
+            return Arrays.copyOf(weighted[weight], maxOverlaps + 1);
+        }
     }
 
-    private static class TimeMetadata
+    public static class TimeMetadata
     {
         public final String name;
         public final long minTimestamp;
         public final long maxTimestamp;
         public final long dataFileSize;
+        public final long droppableBytes;
 
-        TimeMetadata(String name, long minTimestamp, long maxTimestamp, long dataFileSize)
+        TimeMetadata(String name, long minTimestamp, long maxTimestamp, long dataFileSize, long droppableBytes)
         {
             this.name = name;
             this.minTimestamp = minTimestamp;
             this.maxTimestamp = maxTimestamp;
             this.dataFileSize = dataFileSize;
+            this.droppableBytes = droppableBytes;
+        }
+
+        long weight(int weight)
+        {
+            return weight == Timespans.BYTES ? dataFileSize : droppableBytes;
         }
 
         public String toString()
@@ -129,42 +400,57 @@ public class SSTableTimestampViewer
         }
     }
 
-    private static class Bound<T>
+    /**
+     * The partition size and tombstone drop time histograms of several sstables, merged
+     */
+    public static class MergedHistograms
     {
-        public final T bound;
-        public final boolean closed;
+        // The number of bins of the tombstone drop time histograms written by Cassandra
+        private static final int TOMBSTONE_HISTOGRAM_BIN_SIZE = 100;
 
-        public Bound(T bound, boolean closed)
-        {
-            this.bound = bound;
-            this.closed = closed;
-        }
-    }
+        private long[] offsets;
+        private long[] buckets;
+        private final StreamingHistogram tombstoneDropTime = new StreamingHistogram(TOMBSTONE_HISTOGRAM_BIN_SIZE);
 
-    private static class Interval<T, V>
-    {
-        public final Bound<T> lowerBound;
-        public final Bound<T> upperBound;
-        public final V value;
-
-        public Interval(Bound<T> lowerBound, Bound<T> upperBound, V value)
+        public synchronized void add(SSTableMetadata metadata)
         {
-            this.lowerBound = lowerBound;
-            this.upperBound = upperBound;
-            this.value = value;
+            long[] addedOffsets = metadata.estimatedRowSize.getBucketOffsets();
+            long[] addedBuckets = metadata.estimatedRowSize.getBuckets(false);
+            if (offsets == null)
+            {
+                offsets = addedOffsets.clone();
+                buckets = addedBuckets.clone();
+            }
+            else if (Arrays.equals(offsets, addedOffsets))
+            {
+                for (int i = 0; i < buckets.length; i++)
+                    buckets[i] += addedBuckets[i];
+            }
+            else
+            {
+                // Each bucket counts values up to its offset, the last one counts the values that overflowed
+                for (int i = 0; i < addedBuckets.length; i++)
+                {
+                    if (addedBuckets[i] == 0)
+                        continue;
+                    int j = i < addedOffsets.length ? Arrays.binarySearch(offsets, addedOffsets[i]) : buckets.length - 1;
+                    buckets[j < 0 ? -j - 1 : j] += addedBuckets[i];
+                }
+            }
+            tombstoneDropTime.merge(metadata.estimatedTombstoneDropTime);
         }
 
-        public Interval(T lowerBound, boolean closedLowerBound, T upperBound, boolean closedUpperBound, V value)
+        public synchronized EstimatedHistogram partitionSize()
         {
-            this.lowerBound = new Bound<T>(lowerBound, closedLowerBound);
-            this.upperBound = new Bound<T>(upperBound, closedUpperBound);
-            this.value = value;
+            return offsets == null ? new EstimatedHistogram() : new EstimatedHistogram(offsets, buckets.clone());
         }
 
-        public String toString()
+        /**
+         * @return the estimated number of tombstones deleted before the given time, in seconds
+         */
+        public synchronized double tombstones(int before)
         {
-            return String.format("In interval %s%s, %s%s: %s sstables",
-                                 lowerBound.closed ? "[" : "(", lowerBound.bound, upperBound.bound, upperBound.closed ? "]" : ")", value);
+            return tombstoneDropTime.sum(before);
         }
     }
 }
@@ -0,0 +1,186 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.IndexSummary;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows how many sstables cover each part of the token ring, based on their first and last keys
+ */
+public class SSTableTokenOverlap {
+  private static final double[] PERCENTILES = {0.5, 0.75, 0.9, 0.95, 0.99};
+
+  public static void main(String[] args) throws IOException, ParseException {
+    String usage = String.format("Usage: %s [-i] [-t <n>] [-d <data dir> [-k <keyspace>] [-f <columnfamily>]] [<sstable> ...]%n",
+                                 SSTableTokenOverlap.class.getName());
+
+    final Options options = new Options();
+    options.addOption("p", "partitioner", true, "The partitioner used by database");
+    options.addOption("i", "skip-ranges", false, "Don't print every range, only the summary");
+    options.addOption("t", "top", true, "Number of ranges covered by the most sstables to print (default: 10)");
+    options.addOption("d", "data-dir", true, "Analyze all sstables in this data directory");
+    options.addOption("k", "keyspace", true, "Only analyze sstables of this keyspace in the data directory");
+    options.addOption("f", "columnfamily", true, "Only analyze sstables of this column family in the data directory");
+
+    CommandLineParser parser = new BasicParser();
+    CommandLine cmd = parser.parse(options, args);
+
+    if (cmd.getArgs().length < 1 && !cmd.hasOption("d"))
+    {
+      System.err.println("You must supply at least one sstable or a data directory");
+      System.err.println(usage);
+      System.exit(1);
+    }
+
+    // Fake DatabaseDescriptor settings so we don't have to load cassandra.yaml etc
+    Config.setClientMode(true);
+    String partitionerName = String.format("org.apache.cassandra.dht.%s",
+                                           cmd.hasOption("p") ? cmd.getOptionValue("p") : "RandomPartitioner");
+    IPartitioner<?> partitioner;
+    try {
+      Class<?> clazz = Class.forName(partitionerName);
+      partitioner = (IPartitioner<?>) clazz.newInstance();
+      DatabaseDescriptor.setPartitioner(partitioner);
+    } catch (Exception e) {
+      throw new RuntimeException("Can't instantiate partitioner " + partitionerName);
+    }
+
+    List<Descriptor> descriptors = new ArrayList<Descriptor>();
+    if (cmd.hasOption("d")) {
+      descriptors.addAll(DataDirectory.findSSTables(new File(cmd.getOptionValue("d")),
+                                                    cmd.getOptionValue("k"), cmd.getOptionValue("f")));
+    }
+    for (String arg : cmd.getArgs()) {
+      descriptors.add(Descriptor.fromFilename(new File(arg).getAbsolutePath()));
+    }
+
+    // Sstables only overlap with other sstables of the same column family
+    Map<String, List<Descriptor>> columnFamilies = new LinkedHashMap<String, List<Descriptor>>();
+    for (Descriptor descriptor : descriptors) {
+      String name = descriptor.ksname + "." + descriptor.cfname;
+      if (!columnFamilies.containsKey(name)) {
+        columnFamilies.put(name, new ArrayList<Descriptor>());
+      }
+      columnFamilies.get(name).add(descriptor);
+    }
+
+    PrintStream out = System.out;
+    int top = cmd.hasOption("t") ? Integer.parseInt(cmd.getOptionValue("t")) : 10;
+    for (Map.Entry<String, List<Descriptor>> entry : columnFamilies.entrySet()) {
+      List<Token<?>> firstTokens = new ArrayList<Token<?>>();
+      List<Token<?>> lastTokens = new ArrayList<Token<?>>();
+      for (Descriptor descriptor : entry.getValue()) {
+        Token<?>[] bounds = tokenBounds(descriptor, partitioner);
+        firstTokens.add(bounds[0]);
+        lastTokens.add(bounds[1]);
+      }
+
+      out.printf("%s: %d sstables%n", entry.getKey(), entry.getValue().size());
+      print(new TokenOverlap(partitioner, firstTokens, lastTokens), cmd.hasOption("i"), top, out);
+      out.println();
+    }
+
+    System.exit(0);
+  }
+
+  private static void print(TokenOverlap overlap, boolean skipRanges, int top, PrintStream out) {
+    if (!skipRanges) {
+      for (int i = 0; i < overlap.segments(); i++) {
+        printSegment(overlap, i, out);
+      }
+      out.println();
+    }
+
+    double[] histogram = overlap.histogram();
+    for (int i = 0; i < histogram.length; i++) {
+      out.printf("Ring covered by %d sstables: %.2f%%%n", i, histogram[i] * 100);
+    }
+
+    out.print("Worst case sstables per read of a covered token:");
+    for (double percentile : PERCENTILES) {
+      out.printf(" p%s %d,", percentile * 100 % 1 == 0 ? String.valueOf((int) (percentile * 100)) : percentile * 100,
+                 overlap.percentile(percentile));
+    }
+    out.printf(" max %d%n", overlap.maxDepth());
+
+    if (top > 0) {
+      out.println("Ranges covered by the most sstables:");
+      for (int segment : overlap.deepest(top)) {
+        printSegment(overlap, segment, out);
+      }
+    }
+  }
+
+  private static void printSegment(TokenOverlap overlap, int segment, PrintStream out) {
+    out.printf("In range (%s, %s): %d sstables (%.4f%% of the ring)%n", overlap.start(segment), overlap.end(segment),
+               overlap.depth(segment), overlap.fraction(segment) * 100);
+  }
+
+  /**
+   * Reads the tokens of the first and last partitions of an sstable from its index summary,
+   * without loading the rest of the sstable
+   */
+  static Token<?>[] tokenBounds(Descriptor desc, IPartitioner<?> partitioner) throws IOException {
+    File summary = new File(desc.filenameFor(Component.SUMMARY));
+    if (desc.version.offHeapSummaries && summary.exists()) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(summary)));
+      try {
+        // The first and last keys follow the summary entries
+        IndexSummary.serializer.deserialize(in, partitioner).close();
+        Token<?> first = partitioner.getToken(ByteBufferUtil.readWithLength(in));
+        Token<?> last = partitioner.getToken(ByteBufferUtil.readWithLength(in));
+        return new Token<?>[] {first, last};
+      } finally {
+        in.close();
+      }
+    }
+
+    // Older sstables don't store them; open the sstable, which scans the index file instead
+    CFMetaData cfm = new CFMetaData(desc.ksname, desc.cfname, ColumnFamilyType.Standard,
+                                    UTF8Type.instance, UTF8Type.instance);
+    SSTableReader reader = SSTableReader.open(desc, cfm);
+    try {
+      return new Token<?>[] {reader.first.token, reader.last.token};
+    } finally {
+      SSTableReaders.release(reader);
+    }
+  }
+}
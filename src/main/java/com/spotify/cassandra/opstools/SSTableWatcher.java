@@ -0,0 +1,159 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a column family directory and keeps the timespan overlap of its sstables up to date as
+ * sstables are flushed, streamed in and compacted away. Only the Statistics component of new
+ * sstables is read.
+ */
+public class SSTableWatcher {
+  private static final String DATA_SUFFIX = "-" + Component.DATA.name();
+  private static final String STATS_SUFFIX = "-" + Component.STATS.name();
+
+  private final File directory;
+  private final TimespanOverlap overlap = new TimespanOverlap();
+  private int added;
+  private int removed;
+
+  public SSTableWatcher(File directory) {
+    this.directory = directory;
+  }
+
+  public TimespanOverlap overlap() {
+    return overlap;
+  }
+
+  /**
+   * Loads the current sstables, then follows changes until interrupted
+   *
+   * @param intervalMillis how often to print the overlap histogram
+   */
+  public void run(long intervalMillis, PrintStream out) throws IOException, InterruptedException {
+    Path path = directory.toPath();
+    WatchService watcher = path.getFileSystem().newWatchService();
+    try {
+      // Register before listing the sstables, so none flushed in between is missed
+      path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+      rescan();
+      report(out);
+
+      long nextReport = System.currentTimeMillis() + intervalMillis;
+      while (true) {
+        WatchKey key = watcher.poll(Math.max(1, nextReport - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        if (key != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              rescan();
+            } else {
+              changed(event.kind(), path.resolve((Path) event.context()).toFile());
+            }
+          }
+          if (!key.reset()) {
+            throw new IOException(directory + " can no longer be watched");
+          }
+        }
+
+        if (System.currentTimeMillis() >= nextReport) {
+          report(out);
+          nextReport += intervalMillis;
+        }
+      }
+    } finally {
+      watcher.close();
+    }
+  }
+
+  private void changed(WatchEvent.Kind<?> kind, File file) {
+    // Cassandra renames the Data component of a new sstable last, and deletes it first when the
+    // sstable is compacted away, so it tells whether the sstable is complete. Sstables copied in by
+    // hand may get their Statistics component last, though.
+    boolean data = file.getName().endsWith(DATA_SUFFIX);
+    if (!data && !file.getName().endsWith(STATS_SUFFIX)) {
+      return;
+    }
+    Descriptor desc = Descriptor.fromFilename(file.getAbsolutePath());
+    if (desc.temporary) {
+      return;
+    }
+    if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+      add(desc);
+    } else if (data && overlap.remove(desc.toString())) {
+      removed++;
+    }
+  }
+
+  private void add(Descriptor desc) {
+    if (overlap.contains(desc.toString())) {
+      return;
+    }
+    // The sstable may already have been compacted away
+    if (!new File(desc.filenameFor(Component.STATS)).exists() || !new File(desc.filenameFor(Component.DATA)).exists()) {
+      return;
+    }
+    try {
+      List<SSTableTimestampViewer.TimeMetadata> metadata =
+          SSTableTimestampViewer.loadMetadata(Collections.singletonList(desc.filenameFor(Component.DATA)));
+      if (overlap.add(metadata.get(0))) {
+        added++;
+      }
+    } catch (IOException e) {
+      System.err.printf("Could not read the metadata of %s: %s%n", desc, e.getMessage());
+    }
+  }
+
+  /**
+   * Lists the directory again, when it changed too much for the watch service to keep up
+   */
+  private void rescan() throws IOException {
+    Set<String> names = new HashSet<String>();
+    for (Descriptor desc : DataDirectory.findSSTables(directory, null, null)) {
+      names.add(desc.toString());
+      add(desc);
+    }
+    for (String name : overlap.names()) {
+      if (!names.contains(name) && overlap.remove(name)) {
+        removed++;
+      }
+    }
+  }
+
+  private void report(PrintStream out) {
+    out.printf("%s: %d sstables, %d bytes (%d added, %d removed)%n", new Date(), overlap.size(), overlap.bytes(),
+               added, removed);
+    SSTableTimestampViewer.printTimespans(out, overlap.histogram());
+    out.println();
+    out.flush();
+    added = 0;
+    removed = 0;
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The dynamic snitch scores every node of a cluster has for every other node, observer by target
+ */
+public class ScoreMatrix {
+  private final Map<InetAddress, Map<InetAddress, Double>> scores =
+      new TreeMap<InetAddress, Map<InetAddress, Double>>(HostNames.ORDER);
+  private final Set<InetAddress> targets = new TreeSet<InetAddress>(HostNames.ORDER);
+
+  public synchronized void put(InetAddress observer, Map<InetAddress, Double> observed) {
+    scores.put(observer, observed);
+    targets.addAll(observed.keySet());
+  }
+
+  public synchronized Set<InetAddress> observers() {
+    Set<InetAddress> observers = new TreeSet<InetAddress>(HostNames.ORDER);
+    observers.addAll(scores.keySet());
+    return observers;
+  }
+
+  public synchronized Set<InetAddress> targets() {
+    Set<InetAddress> copy = new TreeSet<InetAddress>(HostNames.ORDER);
+    copy.addAll(targets);
+    return copy;
+  }
+
+  /**
+   * @return the score the observer has for the target, or null if it has none
+   */
+  public synchronized Double score(InetAddress observer, InetAddress target) {
+    Map<InetAddress, Double> observed = scores.get(observer);
+    return observed == null ? null : observed.get(target);
+  }
+
+  /**
+   * @return how every observer sees each target, the targets seen as the slowest first
+   */
+  public synchronized List<Target> summarize() {
+    List<Target> summaries = new ArrayList<Target>();
+    for (InetAddress target : targets) {
+      List<Double> observed = new ArrayList<Double>();
+      InetAddress worstObserver = null;
+      double worst = Double.NEGATIVE_INFINITY;
+      for (Map.Entry<InetAddress, Map<InetAddress, Double>> observer : scores.entrySet()) {
+        Double score = observer.getValue().get(target);
+        if (score == null) {
+          continue;
+        }
+        observed.add(score);
+        if (score > worst) {
+          worst = score;
+          worstObserver = observer.getKey();
+        }
+      }
+      Collections.sort(observed);
+      summaries.add(new Target(target, observed.size(), observed.get(0), median(observed), worst, worstObserver));
+    }
+    Collections.sort(summaries, new Comparator<Target>() {
+      @Override
+      public int compare(Target a, Target b) {
+        return Double.compare(b.median, a.median);
+      }
+    });
+    return summaries;
+  }
+
+  /**
+   * @return the pairs of nodes whose scores for each other differ the most, up to n of them
+   */
+  public synchronized List<Pair> mostAsymmetric(int n) {
+    List<Pair> pairs = new ArrayList<Pair>();
+    for (InetAddress a : scores.keySet()) {
+      for (InetAddress b : scores.keySet()) {
+        if (HostNames.ORDER.compare(a, b) >= 0) {
+          continue;
+        }
+        Double ab = scores.get(a).get(b);
+        Double ba = scores.get(b).get(a);
+        if (ab != null && ba != null) {
+          pairs.add(ab >= ba ? new Pair(a, b, ab, ba) : new Pair(b, a, ba, ab));
+        }
+      }
+    }
+    Collections.sort(pairs, new Comparator<Pair>() {
+      @Override
+      public int compare(Pair x, Pair y) {
+        return Double.compare(y.difference(), x.difference());
+      }
+    });
+    return pairs.subList(0, Math.min(n, pairs.size()));
+  }
+
+  private static double median(List<Double> sorted) {
+    int middle = sorted.size() / 2;
+    return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+  }
+
+  /**
+   * The scores all observers have for one target
+   */
+  public static class Target {
+    public final InetAddress target;
+    public final int observers;
+    public final double min;
+    public final double median;
+    public final double max;
+    public final InetAddress worstObserver;
+
+    Target(InetAddress target, int observers, double min, double median, double max, InetAddress worstObserver) {
+      this.target = target;
+      this.observers = observers;
+      this.min = min;
+      this.median = median;
+      this.max = max;
+      this.worstObserver = worstObserver;
+    }
+  }
+
+  /**
+   * Two nodes and their scores for each other; the first one sees the second one as the slower
+   */
+  public static class Pair {
+    public final InetAddress first;
+    public final InetAddress second;
+    public final double firstToSecond;
+    public final double secondToFirst;
+
+    Pair(InetAddress first, InetAddress second, double firstToSecond, double secondToFirst) {
+      this.first = first;
+      this.second = second;
+      this.firstToSecond = firstToSecond;
+      this.secondToFirst = secondToFirst;
+    }
+
+    public double difference() {
+      return firstToSecond - secondToFirst;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the most recent dynamic snitch scores of every peer, and finds the peers whose score is much
+ * worse than the rest of the cluster's.
+ *
+ * Only peers present in the latest poll are compared, and a peer missing from more polls in a row than
+ * the window holds is forgotten, so peers that left the cluster don't linger with frozen scores.
+ */
+public class SnitchSampler {
+  private final int window;
+  private final Map<InetAddress, History> histories = new HashMap<InetAddress, History>();
+  // The peers of the latest poll
+  private Set<InetAddress> current = new HashSet<InetAddress>();
+
+  /**
+   * @param window how many samples to keep per peer
+   */
+  public SnitchSampler(int window) {
+    this.window = window;
+  }
+
+  /**
+   * Adds the scores of one poll. Peers missing from it keep their previous samples until they have
+   * missed more polls than the window holds.
+   */
+  public void add(Map<InetAddress, Double> scores) {
+    for (Map.Entry<InetAddress, Double> score : scores.entrySet()) {
+      History history = histories.get(score.getKey());
+      if (history == null) {
+        history = new History(window);
+        histories.put(score.getKey(), history);
+      }
+      history.add(score.getValue());
+    }
+    Iterator<Map.Entry<InetAddress, History>> iterator = histories.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<InetAddress, History> entry = iterator.next();
+      if (!scores.containsKey(entry.getKey()) && ++entry.getValue().missed > window) {
+        iterator.remove();
+      }
+    }
+    current = new HashSet<InetAddress>(scores.keySet());
+  }
+
+  public Set<InetAddress> peers() {
+    return histories.keySet();
+  }
+
+  public History history(InetAddress peer) {
+    return histories.get(peer);
+  }
+
+  /**
+   * Flags the peers of the latest poll whose score is above the median of the scores of that poll by
+   * more than threshold times the median absolute deviation. A higher score means a slower peer.
+   */
+  public Set<InetAddress> outliers(double threshold) {
+    Set<InetAddress> outliers = new TreeSet<InetAddress>(HostNames.ORDER);
+    if (current.size() < 3) {
+      return outliers;
+    }
+
+    double[] latest = new double[current.size()];
+    int i = 0;
+    for (InetAddress peer : current) {
+      latest[i++] = histories.get(peer).latest();
+    }
+    double median = median(latest);
+    double[] deviations = new double[latest.length];
+    double totalDeviation = 0;
+    for (i = 0; i < latest.length; i++) {
+      deviations[i] = Math.abs(latest[i] - median);
+      totalDeviation += deviations[i];
+    }
+    // When most peers have the same score the median deviation is 0; fall back to the mean deviation
+    double deviation = median(deviations);
+    if (deviation == 0) {
+      deviation = totalDeviation / deviations.length;
+    }
+    if (deviation == 0) {
+      return outliers;
+    }
+
+    for (InetAddress peer : current) {
+      if ((histories.get(peer).latest() - median) / deviation > threshold) {
+        outliers.add(peer);
+      }
+    }
+    return outliers;
+  }
+
+  private static double median(double[] values) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int middle = sorted.length / 2;
+    return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+  }
+
+  /**
+   * The most recent scores of one peer, in a ring buffer
+   */
+  public static class History {
+    private final double[] samples;
+    private int next;
+    private int count;
+    // Polls missed in a row
+    private int missed;
+
+    History(int window) {
+      samples = new double[window];
+    }
+
+    void add(double score) {
+      samples[next] = score;
+      next = (next + 1) % samples.length;
+      count = Math.min(count + 1, samples.length);
+      missed = 0;
+    }
+
+    public int count() {
+      return count;
+    }
+
+    public double latest() {
+      return samples[(next - 1 + samples.length) % samples.length];
+    }
+
+    /**
+     * @return the score below which the given fraction of the samples in the window are, using the
+     *     nearest rank
+     */
+    public double percentile(double percentile) {
+      double[] sorted = sorted();
+      int rank = (int) Math.ceil(percentile * sorted.length);
+      return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    public double max() {
+      double[] sorted = sorted();
+      return sorted[sorted.length - 1];
+    }
+
+    private double[] sorted() {
+      // The oldest samples are overwritten, so the first count samples are the window until it fills up
+      double[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+  }
+}
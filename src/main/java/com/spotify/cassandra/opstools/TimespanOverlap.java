@@ -0,0 +1,120 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of how much time is covered by each number of overlapping sstables while sstables are
+ * added and removed. Adding or removing an sstable only updates the counts at its two timestamps; the
+ * histogram is computed from them when asked for.
+ */
+public class TimespanOverlap {
+  private final Map<String, SSTableTimestampViewer.TimeMetadata> sstables =
+      new HashMap<String, SSTableTimestampViewer.TimeMetadata>();
+  // The number of sstables starting and ending at each timestamp
+  private final TreeMap<Long, int[]> boundaries = new TreeMap<Long, int[]>();
+  private long bytes;
+
+  /**
+   * @return false if an sstable with the same name was already added
+   */
+  public boolean add(SSTableTimestampViewer.TimeMetadata sstable) {
+    if (sstables.containsKey(sstable.name)) {
+      return false;
+    }
+    sstables.put(sstable.name, sstable);
+    boundary(sstable.minTimestamp)[0]++;
+    boundary(sstable.maxTimestamp)[1]++;
+    bytes += sstable.dataFileSize;
+    return true;
+  }
+
+  /**
+   * @return false if no sstable with that name was added
+   */
+  public boolean remove(String name) {
+    SSTableTimestampViewer.TimeMetadata sstable = sstables.remove(name);
+    if (sstable == null) {
+      return false;
+    }
+    release(sstable.minTimestamp, 0);
+    release(sstable.maxTimestamp, 1);
+    bytes -= sstable.dataFileSize;
+    return true;
+  }
+
+  public boolean contains(String name) {
+    return sstables.containsKey(name);
+  }
+
+  public Set<String> names() {
+    return new HashSet<String>(sstables.keySet());
+  }
+
+  public int size() {
+    return sstables.size();
+  }
+
+  public long bytes() {
+    return bytes;
+  }
+
+  private int[] boundary(long timestamp) {
+    int[] counts = boundaries.get(timestamp);
+    if (counts == null) {
+      counts = new int[2];
+      boundaries.put(timestamp, counts);
+    }
+    return counts;
+  }
+
+  private void release(long timestamp, int index) {
+    int[] counts = boundaries.get(timestamp);
+    if (--counts[index] == 0 && counts[1 - index] == 0) {
+      boundaries.remove(timestamp);
+    }
+  }
+
+  /**
+   * @return the time covered by exactly i sstables, for every i up to the maximum number of overlapping
+   *     sstables, like {@link SSTableTimestampViewer#sweep}
+   */
+  public long[] histogram() {
+    long[] time = new long[2];
+    int maxDepth = 0;
+    int depth = 0;
+    Long previous = null;
+    for (Map.Entry<Long, int[]> boundary : boundaries.entrySet()) {
+      long timestamp = boundary.getKey();
+      if (previous != null) {
+        time[depth] += timestamp - previous;
+      }
+      // Sstables starting and ending at the same timestamp overlap there
+      depth += boundary.getValue()[0];
+      maxDepth = Math.max(maxDepth, depth);
+      if (depth >= time.length) {
+        time = Arrays.copyOf(time, Math.max(depth + 1, time.length * 2));
+      }
+      depth -= boundary.getValue()[1];
+      previous = timestamp;
+    }
+    return Arrays.copyOf(time, maxDepth + 1);
+  }
+}
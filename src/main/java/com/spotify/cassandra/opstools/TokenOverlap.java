@@ -0,0 +1,189 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Maps how many sstables of a column family cover each part of the token ring, which is the number of
+ * sstables a read may have to touch when bloom filters don't rule them out.
+ *
+ * The first and last tokens of all sstables split the ring into segments. Segment i is the open range
+ * between boundaries i - 1 and i, and segment 0 the range wrapping around the end of the ring.
+ */
+public class TokenOverlap {
+  private final Token<?>[] boundaries;
+  private final int[] depths;
+  private final double[] fractions;
+  private final int maxDepth;
+
+  /**
+   * @param firstTokens the token of the first partition of each sstable
+   * @param lastTokens the token of the last partition of each sstable
+   */
+  public TokenOverlap(IPartitioner<?> partitioner, List<Token<?>> firstTokens, List<Token<?>> lastTokens) {
+    Token<?>[] firsts = firstTokens.toArray(new Token<?>[firstTokens.size()]);
+    Token<?>[] lasts = lastTokens.toArray(new Token<?>[lastTokens.size()]);
+    Arrays.sort(firsts);
+    Arrays.sort(lasts);
+
+    TreeSet<Token<?>> distinct = new TreeSet<Token<?>>(firstTokens);
+    distinct.addAll(lastTokens);
+    boundaries = distinct.toArray(new Token<?>[distinct.size()]);
+
+    // describeOwnership gives the fraction of the ring between each token and the previous one
+    Map<Token<?>, Float> ownership = describeOwnership(partitioner, new ArrayList<Token<?>>(distinct));
+    fractions = new double[boundaries.length];
+    for (int i = 0; i < boundaries.length; i++) {
+      fractions[i] = ownership.get(boundaries[i]);
+    }
+
+    // Sweep over the boundaries: an sstable covers the segment after a boundary if it starts at or
+    // before it and ends after it, and a key exactly at the boundary if it also ends at or after it
+    depths = new int[boundaries.length];
+    int started = 0, endedBefore = 0, ended = 0;
+    int deepest = 0;
+    for (int i = 0; i < boundaries.length; i++) {
+      Token<?> boundary = boundaries[i];
+      while (started < firsts.length && compare(firsts[started], boundary) <= 0) {
+        started++;
+      }
+      while (endedBefore < lasts.length && compare(lasts[endedBefore], boundary) < 0) {
+        endedBefore++;
+      }
+      while (ended < lasts.length && compare(lasts[ended], boundary) <= 0) {
+        ended++;
+      }
+      deepest = Math.max(deepest, started - endedBefore);
+      if (i + 1 < boundaries.length) {
+        depths[i + 1] = started - ended;
+      }
+    }
+    maxDepth = deepest;
+  }
+
+  // Tokens of one partitioner all have the same type, which the partitioner API doesn't carry
+  @SuppressWarnings("unchecked")
+  private static int compare(Token<?> a, Token<?> b) {
+    return ((Token<Object>) a).compareTo((Token<Object>) b);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Map<Token<?>, Float> describeOwnership(IPartitioner<?> partitioner, List<Token<?>> tokens) {
+    return (Map) partitioner.describeOwnership((List) tokens);
+  }
+
+  /**
+   * @return the number of segments the ring is split into
+   */
+  public int segments() {
+    return boundaries.length;
+  }
+
+  /**
+   * @return the boundary at the start of segment i, exclusive
+   */
+  public Token<?> start(int segment) {
+    return boundaries[segment == 0 ? boundaries.length - 1 : segment - 1];
+  }
+
+  /**
+   * @return the boundary at the end of segment i, exclusive
+   */
+  public Token<?> end(int segment) {
+    return boundaries[segment];
+  }
+
+  public int depth(int segment) {
+    return depths[segment];
+  }
+
+  /**
+   * @return the fraction of the ring in segment i
+   */
+  public double fraction(int segment) {
+    return fractions[segment];
+  }
+
+  /**
+   * @return the largest number of sstables covering any token, including single boundary tokens
+   */
+  public int maxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * @return the fraction of the ring covered by exactly i sstables, for every i up to the maximum depth
+   */
+  public double[] histogram() {
+    double[] histogram = new double[maxDepth + 1];
+    for (int i = 0; i < depths.length; i++) {
+      histogram[depths[i]] += fractions[i];
+    }
+    return histogram;
+  }
+
+  /**
+   * @return the smallest number of sstables such that a read of a uniformly random token covered by
+   *         some sstable touches at most that many sstables with the given probability, or 0 if no
+   *         part of the ring is covered
+   */
+  public int percentile(double percentile) {
+    double[] histogram = histogram();
+    double covered = 0;
+    for (int depth = 1; depth < histogram.length; depth++) {
+      covered += histogram[depth];
+    }
+    if (covered == 0) {
+      return 0;
+    }
+    double sum = 0;
+    for (int depth = 1; depth < histogram.length; depth++) {
+      sum += histogram[depth];
+      if (sum >= percentile * covered) {
+        return depth;
+      }
+    }
+    return maxDepth;
+  }
+
+  /**
+   * @return the n segments covered by the most sstables, the largest segments first among equally deep ones
+   */
+  public List<Integer> deepest(int n) {
+    List<Integer> segments = new ArrayList<Integer>(depths.length);
+    for (int i = 0; i < depths.length; i++) {
+      segments.add(i);
+    }
+    Collections.sort(segments, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        if (depths[a] != depths[b]) {
+          return depths[b] - depths[a];
+        }
+        return Double.compare(fractions[b], fractions[a]);
+      }
+    });
+    return segments.subList(0, Math.min(n, segments.size()));
+  }
+}
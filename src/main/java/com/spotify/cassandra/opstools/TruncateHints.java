@@ -14,26 +14,40 @@
 package com.spotify.cassandra.opstools;
 
 import org.apache.cassandra.tools.NodeProbe;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 
 import java.io.IOException;
 import java.net.InetAddress;
 
 public class TruncateHints {
 
-  public static void main(String[] args) throws IOException {
-    if (args.length < 1) {
-      System.out.println(String.format("Usage: %s [ALL | host [host ...]]", TruncateHints.class.getName()));
+  public static void main(String[] args) throws IOException, ParseException {
+    Options options = new Options();
+    JmxConnections.addOptions(options);
+    CommandLine cmd = new BasicParser().parse(options, args);
+
+    if (cmd.getArgs().length < 1) {
+      System.out.println(String.format("Usage: %s [-p <port>] [-u <username> -pw <password>] [-T <seconds>] [ALL | host [host ...]]",
+                                       TruncateHints.class.getName()));
       System.exit(1);
     }
 
-    NodeProbe nodeProbe = new NodeProbe(InetAddress.getLocalHost().getCanonicalHostName(), 7199);
+    JmxConnections connections = JmxConnections.fromCommandLine(cmd);
+    try {
+      NodeProbe nodeProbe = connections.nodeProbe(InetAddress.getLocalHost().getCanonicalHostName());
 
-    for (String arg : args) {
-      if (arg.equals("ALL"))  {
-        nodeProbe.truncateHints();
-      } else {
-        nodeProbe.truncateHints(arg);
+      for (String arg : cmd.getArgs()) {
+        if (arg.equals("ALL"))  {
+          nodeProbe.truncateHints();
+        } else {
+          nodeProbe.truncateHints(arg);
+        }
       }
+    } finally {
+      connections.close();
     }
 
     System.out.println("Hints truncated!");
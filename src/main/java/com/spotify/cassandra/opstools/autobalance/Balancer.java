@@ -13,30 +13,79 @@
  */
 package com.spotify.cassandra.opstools.autobalance;
 
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.MathContext;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 public class Balancer {
+  private static final int MAX_SWAP_ROUNDS = 10;
 
   private final Map<String, BigInteger> currentMap;
   private final Map<String, String> hostDc;
   private final BigInteger minToken;
   private final BigInteger maxToken;
+  private final Map<String, Long> loads;
+  private final Map<String, Double> weights;
+  private ReplicatedOwnership ownership;
+  private boolean evenOwnership;
 
-  private int dcSize;
+  // The hosts of each data center
+  private Map<String, List<String>> dcHosts;
 
   public Balancer(Map<String, BigInteger> currentMap, Map<String, String> hostDc, BigInteger minToken, BigInteger maxToken) {
+    this(currentMap, hostDc, null, minToken, maxToken);
+  }
+
+  /**
+   * @param loads the bytes stored by every node; if given, the nodes that have to move are given the
+   *     tokens that stream the least data, otherwise they are given tokens in order of host names
+   */
+  public Balancer(Map<String, BigInteger> currentMap, Map<String, String> hostDc, Map<String, Long> loads, BigInteger minToken, BigInteger maxToken) {
+    this(currentMap, hostDc, loads, null, minToken, maxToken);
+  }
+
+  /**
+   * @param weights the capacity of every node, e.g. its disk size or number of cores; if given, every
+   *     node gets a range of its data center's ring proportional to its weight and keeps its place in
+   *     the ring, otherwise the ranges are of equal size
+   */
+  public Balancer(Map<String, BigInteger> currentMap, Map<String, String> hostDc, Map<String, Long> loads,
+                  Map<String, Double> weights, BigInteger minToken, BigInteger maxToken) {
     this.currentMap = currentMap;
     this.hostDc = hostDc;
+    this.loads = loads;
+    this.weights = weights;
     this.minToken = minToken;
     this.maxToken = maxToken;
   }
 
+  /**
+   * Places replicas by rack and replication factor when estimating how much data moving nodes stream;
+   * otherwise every node is assumed to store only its primary range
+   */
+  public void setReplication(ReplicatedOwnership ownership) {
+    this.ownership = ownership;
+  }
+
+  /**
+   * Makes the balancer swap the new tokens of nodes that have to move anyway, as long as that evens out
+   * the replicated ownership of the nodes placed by {@link #setReplication}. Primary ranges stay the
+   * same size, but where replicas end up depends on the order of racks around the ring. Swaps undo the
+   * assignment that streams the least data, so this is off by default.
+   */
+  public void setEvenOwnership(boolean evenOwnership) {
+    this.evenOwnership = evenOwnership;
+  }
+
   public Map<String, BigInteger> balance() {
     init();
 
@@ -47,29 +96,51 @@ public class Balancer {
     //
     // Example: if min/max is 0/3000 and we have 2 datacenters with 3 nodes each, the tokens to distribute will be 0, 1, 1000, 1001, 2000, 2001
     // The offset for one dc is 0 and the other dc is 1.
+    //
+    // Data centers of different sizes each get their own evenly spaced tokens. With weights the tokens
+    // are spaced by the weights instead, and which host gets which token is decided up front.
 
-    BigInteger[] tokens = new BigInteger[dcSize];
-    for (int i = 0; i < dcSize; i++) {
-      tokens[i] = (maxToken.subtract(minToken)).multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(dcSize)).add(minToken);
+    Map<String, BigInteger[]> dcTokenMap = new HashMap<String, BigInteger[]>();
+    Map<String, List<String>> weightedOrder = new HashMap<String, List<String>>();
+    for (Map.Entry<String, List<String>> entry : dcHosts.entrySet()) {
+      if (weights == null) {
+        dcTokenMap.put(entry.getKey(), evenTokens(entry.getValue().size()));
+      } else {
+        List<String> order = weightedOrder(entry.getValue());
+        weightedOrder.put(entry.getKey(), order);
+        dcTokenMap.put(entry.getKey(), weightedTokens(order));
+      }
     }
 
     // First figure out which offset each DC should have, based on current tokens
-    // Try assign all offsets (that makes sense) to all DC's - this is exponential, but number of DC's is very small.
-    // For each assignment, check how many tokens must be moved. Pick the least amount.
 
     HashMap<String, BigInteger> newHostTokenMap = new HashMap<String, BigInteger>();
-    Map<String, Integer> dcOffsetMap = new DataCenterOffsetAssigner(currentMap, hostDc, tokens).findBestAssignment();
+    Map<String, Integer> dcOffsetMap = new DataCenterOffsetAssigner(currentMap, hostDc, dcTokenMap).findBestAssignment();
 
     // For each data center, see which nodes already have a good token
     for (String dc : dcOffsetMap.keySet()) {
+      BigInteger offset = BigInteger.valueOf(dcOffsetMap.get(dc));
+      BigInteger[] tokens = dcTokenMap.get(dc);
+
+      if (weights != null) {
+        List<String> order = weightedOrder.get(dc);
+        for (int i = 0; i < order.size(); i++) {
+          newHostTokenMap.put(order.get(i), tokens[i].add(offset));
+        }
+        continue;
+      }
+
       // Calculate tokens for this DC
       Set<BigInteger> dcTokens = new TreeSet<BigInteger>(); // Ensures its sorted
       for (int i = 0; i < tokens.length; i++) {
-        dcTokens.add(tokens[i].add(BigInteger.valueOf(dcOffsetMap.get(dc))));
+        dcTokens.add(tokens[i].add(offset));
       }
+      List<BigInteger> allDcTokens = new ArrayList<BigInteger>(dcTokens);
+      Map<String, BigInteger> dcMap = new HashMap<String, BigInteger>();
       ArrayList<String> needsToken = new ArrayList<String>();
       for (Map.Entry<String, BigInteger> entry : currentMap.entrySet()) {
         if (hostDc.get(entry.getKey()).equals(dc)) {
+          dcMap.put(entry.getKey(), entry.getValue());
           if (dcTokens.contains(entry.getValue())) {
             dcTokens.remove(entry.getValue());
             newHostTokenMap.put(entry.getKey(), entry.getValue());
@@ -83,35 +154,194 @@ public class Balancer {
       // Ensures tokens are assigned in order of hostnames
       Collections.sort(needsToken);
 
+      if (loads != null) {
+        newHostTokenMap.putAll(assignByStreamingCost(dc, needsToken, new ArrayList<BigInteger>(dcTokens), allDcTokens, dcMap));
+        continue;
+      }
+
       for (String host : needsToken) {
         BigInteger token = dcTokens.iterator().next();
         newHostTokenMap.put(host, token);
         dcTokens.remove(token);
       }
     }
+
+    if (evenOwnership) {
+      if (ownership == null) {
+        throw new IllegalStateException("Evening out ownership needs the replication settings");
+      }
+      improveOwnership(newHostTokenMap);
+    }
     return newHostTokenMap;
   }
 
+  /**
+   * Swaps the tokens of pairs of moving nodes in the same data center, and with the same weight, for
+   * as long as some swap evens out replicated ownership
+   */
+  private void improveOwnership(Map<String, BigInteger> newHostTokenMap) {
+    Map<String, List<BigInteger>> tokens = new HashMap<String, List<BigInteger>>();
+    for (Map.Entry<String, BigInteger> entry : newHostTokenMap.entrySet()) {
+      tokens.put(entry.getKey(), Collections.singletonList(entry.getValue()));
+    }
+
+    for (int dc = 0; dc < ownership.dataCenterCount(); dc++) {
+      if (ownership.replicationFactor(dc) == 0) {
+        continue;
+      }
+      OwnershipRing ring = new OwnershipRing(ownership, dc, tokens);
+      List<String> moving = new ArrayList<String>();
+      for (int host : ring.hosts) {
+        String name = ownership.host(host);
+        if (!newHostTokenMap.get(name).equals(currentMap.get(name))) {
+          moving.add(name);
+        }
+      }
+
+      boolean improved = true;
+      for (int round = 0; improved && round < MAX_SWAP_ROUNDS; round++) {
+        improved = false;
+        for (int i = 0; i < moving.size(); i++) {
+          for (int j = i + 1; j < moving.size(); j++) {
+            String a = moving.get(i);
+            String b = moving.get(j);
+            if (weights != null && !weights.get(a).equals(weights.get(b))) {
+              continue;
+            }
+            double before = ring.sumOfSquares();
+            int first = ring.hostTokens.get(ownership.hostIndex(a)).get(0);
+            int second = ring.hostTokens.get(ownership.hostIndex(b)).get(0);
+            if (ring.swap(first, second) < before * (1 - 1e-9)) {
+              improved = true;
+            } else {
+              ring.swap(first, second);
+            }
+          }
+        }
+      }
+
+      for (int i = 0; i < ring.size(); i++) {
+        newHostTokenMap.put(ownership.host(ring.owners[i]), ring.ringTokens[i]);
+      }
+    }
+  }
+
+  /**
+   * Gives the hosts that have to move the free tokens of their data center so that the least data is
+   * streamed in total. A host taking over a token streams in the part of the range ending at that
+   * token which it doesn't already store.
+   *
+   * @param freeTokens the tokens no host already has
+   * @param allDcTokens every balanced token of the data center, sorted
+   * @param dcMap the current token of every host of the data center
+   */
+  private Map<String, BigInteger> assignByStreamingCost(String dc, List<String> hosts, List<BigInteger> freeTokens,
+                                                        List<BigInteger> allDcTokens, Map<String, BigInteger> dcMap) {
+    StreamingCost streamingCost = ownership != null ? new StreamingCost(dcMap, loads, ownership, dc)
+                                                    : new StreamingCost(dcMap, loads, minToken, maxToken);
+    long[][] cost = new long[hosts.size()][freeTokens.size()];
+    for (int j = 0; j < freeTokens.size(); j++) {
+      BigInteger token = freeTokens.get(j);
+      int index = allDcTokens.indexOf(token);
+      BigInteger previous = allDcTokens.get((index + allDcTokens.size() - 1) % allDcTokens.size());
+      for (int i = 0; i < hosts.size(); i++) {
+        cost[i][j] = streamingCost.streamed(hosts.get(i), previous, token);
+      }
+    }
+
+    int[] assignment = MinCostAssignment.solve(cost);
+    Map<String, BigInteger> assigned = new HashMap<String, BigInteger>();
+    for (int i = 0; i < hosts.size(); i++) {
+      assigned.put(hosts.get(i), freeTokens.get(assignment[i]));
+    }
+    return assigned;
+  }
+
+  private BigInteger[] evenTokens(int size) {
+    BigInteger[] tokens = new BigInteger[size];
+    for (int i = 0; i < size; i++) {
+      tokens[i] = (maxToken.subtract(minToken)).multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(size)).add(minToken);
+    }
+    return tokens;
+  }
+
+  /**
+   * @return the token of each host in order, such that each host owns a range proportional to its
+   *     weight and the last host has the minimum token
+   */
+  private BigInteger[] weightedTokens(List<String> order) {
+    double total = 0;
+    for (String host : order) {
+      total += weights.get(host);
+    }
+    BigDecimal ringSize = new BigDecimal(maxToken.subtract(minToken));
+    BigInteger[] tokens = new BigInteger[order.size()];
+    double sum = 0;
+    for (int i = 0; i < order.size() - 1; i++) {
+      sum += weights.get(order.get(i));
+      tokens[i] = ringSize.multiply(BigDecimal.valueOf(sum)).divide(BigDecimal.valueOf(total), MathContext.DECIMAL128)
+          .toBigInteger().add(minToken);
+    }
+    tokens[order.size() - 1] = minToken;
+    return tokens;
+  }
+
+  /**
+   * Hosts keep their current order around the ring. Of all the rotations of that order, picks the one
+   * whose weighted tokens are closest to the current tokens.
+   */
+  private List<String> weightedOrder(List<String> hosts) {
+    List<String> sorted = new ArrayList<String>(hosts);
+    Collections.sort(sorted, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return currentMap.get(a).compareTo(currentMap.get(b));
+      }
+    });
+
+    List<String> best = null;
+    BigInteger bestDistance = null;
+    for (int rotation = 0; rotation < sorted.size(); rotation++) {
+      List<String> order = new ArrayList<String>(sorted);
+      Collections.rotate(order, -rotation);
+      BigInteger[] tokens = weightedTokens(order);
+      BigInteger distance = BigInteger.ZERO;
+      for (int i = 0; i < order.size(); i++) {
+        distance = distance.add(distance(currentMap.get(order.get(i)), tokens[i]));
+      }
+      if (bestDistance == null || distance.compareTo(bestDistance) < 0) {
+        best = order;
+        bestDistance = distance;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @return the distance between two tokens, going the shorter way around the ring
+   */
+  private BigInteger distance(BigInteger a, BigInteger b) {
+    BigInteger ringSize = maxToken.subtract(minToken);
+    BigInteger distance = a.subtract(b).abs().mod(ringSize);
+    return distance.min(ringSize.subtract(distance));
+  }
+
   private void init() {
-    Map<String, Integer> dcCount = new HashMap<String, Integer>();
+    dcHosts = new TreeMap<String, List<String>>();
 
     for (String host : currentMap.keySet()) {
       String dc = hostDc.get(host);
 
-      if (dcCount.containsKey(dc)) {
-        dcCount.put(dc, dcCount.get(dc) + 1);
-      } else {
-        dcCount.put(dc, 1);
+      if (!dcHosts.containsKey(dc)) {
+        dcHosts.put(dc, new ArrayList<String>());
       }
-    }
+      dcHosts.get(dc).add(host);
 
-    // Check we have same number of nodes in all DC's
-    dcSize = -1;
-    for (Integer size : dcCount.values()) {
-      if (dcSize < 0) {
-        dcSize = size;
-      } else if (dcSize != size) {
-        throw new RuntimeException("Not all datacenters contain the same number of live nodes; aborting");
+      if (weights != null) {
+        Double weight = weights.get(host);
+        if (weight == null || weight <= 0) {
+          throw new RuntimeException("No positive weight for " + host + "; aborting");
+        }
       }
     }
   }
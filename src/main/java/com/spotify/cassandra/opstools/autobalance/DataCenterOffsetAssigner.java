@@ -15,120 +15,123 @@ package com.spotify.cassandra.opstools.autobalance;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class DataCenterOffsetAssigner {
-  private static final int MAX_OFFSETS = 10;
+  // Tokens at most this far above a balanced token are considered offset from it, unless there are
+  // more data centers than this
+  private static final int MIN_OFFSET_WINDOW = 10;
 
   public int fewestMovesNeeed;
   public Map<String, Integer> bestAssignment;
 
-  private Map<String, Integer> currentAssignment;
-  private final List<String> dcs;
-  private final boolean[] activeOffset;
   private final Map<String, BigInteger> currentMap;
   private final Map<String, String> hostDc;
-  private final BigInteger[] tokens;
+  private final Map<String, BigInteger[]> dcTokens = new HashMap<String, BigInteger[]>();
 
   public DataCenterOffsetAssigner(
       Map<String, BigInteger> currentMap,
       Map<String, String> hostDc,
       BigInteger[] tokens) {
+    this(currentMap, hostDc, sameTokens(hostDc, tokens));
+  }
+
+  /**
+   * @param dcTokens the balanced tokens of each data center, before any offset is added
+   */
+  public DataCenterOffsetAssigner(
+      Map<String, BigInteger> currentMap,
+      Map<String, String> hostDc,
+      Map<String, BigInteger[]> dcTokens) {
     this.currentMap = currentMap;
     this.hostDc = hostDc;
-    this.tokens = tokens;
-    this.activeOffset = new boolean[10];
-    this.dcs = new ArrayList<String>();
+    for (Map.Entry<String, BigInteger[]> entry : dcTokens.entrySet()) {
+      BigInteger[] tokens = entry.getValue().clone();
+      Arrays.sort(tokens);
+      this.dcTokens.put(entry.getKey(), tokens);
+    }
   }
 
-  public Map<String, Integer> findBestAssignment() {
-    init();
-
-    fewestMovesNeeed = Integer.MAX_VALUE;
-    currentAssignment = new HashMap<String, Integer>();
-    recurse(0, new boolean[activeOffset.length]);
-
-    if (fewestMovesNeeed == Integer.MAX_VALUE) {
-      throw new RuntimeException("No assignment found!?");
+  private static Map<String, BigInteger[]> sameTokens(Map<String, String> hostDc, BigInteger[] tokens) {
+    Map<String, BigInteger[]> dcTokens = new HashMap<String, BigInteger[]>();
+    for (String dc : hostDc.values()) {
+      dcTokens.put(dc, tokens);
     }
-
-    return bestAssignment;
+    return dcTokens;
   }
 
-  private void init() {
-    // Find which offsets are "active" (already in use by some of the tokens)
-    // We want to reuse them if possible
+  public Map<String, Integer> findBestAssignment() {
+    // The number of nodes in each DC, and how many of them already have a token at each offset
+    Map<String, Integer> dcSizes = new TreeMap<String, Integer>();
+    for (String host : currentMap.keySet()) {
+      String dc = hostDc.get(host);
+      dcSizes.put(dc, dcSizes.containsKey(dc) ? dcSizes.get(dc) + 1 : 1);
+    }
+    List<String> dcs = new ArrayList<String>(dcSizes.keySet());
+    int window = Math.max(MIN_OFFSET_WINDOW, dcs.size());
 
-    int noActive = 0;
+    Map<String, Map<Integer, Integer>> matches = new HashMap<String, Map<Integer, Integer>>();
+    TreeSet<Integer> activeOffsets = new TreeSet<Integer>();
     for (Map.Entry<String, BigInteger> entry : currentMap.entrySet()) {
       String dc = hostDc.get(entry.getKey());
-      if (!dcs.contains(dc)) {
-        dcs.add(dc);
+      int offset = offset(dcTokens.get(dc), entry.getValue(), window);
+      if (offset < 0) {
+        continue;
       }
-      BigInteger token = entry.getValue();
-      for (int j = 0; j < tokens.length; j++) {
-        BigInteger diff = token.subtract(tokens[j]);
-        if (diff.doubleValue() >= 0 && diff.doubleValue() < MAX_OFFSETS) {
-          int offset = diff.intValue();
-          assert offset >= 0 && offset < MAX_OFFSETS;
-          if (!activeOffset[offset]) {
-            noActive++;
-            activeOffset[offset] = true;
-          }
-        }
+      // Reuse the offsets already in use by some of the tokens if possible
+      activeOffsets.add(offset);
+      if (!matches.containsKey(dc)) {
+        matches.put(dc, new HashMap<Integer, Integer>());
       }
+      Map<Integer, Integer> dcMatches = matches.get(dc);
+      dcMatches.put(offset, dcMatches.containsKey(offset) ? dcMatches.get(offset) + 1 : 1);
     }
 
-    if (dcs.size() > MAX_OFFSETS) {
-      throw new RuntimeException("Too many data centers!");
+    // Must be at least as many offsets as there are DCs
+    for (int offset = 0; activeOffsets.size() < dcs.size(); offset++) {
+      activeOffsets.add(offset);
     }
+    List<Integer> offsets = new ArrayList<Integer>(activeOffsets);
 
-    // Must be at least as many active offsets as there are dc's
-    int i = 0;
-    while (noActive < dcs.size()) {
-      while (activeOffset[i]) { i++; }
-      activeOffset[i++] = true;
-      noActive++;
+    // The number of moves for each DC and offset, every node not already at that offset has to move
+    long[][] moves = new long[dcs.size()][offsets.size()];
+    for (int i = 0; i < dcs.size(); i++) {
+      Map<Integer, Integer> dcMatches = matches.get(dcs.get(i));
+      for (int j = 0; j < offsets.size(); j++) {
+        Integer matching = dcMatches == null ? null : dcMatches.get(offsets.get(j));
+        moves[i][j] = dcSizes.get(dcs.get(i)) - (matching == null ? 0 : matching);
+      }
     }
-  }
 
-  private void recurse(int curDc, boolean[] offsetsTaken) {
-    if (curDc == dcs.size()) {
-      int movesNeeded = evaluate(currentAssignment);
-      if (movesNeeded < fewestMovesNeeed) {
-        fewestMovesNeeed = movesNeeded;
-        bestAssignment = new HashMap<String, Integer>(currentAssignment);
-      }
-    } else {
-      for (int i = 0; i < activeOffset.length; i++) {
-        if (activeOffset[i] && !offsetsTaken[i]) {
-          currentAssignment.put(dcs.get(curDc), i);
-          offsetsTaken[i] = true;
-          recurse(curDc + 1, offsetsTaken);
-          offsetsTaken[i] = false;
-          currentAssignment.remove(dcs.get(curDc));
-        }
-      }
+    int[] assignment = MinCostAssignment.solve(moves);
+    fewestMovesNeeed = 0;
+    bestAssignment = new HashMap<String, Integer>();
+    for (int i = 0; i < dcs.size(); i++) {
+      bestAssignment.put(dcs.get(i), offsets.get(assignment[i]));
+      fewestMovesNeeed += moves[i][assignment[i]];
     }
+    return bestAssignment;
   }
 
-  private int evaluate(Map<String, Integer> currentAssignment) {
-    int moves = 0;
-    for (Map.Entry<String, BigInteger> entry : currentMap.entrySet()) {
-      boolean mustMove = true;
-      String dc = hostDc.get(entry.getKey());
-      BigInteger offset = BigInteger.valueOf(currentAssignment.get(dc));
-      for (BigInteger token : tokens) {
-        if (entry.getValue().subtract(token).equals(offset)) {
-          mustMove = false;
-        }
-      }
-      if (mustMove) {
-        moves++;
-      }
+  /**
+   * @return how far the token is above the closest balanced token below it, or -1 if that is not
+   *     within the window
+   */
+  private static int offset(BigInteger[] tokens, BigInteger token, int window) {
+    int index = Arrays.binarySearch(tokens, token);
+    if (index >= 0) {
+      return 0;
+    }
+    int below = -index - 2;
+    if (below < 0) {
+      return -1;
     }
-    return moves;
+    BigInteger diff = token.subtract(tokens[below]);
+    return diff.compareTo(BigInteger.valueOf(window)) < 0 ? diff.intValue() : -1;
   }
 }
@@ -13,8 +13,17 @@
  */
 package com.spotify.cassandra.opstools.autobalance;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import com.spotify.cassandra.opstools.JmxConnections;
+
 import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.dht.RandomPartitioner;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.service.StorageServiceMBean;
+import org.apache.cassandra.streaming.SessionInfo;
+import org.apache.cassandra.streaming.StreamState;
 import org.apache.cassandra.tools.NodeProbe;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -22,6 +31,7 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetAddress;
@@ -30,27 +40,37 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
+  private static final int DEFAULT_REPLICATION_FACTOR = 3;
+  private static final double DEFAULT_TARGET_SPREAD = 0.1;
+  private static final String STORAGE_SERVICE = "org.apache.cassandra.db:type=StorageService";
+  private static final String MOVING = "MOVING";
+  private static final int MOVE_POLL_SECONDS = 10;
+
+  private final JmxConnections connections;
+
+  private Main(JmxConnections connections) {
+    this.connections = connections;
+  }
+
   private void run(CommandLine cmd) throws IOException, InterruptedException {
     boolean dryrun = cmd.hasOption("d");
     boolean force = cmd.hasOption("f");
     boolean noresolve = cmd.hasOption("r");
-    int port = cmd.hasOption("p") ? Integer.parseInt(cmd.getOptionValue("p")) : 7199;
     String nodehost = cmd.hasOption("h") ? cmd.getOptionValue("h") : "localhost";
+    Map<String, Double> weights = cmd.hasOption("w") ? readWeights(new File(cmd.getOptionValue("w"))) : null;
 
     System.out.println("Collecting information about the cluster...");
 
-    NodeProbe nodeProbe = new NodeProbe(nodehost, port);
+    NodeProbe nodeProbe = connections.nodeProbe(nodehost);
 
-    if (nodeProbe.getTokens().size() != 1) {
-      System.err.println("Cluster is using vnodes and should already be automatically balanced!");
-      System.exit(1);
-    }
+    boolean vnodes = nodeProbe.getTokens().size() != 1;
 
     boolean hasData = false;
+    Map<String, String> loadMap = nodeProbe.getLoadMap();
     if (!dryrun) {
-      Map<String, String> loadMap = nodeProbe.getLoadMap();
       for (String s : loadMap.values()) {
         if (s.contains("KB"))
           continue;
@@ -80,7 +100,11 @@ public class Main {
     List<String> liveNodes = nodeProbe.getLiveNodes();
 
     Map<String, BigInteger> hostTokenMap = new HashMap<String, BigInteger>();
+    Map<String, List<BigInteger>> hostVnodeMap = new HashMap<String, List<BigInteger>>();
     Map<String, String> hostDcMap = new HashMap<String, String>();
+    Map<String, Long> hostLoadMap = new HashMap<String, Long>();
+    Map<String, Double> hostWeightMap = weights == null ? null : new HashMap<String, Double>();
+    Map<String, String> hostRackMap = new HashMap<String, String>();
 
     for (String host : liveNodes) {
       String dc = nodeProbe.getEndpointSnitchInfoProxy().getDatacenter(host);
@@ -96,22 +120,72 @@ public class Main {
       }
 
       hostDcMap.put(decoratedHost, dc);
+      hostRackMap.put(decoratedHost, nodeProbe.getEndpointSnitchInfoProxy().getRack(host));
+      hostLoadMap.put(decoratedHost, parseLoad(loadMap.get(host)));
+      if (weights != null) {
+        if (!weights.containsKey(host)) {
+          throw new RuntimeException("No weight for " + host + "; aborting");
+        }
+        hostWeightMap.put(decoratedHost, weights.get(host));
+      }
 
       List<String> tokens = nodeProbe.getTokens(host);
 
-      if (tokens.size() > 1) {
-        throw new RuntimeException("vnodes not supported");
-      }
       if (tokens.size() == 0) {
         throw new RuntimeException("No token for " + host + "; aborting");
       }
+      if (vnodes) {
+        List<BigInteger> hostTokens = new ArrayList<BigInteger>();
+        for (String token : tokens) {
+          hostTokens.add(new BigInteger(token));
+        }
+        hostVnodeMap.put(decoratedHost, hostTokens);
+        continue;
+      }
+      if (tokens.size() > 1) {
+        throw new RuntimeException("Not all nodes use vnodes; aborting");
+      }
 
       hostTokenMap.put(decoratedHost, new BigInteger(tokens.get(0)));
     }
 
-    Balancer balancer = new Balancer(hostTokenMap, hostDcMap, minToken, maxToken);
+    Map<String, Integer> replication = parseReplication(cmd.getOptionValue("R"), hostDcMap);
+    ReplicatedOwnership ownership = new ReplicatedOwnership(hostDcMap, hostRackMap, replication, minToken, maxToken);
+
+    if (vnodes) {
+      double spread = cmd.hasOption("s") ? Double.parseDouble(cmd.getOptionValue("s")) / 100 : DEFAULT_TARGET_SPREAD;
+      planVnodes(ownership, hostVnodeMap, hostDcMap, spread);
+      return;
+    }
+
+    MoveJournal journal = cmd.hasOption("J") ? MoveJournal.load(new File(cmd.getOptionValue("J"))) : null;
+    if (journal != null && !journal.pending().isEmpty()) {
+      List<MoveScheduler.Move> moves = resumableMoves(journal, hostTokenMap);
+      System.out.println("Resuming " + moves.size() + " moves from " + cmd.getOptionValue("J"));
+      if (!moves.isEmpty() && hasData && !dryrun && !force) {
+        dryrun = true;
+        System.out.println("The cluster has data, so no operations will actually be carried out. Use --force if you want the cluster to balance anyway.");
+      }
+      for (MoveScheduler.Move move : moves) {
+        System.out.println(move.host + ": Moving from token " + move.oldToken + " to token " + move.newToken);
+      }
+      if (!dryrun && !moves.isEmpty()) {
+        runMoves(moves, hostTokenMap, ownership, journal, cmd);
+        System.out.println("The cluster is now balanced!");
+      }
+      return;
+    }
+
+    Balancer balancer = new Balancer(hostTokenMap, hostDcMap, hostLoadMap, hostWeightMap, minToken, maxToken);
+    balancer.setReplication(ownership);
+    balancer.setEvenOwnership(cmd.hasOption("o"));
     Map<String, BigInteger> newMap = balancer.balance();
 
+    Map<String, Double> oldOwnership = ownership.ownership(hostTokenMap);
+    Map<String, Double> newOwnership = ownership.ownership(newMap);
+    System.out.println(String.format("Replicated ownership spread: %.1f%% now, %.1f%% after balancing",
+                                     100 * ownership.spread(oldOwnership), 100 * ownership.spread(newOwnership)));
+
     List<Operation> operations = new ArrayList<Operation>();
 
     boolean movesNeeded = false;
@@ -122,7 +196,8 @@ public class Main {
       if (!oldToken.equals(newToken)) {
         movesNeeded = true;
       }
-      operations.add(new Operation(host, hostDcMap.get(host), oldToken, newToken));
+      operations.add(new Operation(host, hostDcMap.get(host), oldToken, newToken,
+                                   oldOwnership.get(host), newOwnership.get(host)));
     }
 
     if (movesNeeded && hasData && !dryrun && !force) {
@@ -132,39 +207,244 @@ public class Main {
 
     Collections.sort(operations);
 
-    boolean unbalanced = false, moved = false;
+    boolean unbalanced = false;
+    List<MoveScheduler.Move> moves = new ArrayList<MoveScheduler.Move>();
     for (Operation op : operations) {
+      String owns = String.format(" (owns %.2f%% -> %.2f%%)", 100 * op.oldOwnership, 100 * op.newOwnership);
       if (op.oldToken.equals(op.newToken)) {
-        System.out.println(op.host + ": Stays on token " + op.oldToken);
+        System.out.println(op.host + ": Stays on token " + op.oldToken + owns);
       } else {
-        System.out.println(op.host + ": Moving from token " + op.oldToken + " to token " + op.newToken);
+        System.out.println(op.host + ": Moving from token " + op.oldToken + " to token " + op.newToken + owns);
         if (!dryrun) {
-          String ip = op.host.substring(op.host.lastIndexOf("/") + 1);
-          NodeProbe np = new NodeProbe(ip, 7199);
-          np.move(op.newToken.toString());
-          moved = true;
+          moves.add(new MoveScheduler.Move(op.host, op.dataCenter, op.oldToken, op.newToken));
         } else {
           unbalanced = true;
         }
       }
     }
 
-    if (!unbalanced && moved) {
+    if (!moves.isEmpty()) {
+      if (journal != null) {
+        journal.start(moves);
+      }
+      runMoves(moves, hostTokenMap, ownership, journal, cmd);
+    }
+
+    if (!unbalanced && !moves.isEmpty()) {
       System.out.println("The cluster is now balanced!");
     }
   }
 
+  /**
+   * @return the moves of the journal not done yet, after marking the ones the cluster shows are done
+   */
+  private static List<MoveScheduler.Move> resumableMoves(MoveJournal journal, Map<String, BigInteger> hostTokenMap)
+      throws IOException {
+    List<MoveScheduler.Move> moves = new ArrayList<MoveScheduler.Move>();
+    for (MoveScheduler.Move move : journal.pending()) {
+      BigInteger token = hostTokenMap.get(move.host);
+      if (move.newToken.equals(token)) {
+        journal.completed(move);
+      } else if (move.oldToken.equals(token)) {
+        moves.add(move);
+      } else {
+        throw new RuntimeException(move.host + " has token " + token + ", which the journal doesn't expect; aborting");
+      }
+    }
+    return moves;
+  }
+
+  /**
+   * Runs the moves with the scheduler, with streaming throttled on every node while they run if asked to
+   */
+  private void runMoves(List<MoveScheduler.Move> moves, Map<String, BigInteger> hostTokenMap,
+                        ReplicatedOwnership ownership, MoveJournal journal, CommandLine cmd) throws IOException, InterruptedException {
+    int parallelism = cmd.hasOption("P") ? Integer.parseInt(cmd.getOptionValue("P")) : 1;
+    if (parallelism < 1) {
+      throw new RuntimeException("At least one move must be allowed at a time");
+    }
+
+    Map<String, Integer> throughputs = new HashMap<String, Integer>();
+    try {
+      if (cmd.hasOption("S")) {
+        int throughput = Integer.parseInt(cmd.getOptionValue("S"));
+        for (String host : hostTokenMap.keySet()) {
+          StorageServiceMBean storageService = storageService(host);
+          throughputs.put(host, storageService.getStreamThroughputMbPerSec());
+          storageService.setStreamThroughputMbPerSec(throughput);
+        }
+      }
+      new MoveScheduler(hostTokenMap, ownership, parallelism, new JmxMover(), journal, System.out).run(moves);
+    } finally {
+      for (Map.Entry<String, Integer> entry : throughputs.entrySet()) {
+        storageService(entry.getKey()).setStreamThroughputMbPerSec(entry.getValue());
+      }
+    }
+  }
+
+  private StorageServiceMBean storageService(String host) throws IOException {
+    return connections.proxy(address(host), STORAGE_SERVICE, StorageServiceMBean.class);
+  }
+
+  /**
+   * @return the address part of a host name decorated with its address
+   */
+  private static String address(String host) {
+    return host.substring(host.lastIndexOf("/") + 1);
+  }
+
+  /**
+   * Moves nodes through NodeProbe. A move can outlast the JMX call, in which case the node is polled
+   * until it is done moving.
+   */
+  private class JmxMover implements MoveScheduler.Mover {
+    @Override
+    public void move(MoveScheduler.Move move) throws Exception {
+      String ip = address(move.host);
+      NodeProbe probe = connections.nodeProbe(ip);
+      try {
+        probe.move(move.newToken.toString());
+        return;
+      } catch (IOException e) {
+        if (!MOVING.equals(probe.getOperationMode())) {
+          throw e;
+        }
+      }
+      while (MOVING.equals(probe.getOperationMode())) {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(MOVE_POLL_SECONDS));
+      }
+      List<String> tokens = probe.getTokens(ip);
+      if (!tokens.contains(move.newToken.toString())) {
+        throw new IOException(move.host + " stopped moving at " + tokens);
+      }
+    }
+
+    @Override
+    public String progress(MoveScheduler.Move move) throws Exception {
+      NodeProbe probe = connections.nodeProbe(address(move.host));
+      long received = 0, total = 0;
+      for (StreamState state : probe.getStreamStatus()) {
+        for (SessionInfo session : state.sessions) {
+          received += session.getTotalSizeReceived();
+          total += session.getTotalSizeToReceive();
+        }
+      }
+      return String.format("%s, received %s of %s", probe.getOperationMode(),
+                           FileUtils.stringifyFileSize(received), FileUtils.stringifyFileSize(total));
+    }
+  }
+
+  /**
+   * Vnode tokens can't be moved one by one, so only prints which tokens should change owner. The new
+   * tokens of a node can be given as its initial_token when it is replaced.
+   */
+  private void planVnodes(ReplicatedOwnership ownership, Map<String, List<BigInteger>> hostVnodeMap,
+                          Map<String, String> hostDcMap, double targetSpread) {
+    System.out.println("Cluster is using vnodes; planning token changes without carrying them out...");
+
+    VnodePlanner planner = new VnodePlanner(ownership, hostVnodeMap, targetSpread, Integer.MAX_VALUE);
+    List<VnodePlanner.Change> changes = planner.plan();
+    Map<String, List<BigInteger>> newVnodeMap = planner.apply(changes);
+
+    Map<String, Double> oldOwnership = ownership.ownershipOfVnodes(hostVnodeMap);
+    Map<String, Double> newOwnership = ownership.ownershipOfVnodes(newVnodeMap);
+    System.out.println(String.format("Replicated ownership spread: %.1f%% now, %.1f%% after %d token changes",
+                                     100 * ownership.spread(oldOwnership), 100 * ownership.spread(newOwnership),
+                                     changes.size()));
+
+    List<String> hosts = new ArrayList<String>(hostVnodeMap.keySet());
+    Collections.sort(hosts);
+    for (String host : hosts) {
+      System.out.println(String.format("%s (%s): owns %.2f%% -> %.2f%%", host, hostDcMap.get(host),
+                                       100 * oldOwnership.get(host), 100 * newOwnership.get(host)));
+    }
+    for (VnodePlanner.Change change : changes) {
+      System.out.println("Token " + change.token + ": from " + change.from + " to " + change.to);
+    }
+  }
+
+  /**
+   * Reads the weight of each node from a file with one "address weight" pair per line
+   */
+  static Map<String, Double> readWeights(File file) throws IOException {
+    Map<String, Double> weights = new HashMap<String, Double>();
+    for (String line : Files.readLines(file, Charsets.UTF_8)) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] parts = line.split("\\s+");
+      if (parts.length != 2) {
+        throw new RuntimeException("Malformed line in " + file + ": " + line);
+      }
+      weights.put(parts[0], Double.parseDouble(parts[1]));
+    }
+    return weights;
+  }
+
+  /**
+   * Parses replication factors given as "dc1:3,dc2:2"; data centers not mentioned get a replication
+   * factor of 3
+   */
+  static Map<String, Integer> parseReplication(String replication, Map<String, String> hostDc) {
+    Map<String, Integer> factors = new HashMap<String, Integer>();
+    for (String dc : hostDc.values()) {
+      factors.put(dc, DEFAULT_REPLICATION_FACTOR);
+    }
+    if (replication != null) {
+      for (String part : replication.split(",")) {
+        String[] dcFactor = part.trim().split(":");
+        if (dcFactor.length != 2) {
+          throw new RuntimeException("Malformed replication: " + replication);
+        }
+        factors.put(dcFactor[0], Integer.parseInt(dcFactor[1]));
+      }
+    }
+    return factors;
+  }
+
+  /**
+   * @return the bytes of a load as formatted in the load map, e.g. "12.5 GB", or 0 if it is unknown
+   */
+  static long parseLoad(String load) {
+    if (load == null) {
+      return 0;
+    }
+    String[] parts = load.trim().split("\\s+");
+    if (parts.length != 2) {
+      return 0;
+    }
+    double value;
+    try {
+      value = Double.parseDouble(parts[0].replace(',', '.'));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+    String[] units = {"bytes", "KB", "MB", "GB", "TB"};
+    for (int i = 0; i < units.length; i++) {
+      if (units[i].equals(parts[1])) {
+        return (long) (value * Math.pow(1024, i));
+      }
+    }
+    return 0;
+  }
+
   private static class Operation implements Comparable<Operation> {
     public String host;
     public String dataCenter;
     public BigInteger oldToken;
     public BigInteger newToken;
+    public double oldOwnership;
+    public double newOwnership;
 
-    private Operation(String host, String dataCenter, BigInteger oldToken, BigInteger newToken) {
+    private Operation(String host, String dataCenter, BigInteger oldToken, BigInteger newToken,
+                      double oldOwnership, double newOwnership) {
       this.host = host;
       this.dataCenter = dataCenter;
       this.oldToken = oldToken;
       this.newToken = newToken;
+      this.oldOwnership = oldOwnership;
+      this.newOwnership = newOwnership;
     }
 
     @Override
@@ -183,10 +463,22 @@ public class Main {
     options.addOption("d", "dryrun", false, "Dry run");
     options.addOption("r", "noresolve", false, "Don't resolve host names");
     options.addOption("h", "host", true, "Host to connect to (default: localhost)");
-    options.addOption("p", "port", true, "Port to connect to (default: 7199)");
+    options.addOption("w", "weights", true, "File with one \"address weight\" line per node; ranges are made proportional to the weights");
+    options.addOption("R", "replication", true, "Replication factor of each DC, used to even out replicated ownership, e.g. dc1:3,dc2:2 (default: 3 in every DC)");
+    options.addOption("o", "even-ownership", false, "Swap the new tokens of moving nodes to even out replicated ownership, even if that streams more data");
+    options.addOption("s", "spread", true, "With vnodes, the spread of replicated ownership in percent to plan for (default: 10)");
+    options.addOption("P", "parallel", true, "Number of moves that don't share ranges or replicas to run at a time (default: 1)");
+    options.addOption("S", "stream-throughput", true, "Throttle streaming on every node to this many Mbit/s while moving");
+    options.addOption("J", "journal", true, "Record planned and completed moves in this file, and resume the moves it has left if it exists");
+    JmxConnections.addOptions(options);
 
     CommandLineParser parser = new BasicParser();
     CommandLine cmd = parser.parse(options, args);
-    new Main().run(cmd);
+    JmxConnections connections = JmxConnections.fromCommandLine(cmd);
+    try {
+      new Main(connections).run(cmd);
+    } finally {
+      connections.close();
+    }
   }
 }
@@ -0,0 +1,99 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.autobalance;
+
+import java.util.Arrays;
+
+/**
+ * Solves the assignment problem: given the cost of assigning each row to each column, assigns every
+ * row to a different column with the lowest total cost. Uses the Hungarian algorithm with potentials,
+ * which takes O(rows^2 * columns) time.
+ */
+public class MinCostAssignment {
+
+  private MinCostAssignment() {
+  }
+
+  /**
+   * @param cost the cost of assigning each row to each column; there must be at least as many columns
+   *     as rows, and the costs must not be so large that their sums overflow
+   * @return the column assigned to each row
+   */
+  public static int[] solve(long[][] cost) {
+    int rows = cost.length;
+    int columns = rows == 0 ? 0 : cost[0].length;
+    if (columns < rows) {
+      throw new IllegalArgumentException("Can't assign " + rows + " rows to " + columns + " columns");
+    }
+
+    // Row and column potentials, and the row assigned to each column, all 1-based with 0 as a sentinel
+    long[] u = new long[rows + 1];
+    long[] v = new long[columns + 1];
+    int[] assigned = new int[columns + 1];
+    int[] way = new int[columns + 1];
+    long[] minimum = new long[columns + 1];
+    boolean[] used = new boolean[columns + 1];
+
+    for (int row = 1; row <= rows; row++) {
+      // Find a shortest augmenting path from the new row to a free column
+      assigned[0] = row;
+      int column = 0;
+      Arrays.fill(minimum, Long.MAX_VALUE);
+      Arrays.fill(used, false);
+      do {
+        used[column] = true;
+        int current = assigned[column];
+        long delta = Long.MAX_VALUE;
+        int next = 0;
+        for (int j = 1; j <= columns; j++) {
+          if (!used[j]) {
+            long reduced = cost[current - 1][j - 1] - u[current] - v[j];
+            if (reduced < minimum[j]) {
+              minimum[j] = reduced;
+              way[j] = column;
+            }
+            if (minimum[j] < delta) {
+              delta = minimum[j];
+              next = j;
+            }
+          }
+        }
+        for (int j = 0; j <= columns; j++) {
+          if (used[j]) {
+            u[assigned[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minimum[j] -= delta;
+          }
+        }
+        column = next;
+      } while (assigned[column] != 0);
+
+      // Flip the path
+      do {
+        int previous = way[column];
+        assigned[column] = assigned[previous];
+        column = previous;
+      } while (column != 0);
+    }
+
+    int[] result = new int[rows];
+    for (int j = 1; j <= columns; j++) {
+      if (assigned[j] != 0) {
+        result[assigned[j] - 1] = j - 1;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.autobalance;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+
+import com.spotify.cassandra.opstools.autobalance.MoveScheduler.Move;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records a plan of token moves and which of them are done, so that an interrupted rebalance can
+ * resume where it stopped.
+ *
+ * Moves are stored one per line, tab separated, in the order they were planned. The file is
+ * replaced after every completed move.
+ */
+public class MoveJournal {
+  private static final Joiner TAB = Joiner.on('\t');
+  private static final String PENDING = "pending";
+  private static final String DONE = "done";
+
+  private final File file;
+  // Whether each move is done, in planned order
+  private final Map<Move, Boolean> moves = new LinkedHashMap<Move, Boolean>();
+
+  private MoveJournal(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Loads the journal from the given file, starting out empty if it doesn't exist yet
+   */
+  public static MoveJournal load(File file) throws IOException {
+    MoveJournal journal = new MoveJournal(file);
+    if (file.exists()) {
+      for (String line : Files.readLines(file, Charsets.UTF_8)) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        List<String> fields = Splitter.on('\t').splitToList(line);
+        if (fields.size() != 5 || !(fields.get(4).equals(PENDING) || fields.get(4).equals(DONE))) {
+          throw new IOException("Malformed move journal entry: " + line);
+        }
+        try {
+          Move move = new Move(fields.get(0), fields.get(1), new BigInteger(fields.get(2)), new BigInteger(fields.get(3)));
+          journal.moves.put(move, fields.get(4).equals(DONE));
+        } catch (NumberFormatException e) {
+          throw new IOException("Malformed move journal entry: " + line, e);
+        }
+      }
+    }
+    return journal;
+  }
+
+  /**
+   * Replaces whatever the journal held with a new plan, none of it done
+   */
+  public synchronized void start(List<Move> plan) throws IOException {
+    moves.clear();
+    for (Move move : plan) {
+      moves.put(move, false);
+    }
+    save();
+  }
+
+  public synchronized void completed(Move move) throws IOException {
+    moves.put(move, true);
+    save();
+  }
+
+  /**
+   * @return the moves not done yet, in planned order
+   */
+  public synchronized List<Move> pending() {
+    List<Move> pending = new ArrayList<Move>();
+    for (Map.Entry<Move, Boolean> entry : moves.entrySet()) {
+      if (!entry.getValue()) {
+        pending.add(entry.getKey());
+      }
+    }
+    return pending;
+  }
+
+  private void save() throws IOException {
+    File temporary = new File(file.getAbsolutePath() + ".tmp");
+    BufferedWriter writer = Files.newWriter(temporary, Charsets.UTF_8);
+    try {
+      for (Map.Entry<Move, Boolean> entry : moves.entrySet()) {
+        Move move = entry.getKey();
+        writer.write(TAB.join(move.host, move.dataCenter, move.oldToken, move.newToken, entry.getValue() ? DONE : PENDING));
+        writer.newLine();
+      }
+    } finally {
+      writer.close();
+    }
+    if (!temporary.renameTo(file)) {
+      throw new IOException("Failed to replace " + file + " with " + temporary);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.autobalance;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs token moves concurrently, as long as the moves running at the same time don't touch the same
+ * nodes.
+ *
+ * A move changes which nodes replicate the ranges around the node's old and new tokens. Its footprint
+ * is every replica, before or after the move, of a range whose replicas change or that the moving
+ * node replicates, placing replicas by rack like {@link ReplicatedOwnership} does. Moves with
+ * disjoint footprints neither share ranges nor replicas.
+ * Footprints are computed from the tokens as they are when a move starts, with the moves completed
+ * so far taken into account.
+ */
+public class MoveScheduler {
+  private static final int PROGRESS_INTERVAL_SECONDS = 30;
+
+  /**
+   * Carries out moves and tells how far along they are
+   */
+  public interface Mover {
+    /**
+     * Moves the node, returning once it is done
+     */
+    void move(Move move) throws Exception;
+
+    /**
+     * @return a short description of how far along the running move is
+     */
+    String progress(Move move) throws Exception;
+  }
+
+  private final Map<String, BigInteger> tokens;
+  private final ReplicatedOwnership ownership;
+  private final int parallelism;
+  private final Mover mover;
+  private final MoveJournal journal;
+  private final PrintStream out;
+
+  /**
+   * @param tokens the current token of every node
+   * @param ownership the topology and replication settings of the cluster
+   * @param parallelism the most moves to run at the same time
+   * @param journal where to record completed moves, or null
+   */
+  public MoveScheduler(Map<String, BigInteger> tokens, ReplicatedOwnership ownership,
+                       int parallelism, Mover mover, MoveJournal journal, PrintStream out) {
+    this.tokens = new HashMap<String, BigInteger>(tokens);
+    this.ownership = ownership;
+    this.parallelism = parallelism;
+    this.mover = mover;
+    this.journal = journal;
+    this.out = out;
+  }
+
+  /**
+   * Runs the moves, starting each one as early as the moves before it allow. If a move fails, no more
+   * moves are started, and the exception is thrown once the running ones are done.
+   */
+  public void run(List<Move> moves) throws IOException, InterruptedException {
+    List<Move> pending = new ArrayList<Move>(moves);
+    final Map<Future<Move>, Set<String>> running = new LinkedHashMap<Future<Move>, Set<String>>();
+    final Map<Future<Move>, Move> runningMoves = Collections.synchronizedMap(new LinkedHashMap<Future<Move>, Move>());
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    CompletionService<Move> completions = new ExecutorCompletionService<Move>(executor);
+    ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+    progress.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        List<Move> moves;
+        synchronized (runningMoves) {
+          moves = new ArrayList<Move>(runningMoves.values());
+        }
+        for (Move move : moves) {
+          try {
+            out.println(move.host + ": " + mover.progress(move));
+          } catch (Exception e) {
+            out.println(move.host + ": Unknown progress (" + e + ")");
+          }
+        }
+      }
+    }, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+    Exception failure = null;
+    Move failed = null;
+    int done = 0;
+    try {
+      while (!running.isEmpty() || (failure == null && !pending.isEmpty())) {
+        if (failure == null) {
+          Set<String> busy = new HashSet<String>();
+          for (Set<String> footprint : running.values()) {
+            busy.addAll(footprint);
+          }
+          Iterator<Move> iterator = pending.iterator();
+          while (iterator.hasNext() && running.size() < parallelism) {
+            final Move move = iterator.next();
+            Set<String> footprint = footprint(move);
+            if (!Collections.disjoint(busy, footprint)) {
+              continue;
+            }
+            iterator.remove();
+            busy.addAll(footprint);
+            out.println(move.host + ": Moving from token " + move.oldToken + " to token " + move.newToken);
+            Future<Move> future = completions.submit(new Callable<Move>() {
+              @Override
+              public Move call() throws Exception {
+                mover.move(move);
+                return move;
+              }
+            });
+            running.put(future, footprint);
+            runningMoves.put(future, move);
+          }
+        }
+
+        Future<Move> future = completions.take();
+        running.remove(future);
+        Move move = runningMoves.remove(future);
+        try {
+          future.get();
+          tokens.put(move.host, move.newToken);
+          if (journal != null) {
+            journal.completed(move);
+          }
+          done++;
+          out.println(String.format("%s: Moved to token %s (%d of %d moves done)", move.host, move.newToken, done, moves.size()));
+        } catch (ExecutionException e) {
+          out.println(move.host + ": Failed to move to token " + move.newToken + " (" + e.getCause() + ")");
+          if (failure == null) {
+            failure = e;
+            failed = move;
+          }
+        }
+      }
+    } finally {
+      progress.shutdownNow();
+      executor.shutdownNow();
+    }
+
+    if (failure != null) {
+      throw new IOException("Moving " + failed.host + " to token " + failed.newToken + " failed", failure.getCause());
+    }
+  }
+
+  /**
+   * @return the moving node and every replica of a range the move changes or the node replicates,
+   *     before or after the move
+   */
+  Set<String> footprint(Move move) {
+    Map<String, BigInteger> after = new HashMap<String, BigInteger>(tokens);
+    after.put(move.host, move.newToken);
+    TreeMap<BigInteger, Set<String>> replicasBefore = ownership.replicaSets(tokens, move.dataCenter);
+    TreeMap<BigInteger, Set<String>> replicasAfter = ownership.replicaSets(after, move.dataCenter);
+
+    // Every range between two tokens of either ring has the same replicas all along, those of the
+    // range of each ring that ends at or after it
+    Set<BigInteger> ends = new TreeSet<BigInteger>(replicasBefore.keySet());
+    ends.addAll(replicasAfter.keySet());
+    Set<String> footprint = new HashSet<String>();
+    footprint.add(move.host);
+    for (BigInteger end : ends) {
+      Set<String> before = replicasOfRange(replicasBefore, end);
+      Set<String> now = replicasOfRange(replicasAfter, end);
+      if (!before.equals(now) || before.contains(move.host) || now.contains(move.host)) {
+        footprint.addAll(before);
+        footprint.addAll(now);
+      }
+    }
+    return footprint;
+  }
+
+  private static Set<String> replicasOfRange(TreeMap<BigInteger, Set<String>> replicaSets, BigInteger end) {
+    Map.Entry<BigInteger, Set<String>> entry = replicaSets.ceilingEntry(end);
+    return entry != null ? entry.getValue() : replicaSets.firstEntry().getValue();
+  }
+
+  /**
+   * A node moving from one token to another
+   */
+  public static class Move {
+    public final String host;
+    public final String dataCenter;
+    public final BigInteger oldToken;
+    public final BigInteger newToken;
+
+    public Move(String host, String dataCenter, BigInteger oldToken, BigInteger newToken) {
+      this.host = host;
+      this.dataCenter = dataCenter;
+      this.oldToken = oldToken;
+      this.newToken = newToken;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Move)) {
+        return false;
+      }
+      Move other = (Move) o;
+      return host.equals(other.host) && dataCenter.equals(other.dataCenter)
+             && oldToken.equals(other.oldToken) && newToken.equals(other.newToken);
+    }
+
+    @Override
+    public int hashCode() {
+      return ((host.hashCode() * 31 + dataCenter.hashCode()) * 31 + oldToken.hashCode()) * 31 + newToken.hashCode();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.autobalance;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tokens of one data center in ring order, their owners and the replicated ownership of every
+ * node, kept up to date as the owners of tokens are swapped.
+ *
+ * A swap only walks again the ranges whose replicas could include the swapped tokens, so it costs the
+ * same however many tokens there are.
+ */
+class OwnershipRing {
+  final BigInteger[] ringTokens;
+  final double[] ranges;
+  final int[] owners;
+  final int[] originalOwners;
+  final int rf;
+
+  // The hosts of the data center, the indexes of the tokens of each, and how much of the ring each
+  // holds a replica of
+  final List<Integer> hosts = new ArrayList<Integer>();
+  final Map<Integer, List<Integer>> hostTokens = new HashMap<Integer, List<Integer>>();
+  final double[] owned;
+  private double sumOfSquares;
+
+  // The number of tokens the walk from each token looked at, and the most of any walk
+  private final int[] steps;
+  private int maxSteps;
+  private final ReplicatedOwnership.ReplicaWalk walk;
+
+  // Ranges already collected for the current swap are marked with the number of the swap
+  private final int[] affected;
+  private int swapCount;
+
+  /**
+   * @param tokens all the tokens of every node; only those of the data center are used
+   */
+  OwnershipRing(ReplicatedOwnership ownership, int dc, Map<String, ? extends Collection<BigInteger>> tokens) {
+    List<BigInteger> dcTokens = new ArrayList<BigInteger>();
+    final List<Integer> dcOwners = new ArrayList<Integer>();
+    for (Map.Entry<String, ? extends Collection<BigInteger>> entry : tokens.entrySet()) {
+      int host = ownership.hostIndex(entry.getKey());
+      if (ownership.dataCenter(host) == dc) {
+        hosts.add(host);
+        for (BigInteger token : entry.getValue()) {
+          dcTokens.add(token);
+          dcOwners.add(host);
+        }
+      }
+    }
+    Collections.sort(hosts);
+
+    final BigInteger[] unsorted = dcTokens.toArray(new BigInteger[dcTokens.size()]);
+    Integer[] order = new Integer[unsorted.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return unsorted[a].compareTo(unsorted[b]);
+      }
+    });
+
+    int size = order.length;
+    ringTokens = new BigInteger[size];
+    owners = new int[size];
+    for (int i = 0; i < size; i++) {
+      ringTokens[i] = unsorted[order[i]];
+      owners[i] = dcOwners.get(order[i]);
+    }
+    originalOwners = owners.clone();
+
+    ranges = new double[size];
+    for (int i = 0; i < size; i++) {
+      double position = ownership.position(ringTokens[i]);
+      double previous = ownership.position(ringTokens[(i + size - 1) % size]);
+      ranges[i] = size == 1 ? ownership.ringSize() : i == 0 ? position + ownership.ringSize() - previous : position - previous;
+    }
+
+    for (int host : hosts) {
+      hostTokens.put(host, new ArrayList<Integer>());
+    }
+    for (int i = 0; i < size; i++) {
+      hostTokens.get(owners[i]).add(i);
+    }
+
+    rf = ownership.replicationFactor(dc);
+    walk = ownership.new ReplicaWalk(dc, rf);
+    owned = new double[ownership.hostCount()];
+    steps = new int[size];
+    affected = new int[size];
+    for (int i = 0; i < size; i++) {
+      walk.walk(owners, i);
+      steps[i] = walk.steps;
+      maxSteps = Math.max(maxSteps, walk.steps);
+      for (int j = 0; j < walk.count; j++) {
+        owned[walk.replicas[j]] += ranges[i];
+      }
+    }
+    for (int host : hosts) {
+      sumOfSquares += owned[host] * owned[host];
+    }
+  }
+
+  int size() {
+    return owners.length;
+  }
+
+  /**
+   * @return the sum of the squared ownership of the nodes, which is lowest when ownership is even
+   */
+  double sumOfSquares() {
+    return sumOfSquares;
+  }
+
+  /**
+   * @return the difference between the most and least owning nodes relative to the average ownership
+   */
+  double spread() {
+    double min = Double.MAX_VALUE, max = 0, sum = 0;
+    for (int host : hosts) {
+      min = Math.min(min, owned[host]);
+      max = Math.max(max, owned[host]);
+      sum += owned[host];
+    }
+    return sum == 0 ? 0 : (max - min) / (sum / hosts.size());
+  }
+
+  /**
+   * Swaps the owners of two tokens, walking again every range whose replicas could change. Swapping
+   * the same tokens again undoes it.
+   *
+   * @return the sum of the squared ownership of the nodes afterwards
+   */
+  double swap(int first, int second) {
+    int size = owners.length;
+    swapCount++;
+    List<Integer> rescan = new ArrayList<Integer>();
+    for (int token : new int[] {first, second}) {
+      for (int back = 0; back < Math.min(maxSteps, size); back++) {
+        int start = (token - back + size) % size;
+        if (steps[start] > back && affected[start] != swapCount) {
+          affected[start] = swapCount;
+          rescan.add(start);
+        }
+      }
+    }
+
+    for (int start : rescan) {
+      addReplicas(start, -1);
+    }
+    hostTokens.get(owners[first]).remove(Integer.valueOf(first));
+    hostTokens.get(owners[second]).remove(Integer.valueOf(second));
+    int owner = owners[first];
+    owners[first] = owners[second];
+    owners[second] = owner;
+    hostTokens.get(owners[first]).add(first);
+    hostTokens.get(owners[second]).add(second);
+    for (int start : rescan) {
+      addReplicas(start, 1);
+      steps[start] = walk.steps;
+      maxSteps = Math.max(maxSteps, walk.steps);
+    }
+    return sumOfSquares;
+  }
+
+  private void addReplicas(int start, int sign) {
+    walk.walk(owners, start);
+    for (int i = 0; i < walk.count; i++) {
+      int host = walk.replicas[i];
+      double before = owned[host];
+      owned[host] += sign * ranges[start];
+      sumOfSquares += owned[host] * owned[host] - before * before;
+    }
+  }
+}
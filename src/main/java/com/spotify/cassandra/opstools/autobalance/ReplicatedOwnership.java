@@ -0,0 +1,342 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.autobalance;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Computes the effective ownership of every node once replication is taken into account, placing
+ * replicas the way NetworkTopologyStrategy does: walking the ring of each data center from the end of
+ * a range, preferring nodes in racks that don't hold a replica yet.
+ *
+ * Ownership is the fraction of the ring a node holds a replica of, so within a data center the
+ * ownership of its nodes adds up to its replication factor. The topology is indexed once, so scoring a
+ * token map only sorts the tokens of each data center and walks them.
+ */
+public class ReplicatedOwnership {
+  private final BigInteger minToken;
+  private final double ringSize;
+  private final Map<String, Integer> replication;
+  // The data centers and racks, and the data center and rack of each host, as indexes
+  private final List<String> dcs;
+  private final Map<String, Integer> hostIndex = new HashMap<String, Integer>();
+  private final List<String> hosts = new ArrayList<String>();
+  private final int[] hostDcIndex;
+  private final int[] hostRackIndex;
+  private final int[] dcRackCount;
+
+  /**
+   * @param hostRack the rack of every host
+   * @param replication the replication factor of each data center; data centers without one hold no
+   *     replicas
+   */
+  public ReplicatedOwnership(Map<String, String> hostDc, Map<String, String> hostRack,
+                             Map<String, Integer> replication, BigInteger minToken, BigInteger maxToken) {
+    this.minToken = minToken;
+    this.ringSize = maxToken.subtract(minToken).doubleValue();
+    this.replication = replication;
+    this.dcs = new ArrayList<String>(new TreeSet<String>(hostDc.values()));
+
+    hosts.addAll(hostDc.keySet());
+    Collections.sort(hosts);
+    hostDcIndex = new int[hosts.size()];
+    hostRackIndex = new int[hosts.size()];
+    dcRackCount = new int[dcs.size()];
+    List<Map<String, Integer>> racks = new ArrayList<Map<String, Integer>>();
+    for (int i = 0; i < dcs.size(); i++) {
+      racks.add(new HashMap<String, Integer>());
+    }
+    for (int i = 0; i < hosts.size(); i++) {
+      String host = hosts.get(i);
+      hostIndex.put(host, i);
+      int dc = dcs.indexOf(hostDc.get(host));
+      String rack = hostRack.get(host);
+      Map<String, Integer> dcRacks = racks.get(dc);
+      if (!dcRacks.containsKey(rack)) {
+        dcRacks.put(rack, dcRacks.size());
+      }
+      hostDcIndex[i] = dc;
+      hostRackIndex[i] = dcRacks.get(rack);
+    }
+    for (int i = 0; i < dcs.size(); i++) {
+      dcRackCount[i] = racks.get(i).size();
+    }
+  }
+
+  /**
+   * @param tokens the token of every host
+   * @return the fraction of the ring every host holds a replica of
+   */
+  public Map<String, Double> ownership(Map<String, BigInteger> tokens) {
+    Map<String, Collection<BigInteger>> vnodes = new HashMap<String, Collection<BigInteger>>();
+    for (Map.Entry<String, BigInteger> entry : tokens.entrySet()) {
+      vnodes.put(entry.getKey(), Collections.singletonList(entry.getValue()));
+    }
+    return ownershipOfVnodes(vnodes);
+  }
+
+  /**
+   * @param tokens all the tokens of every host
+   * @return the fraction of the ring every host holds a replica of
+   */
+  public Map<String, Double> ownershipOfVnodes(Map<String, ? extends Collection<BigInteger>> tokens) {
+    double[] owned = new double[hosts.size()];
+
+    // The tokens of each data center, and the host owning each of them
+    List<List<BigInteger>> dcTokens = new ArrayList<List<BigInteger>>();
+    List<List<Integer>> dcOwners = new ArrayList<List<Integer>>();
+    for (int i = 0; i < dcs.size(); i++) {
+      dcTokens.add(new ArrayList<BigInteger>());
+      dcOwners.add(new ArrayList<Integer>());
+    }
+    for (Map.Entry<String, ? extends Collection<BigInteger>> entry : tokens.entrySet()) {
+      Integer host = hostIndex.get(entry.getKey());
+      if (host == null) {
+        throw new IllegalArgumentException("Unknown host " + entry.getKey());
+      }
+      for (BigInteger token : entry.getValue()) {
+        dcTokens.get(hostDcIndex[host]).add(token);
+        dcOwners.get(hostDcIndex[host]).add(host);
+      }
+    }
+
+    for (int dc = 0; dc < dcs.size(); dc++) {
+      int rf = replicationFactor(dc);
+      if (rf > 0 && !dcTokens.get(dc).isEmpty()) {
+        addDcOwnership(dc, rf, dcTokens.get(dc), dcOwners.get(dc), owned);
+      }
+    }
+
+    Map<String, Double> ownership = new HashMap<String, Double>();
+    for (String host : tokens.keySet()) {
+      ownership.put(host, owned[hostIndex.get(host)] / ringSize);
+    }
+    return ownership;
+  }
+
+  private void addDcOwnership(int dc, int rf, List<BigInteger> tokens, List<Integer> owners, double[] owned) {
+    int size = tokens.size();
+    final double[] positions = new double[size];
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      positions[i] = tokens.get(i).subtract(minToken).doubleValue();
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(positions[a], positions[b]);
+      }
+    });
+    double[] sorted = new double[size];
+    int[] sortedOwners = new int[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = positions[order[i]];
+      sortedOwners[i] = owners.get(order[i]);
+    }
+
+    // Every range between two consecutive tokens of the data center is replicated by the nodes found
+    // walking the ring from the token ending it
+    ReplicaWalk walk = new ReplicaWalk(dc, rf);
+    for (int i = 0; i < size; i++) {
+      double range = size == 1 ? ringSize : i == 0 ? sorted[0] + ringSize - sorted[size - 1] : sorted[i] - sorted[i - 1];
+      walk.walk(sortedOwners, i);
+      for (int j = 0; j < walk.count; j++) {
+        owned[walk.replicas[j]] += range;
+      }
+    }
+  }
+
+  /**
+   * @param tokens the token of every host
+   * @return the replicas of the range ending at each token of the data center
+   */
+  TreeMap<BigInteger, Set<String>> replicaSets(Map<String, BigInteger> tokens, String dataCenter) {
+    int dc = dcs.indexOf(dataCenter);
+    TreeMap<BigInteger, Integer> ring = new TreeMap<BigInteger, Integer>();
+    for (Map.Entry<String, BigInteger> entry : tokens.entrySet()) {
+      int host = hostIndex(entry.getKey());
+      if (hostDcIndex[host] == dc) {
+        ring.put(entry.getValue(), host);
+      }
+    }
+    int[] owners = new int[ring.size()];
+    int i = 0;
+    for (int host : ring.values()) {
+      owners[i++] = host;
+    }
+
+    TreeMap<BigInteger, Set<String>> replicaSets = new TreeMap<BigInteger, Set<String>>();
+    ReplicaWalk walk = new ReplicaWalk(dc, replicationFactor(dc));
+    i = 0;
+    for (BigInteger token : ring.keySet()) {
+      walk.walk(owners, i++);
+      Set<String> replicas = new HashSet<String>();
+      for (int j = 0; j < walk.count; j++) {
+        replicas.add(hosts.get(walk.replicas[j]));
+      }
+      replicaSets.put(token, replicas);
+    }
+    return replicaSets;
+  }
+
+  /**
+   * @return the largest difference, in any data center, between the most and least owning nodes
+   *     relative to the average ownership of that data center
+   */
+  public double spread(Map<String, Double> ownership) {
+    double spread = 0;
+    for (int dc = 0; dc < dcs.size(); dc++) {
+      double min = Double.MAX_VALUE, max = 0, sum = 0;
+      int count = 0;
+      for (Map.Entry<String, Double> entry : ownership.entrySet()) {
+        if (hostDcIndex[hostIndex.get(entry.getKey())] == dc) {
+          min = Math.min(min, entry.getValue());
+          max = Math.max(max, entry.getValue());
+          sum += entry.getValue();
+          count++;
+        }
+      }
+      if (count > 0 && sum > 0) {
+        spread = Math.max(spread, (max - min) / (sum / count));
+      }
+    }
+    return spread;
+  }
+
+  int hostCount() {
+    return hosts.size();
+  }
+
+  int hostIndex(String host) {
+    Integer index = hostIndex.get(host);
+    if (index == null) {
+      throw new IllegalArgumentException("Unknown host " + host);
+    }
+    return index;
+  }
+
+  String host(int index) {
+    return hosts.get(index);
+  }
+
+  int dataCenterCount() {
+    return dcs.size();
+  }
+
+  int dataCenter(int host) {
+    return hostDcIndex[host];
+  }
+
+  String dataCenterName(int dc) {
+    return dcs.get(dc);
+  }
+
+  int replicationFactor(int dc) {
+    Integer rf = replication.get(dcs.get(dc));
+    return rf == null ? 0 : rf;
+  }
+
+  BigInteger minToken() {
+    return minToken;
+  }
+
+  double ringSize() {
+    return ringSize;
+  }
+
+  double position(BigInteger token) {
+    return token.subtract(minToken).doubleValue();
+  }
+
+  /**
+   * Finds the replicas of a range of a data center's ring, reusing its buffers from walk to walk
+   */
+  class ReplicaWalk {
+    private final int rf;
+    private final int racks;
+    private final int[] skipped;
+    private final boolean[] seenRacks;
+    // Hosts already looked at are marked with the number of the walk
+    private final int[] visited;
+    private int stamp;
+
+    // The replicas found by the last walk
+    final int[] replicas;
+    int count;
+    // The number of tokens the last walk looked at
+    int steps;
+
+    ReplicaWalk(int dc, int rf) {
+      this.rf = rf;
+      this.racks = dcRackCount[dc];
+      this.replicas = new int[rf];
+      this.skipped = new int[hosts.size()];
+      this.seenRacks = new boolean[racks];
+      this.visited = new int[hosts.size()];
+    }
+
+    /**
+     * @param owners the host owning each token of the data center, in ring order
+     * @param start the token ending the range
+     */
+    void walk(int[] owners, int start) {
+      for (int i = 0; i < count; i++) {
+        seenRacks[hostRackIndex[replicas[i]]] = false;
+      }
+      stamp++;
+      count = 0;
+      steps = 0;
+      int seen = 0;
+      int skippedCount = 0;
+      while (steps < owners.length && count < rf) {
+        int host = owners[(start + steps) % owners.length];
+        steps++;
+        if (visited[host] == stamp) {
+          continue;
+        }
+        visited[host] = stamp;
+        int rack = hostRackIndex[host];
+        if (seen < racks && seenRacks[rack]) {
+          skipped[skippedCount++] = host;
+          continue;
+        }
+        replicas[count++] = host;
+        if (!seenRacks[rack]) {
+          seenRacks[rack] = true;
+          seen++;
+        }
+        // Once every rack has a replica, the nodes skipped so far are next in line
+        if (seen == racks) {
+          for (int i = 0; i < skippedCount && count < rf; i++) {
+            replicas[count++] = skipped[i];
+          }
+          skippedCount = 0;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.autobalance;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Estimates how much data a node has to stream in to take over a range of a data center's ring.
+ *
+ * A node's load is the data of every range it holds a replica of, not only of its primary range, so
+ * its data is assumed spread evenly over the ranges it replicates. Replicas are placed by
+ * {@link ReplicatedOwnership} when given; otherwise every node is assumed to hold only its primary
+ * range, which overstates the data of each range by about the replication factor. The data of a range
+ * is the average of what its replicas hold of it, and a node streams the parts of a range it doesn't
+ * replicate already.
+ */
+public class StreamingCost {
+  private final BigInteger minToken;
+  private final double ringSize;
+  // The start (exclusive) and end (inclusive) of every range of the ring, relative to minToken, its
+  // replicas, and the bytes per token a copy of it holds
+  private final List<double[]> ranges = new ArrayList<double[]>();
+  private final List<Set<String>> replicas = new ArrayList<Set<String>>();
+  private final List<Double> densities = new ArrayList<Double>();
+
+  /**
+   * Assumes every node only stores its primary range
+   *
+   * @param tokens the current token of every node of the data center
+   * @param loads the bytes stored by every node of the data center
+   */
+  public StreamingCost(Map<String, BigInteger> tokens, Map<String, Long> loads, BigInteger minToken, BigInteger maxToken) {
+    this.minToken = minToken;
+    this.ringSize = maxToken.subtract(minToken).doubleValue();
+    TreeMap<BigInteger, Set<String>> primaryReplicas = new TreeMap<BigInteger, Set<String>>();
+    for (Map.Entry<String, BigInteger> entry : tokens.entrySet()) {
+      primaryReplicas.put(entry.getValue(), Collections.singleton(entry.getKey()));
+    }
+    init(primaryReplicas, loads);
+  }
+
+  /**
+   * @param tokens the current token of every node of the data center
+   * @param loads the bytes stored by every node of the data center
+   * @param ownership places the replicas of every range
+   */
+  public StreamingCost(Map<String, BigInteger> tokens, Map<String, Long> loads, ReplicatedOwnership ownership,
+                       String dataCenter) {
+    this.minToken = ownership.minToken();
+    this.ringSize = ownership.ringSize();
+    init(ownership.replicaSets(tokens, dataCenter), loads);
+  }
+
+  /**
+   * @param rangeReplicas the replicas of the range ending at each token
+   */
+  private void init(TreeMap<BigInteger, Set<String>> rangeReplicas, Map<String, Long> loads) {
+    List<BigInteger> ends = new ArrayList<BigInteger>(rangeReplicas.keySet());
+    Map<String, Double> replicated = new HashMap<String, Double>();
+    for (int i = 0; i < ends.size(); i++) {
+      double start = position(ends.get((i + ends.size() - 1) % ends.size()));
+      double end = position(ends.get(i));
+      ranges.add(new double[] {start, end});
+      replicas.add(rangeReplicas.get(ends.get(i)));
+      for (String host : rangeReplicas.get(ends.get(i))) {
+        Double size = replicated.get(host);
+        replicated.put(host, (size == null ? 0 : size) + length(start, end));
+      }
+    }
+
+    Map<String, Double> hostDensities = new HashMap<String, Double>();
+    for (Map.Entry<String, Double> entry : replicated.entrySet()) {
+      Long load = loads.get(entry.getKey());
+      hostDensities.put(entry.getKey(), entry.getValue() == 0 || load == null ? 0 : load / entry.getValue());
+    }
+    for (Set<String> rangeHosts : replicas) {
+      double density = 0;
+      for (String host : rangeHosts) {
+        density += hostDensities.get(host) / rangeHosts.size();
+      }
+      densities.add(density);
+    }
+  }
+
+  /**
+   * @return the bytes the host would have to stream in to own the range (start, end]
+   */
+  public long streamed(String host, BigInteger start, BigInteger end) {
+    double from = position(start);
+    double to = position(end);
+    double bytes = 0;
+    for (int i = 0; i < ranges.size(); i++) {
+      if (!replicas.get(i).contains(host)) {
+        bytes += overlap(from, to, ranges.get(i)[0], ranges.get(i)[1]) * densities.get(i);
+      }
+    }
+    return (long) bytes;
+  }
+
+  private double position(BigInteger token) {
+    return token.subtract(minToken).doubleValue();
+  }
+
+  /**
+   * @return the length of the range (start, end] of the ring, which wraps around if end <= start
+   */
+  private double length(double start, double end) {
+    return end > start ? end - start : end - start + ringSize;
+  }
+
+  private double overlap(double start1, double end1, double start2, double end2) {
+    double overlap = 0;
+    for (double[] a : split(start1, end1)) {
+      for (double[] b : split(start2, end2)) {
+        overlap += Math.max(0, Math.min(a[1], b[1]) - Math.max(a[0], b[0]));
+      }
+    }
+    return overlap;
+  }
+
+  /**
+   * Splits a range that wraps around into the parts before and after the end of the ring
+   */
+  private double[][] split(double start, double end) {
+    if (end > start) {
+      return new double[][] {{start, end}};
+    }
+    return new double[][] {{start, ringSize}, {0, end}};
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.autobalance;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans which vnode tokens should change owner so that the replicated ownership of the nodes of each
+ * data center ends up within a target spread.
+ *
+ * Tokens keep their place in the ring. A step swaps a token of one of the most owning nodes with a
+ * token of one of the least owning nodes of the same data center, so every node keeps its number of
+ * tokens. Ownership is kept up to date by an {@link OwnershipRing}, so a step costs the same however
+ * many tokens there are.
+ */
+public class VnodePlanner {
+  // The number of most and least owning nodes to try swaps between, and of tokens to try per node
+  private static final int CANDIDATE_NODES = 3;
+  private static final int CANDIDATE_TOKENS = 32;
+
+  private final ReplicatedOwnership ownership;
+  private final Map<String, ? extends Collection<BigInteger>> tokens;
+  private final double targetSpread;
+  private final int maxSwaps;
+
+  /**
+   * @param tokens all the tokens of every node
+   * @param targetSpread the spread of replicated ownership to reach in every data center, as defined
+   *     by {@link ReplicatedOwnership#spread}
+   * @param maxSwaps the most swaps to make in each data center
+   */
+  public VnodePlanner(ReplicatedOwnership ownership, Map<String, ? extends Collection<BigInteger>> tokens,
+                      double targetSpread, int maxSwaps) {
+    this.ownership = ownership;
+    this.tokens = tokens;
+    this.targetSpread = targetSpread;
+    this.maxSwaps = maxSwaps;
+  }
+
+  /**
+   * @return the tokens that should change owner, ordered by data center and token
+   */
+  public List<Change> plan() {
+    List<Change> changes = new ArrayList<Change>();
+    for (int dc = 0; dc < ownership.dataCenterCount(); dc++) {
+      if (ownership.replicationFactor(dc) > 0) {
+        Ring ring = new Ring(dc);
+        if (ring.size() > 0) {
+          ring.balance();
+          changes.addAll(ring.changes());
+        }
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * @return the tokens of every node once the changes are made
+   */
+  public Map<String, List<BigInteger>> apply(List<Change> changes) {
+    Map<String, List<BigInteger>> newTokens = new HashMap<String, List<BigInteger>>();
+    for (Map.Entry<String, ? extends Collection<BigInteger>> entry : tokens.entrySet()) {
+      newTokens.put(entry.getKey(), new ArrayList<BigInteger>(entry.getValue()));
+    }
+    for (Change change : changes) {
+      newTokens.get(change.from).remove(change.token);
+      newTokens.get(change.to).add(change.token);
+    }
+    for (List<BigInteger> hostTokens : newTokens.values()) {
+      Collections.sort(hostTokens);
+    }
+    return newTokens;
+  }
+
+  public static class Change {
+    public final BigInteger token;
+    public final String from;
+    public final String to;
+
+    private Change(BigInteger token, String from, String to) {
+      this.token = token;
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+  /**
+   * Balances the ownership of the nodes of one data center
+   */
+  private class Ring {
+    private final OwnershipRing ring;
+
+    Ring(int dc) {
+      ring = new OwnershipRing(ownership, dc, tokens);
+    }
+
+    int size() {
+      return ring.size();
+    }
+
+    void balance() {
+      for (int swaps = 0; swaps < maxSwaps && ring.spread() > targetSpread; swaps++) {
+        if (!improve()) {
+          break;
+        }
+      }
+    }
+
+    /**
+     * Makes the swap between the most and least owning nodes that evens out ownership the most
+     *
+     * @return false if no such swap helps
+     */
+    private boolean improve() {
+      List<Integer> byOwnership = new ArrayList<Integer>(ring.hosts);
+      Collections.sort(byOwnership, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Double.compare(ring.owned[a], ring.owned[b]);
+        }
+      });
+
+      double best = ring.sumOfSquares() * (1 - 1e-9);
+      int bestFrom = -1, bestTo = -1;
+      int nodes = Math.min(CANDIDATE_NODES, byOwnership.size() / 2);
+      for (int m = 0; m < nodes; m++) {
+        int most = byOwnership.get(byOwnership.size() - 1 - m);
+        for (int l = 0; l < nodes; l++) {
+          int least = byOwnership.get(l);
+          for (int[] candidate : candidates(most, least)) {
+            double after = ring.swap(candidate[0], candidate[1]);
+            ring.swap(candidate[0], candidate[1]);
+            if (after < best) {
+              best = after;
+              bestFrom = candidate[0];
+              bestTo = candidate[1];
+            }
+          }
+        }
+      }
+
+      if (bestFrom < 0) {
+        return false;
+      }
+      ring.swap(bestFrom, bestTo);
+      return true;
+    }
+
+    /**
+     * Pairs the largest ranges of the most owning node with the ranges of the least owning node that
+     * are smaller by about the ownership that should change hands
+     */
+    private List<int[]> candidates(int most, int least) {
+      Integer[] mostTokens = byRange(ring.hostTokens.get(most));
+      Integer[] leastTokens = byRange(ring.hostTokens.get(least));
+      double[] leastRanges = new double[leastTokens.length];
+      for (int i = 0; i < leastTokens.length; i++) {
+        leastRanges[i] = ring.ranges[leastTokens[i]];
+      }
+
+      // Owning a token makes a node a replica of about rf ranges of that size
+      double difference = (ring.owned[most] - ring.owned[least]) / 2 / ring.rf;
+      List<int[]> candidates = new ArrayList<int[]>();
+      for (int i = mostTokens.length - 1; i >= Math.max(0, mostTokens.length - CANDIDATE_TOKENS); i--) {
+        int index = Arrays.binarySearch(leastRanges, ring.ranges[mostTokens[i]] - difference);
+        int insertion = index >= 0 ? index : -index - 1;
+        for (int j = insertion - 1; j <= insertion; j++) {
+          if (j >= 0 && j < leastTokens.length) {
+            candidates.add(new int[] {mostTokens[i], leastTokens[j]});
+          }
+        }
+      }
+      return candidates;
+    }
+
+    private Integer[] byRange(List<Integer> indexes) {
+      Integer[] sorted = indexes.toArray(new Integer[indexes.size()]);
+      Arrays.sort(sorted, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Double.compare(ring.ranges[a], ring.ranges[b]);
+        }
+      });
+      return sorted;
+    }
+
+    List<Change> changes() {
+      List<Change> changes = new ArrayList<Change>();
+      for (int i = 0; i < ring.size(); i++) {
+        if (ring.owners[i] != ring.originalOwners[i]) {
+          changes.add(new Change(ring.ringTokens[i], ownership.host(ring.originalOwners[i]), ownership.host(ring.owners[i])));
+        }
+      }
+      return changes;
+    }
+  }
+}
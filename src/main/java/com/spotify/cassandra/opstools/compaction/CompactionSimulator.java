@@ -0,0 +1,114 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.compaction;
+
+import com.spotify.cassandra.opstools.TokenOverlap;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replays the compactions a strategy would do on the sstables of a column family, keeping track of
+ * how much data gets rewritten
+ */
+public class CompactionSimulator {
+  private final CompactionStrategy strategy;
+  private final List<SimulatedSSTable> sstables = new ArrayList<SimulatedSSTable>();
+  private int compactions;
+  private long bytesAdded;
+  private long bytesRead;
+  private long bytesWritten;
+
+  public CompactionSimulator(CompactionStrategy strategy) {
+    this.strategy = strategy;
+  }
+
+  /**
+   * Adds an sstable, as if it had been flushed or streamed in
+   */
+  public void add(SimulatedSSTable sstable) {
+    sstables.add(sstable);
+    bytesAdded += sstable.size;
+  }
+
+  /**
+   * Compacts until the strategy finds nothing more to compact
+   *
+   * @param out prints every compaction, unless null
+   */
+  public void compact(PrintStream out) {
+    List<SimulatedSSTable> compacting;
+    while ((compacting = strategy.nextCompaction(sstables)).size() > 1) {
+      SimulatedSSTable compacted = SimulatedSSTable.compact("compacted-" + (compactions + 1), compacting);
+      long read = 0;
+      for (SimulatedSSTable sstable : compacting) {
+        read += sstable.size;
+      }
+      if (out != null) {
+        out.printf("Compacting %s (%d bytes) into %s (%d bytes)%n", compacting, read, compacted, compacted.size);
+      }
+
+      sstables.removeAll(compacting);
+      sstables.add(compacted);
+      compactions++;
+      bytesRead += read;
+      bytesWritten += compacted.size;
+    }
+  }
+
+  public List<SimulatedSSTable> sstables() {
+    return Collections.unmodifiableList(sstables);
+  }
+
+  public int compactions() {
+    return compactions;
+  }
+
+  public long bytesAdded() {
+    return bytesAdded;
+  }
+
+  public long bytesRead() {
+    return bytesRead;
+  }
+
+  public long bytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * @return the bytes written by flushes and compactions for every byte flushed
+   */
+  public double writeAmplification() {
+    return bytesAdded == 0 ? 0 : (double) (bytesAdded + bytesWritten) / bytesAdded;
+  }
+
+  /**
+   * @return how many of the current sstables cover each part of the token ring
+   */
+  public TokenOverlap overlap(IPartitioner<?> partitioner) {
+    List<Token<?>> firstTokens = new ArrayList<Token<?>>(sstables.size());
+    List<Token<?>> lastTokens = new ArrayList<Token<?>>(sstables.size());
+    for (SimulatedSSTable sstable : sstables) {
+      firstTokens.add(sstable.first);
+      lastTokens.add(sstable.last);
+    }
+    return new TokenOverlap(partitioner, firstTokens, lastTokens);
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.compaction;
+
+import java.util.List;
+
+/**
+ * Picks the sstables to compact next, the way one of Cassandra's compaction strategies does
+ */
+public interface CompactionStrategy {
+
+  /**
+   * @param sstables all sstables of the column family
+   * @return the sstables to compact together, or an empty list when nothing needs compacting
+   */
+  List<SimulatedSSTable> nextCompaction(List<SimulatedSSTable> sstables);
+}
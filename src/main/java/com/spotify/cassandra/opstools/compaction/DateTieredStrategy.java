@@ -0,0 +1,140 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.compaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buckets sstables into time windows like DateTieredCompactionStrategy. Windows are base_time_seconds
+ * long for the newest data and grow by a factor min_threshold as data gets older, and "now" is the
+ * newest timestamp of all sstables.
+ */
+public class DateTieredStrategy implements CompactionStrategy {
+  private final int minThreshold;
+  private final int maxThreshold;
+  private final TimeUnit timestampResolution;
+  private final long baseTime;
+  private final long maxSSTableAge;
+
+  /**
+   * @param options the compaction options of the column family, using Cassandra's names and defaults
+   */
+  public DateTieredStrategy(Map<String, String> options) {
+    minThreshold = StrategyOptions.intOption(options, "min_threshold", 4);
+    maxThreshold = StrategyOptions.intOption(options, "max_threshold", 32);
+    timestampResolution = TimeUnit.valueOf(options.containsKey("timestamp_resolution")
+                                           ? options.get("timestamp_resolution") : "MICROSECONDS");
+    baseTime = timestampResolution.convert(StrategyOptions.longOption(options, "base_time_seconds", 3600), TimeUnit.SECONDS);
+    maxSSTableAge = timestampResolution.convert(StrategyOptions.longOption(options, "max_sstable_age_days", 365), TimeUnit.DAYS);
+    if (minThreshold < 2 || maxThreshold < minThreshold) {
+      throw new IllegalArgumentException("min_threshold must be at least 2 and at most max_threshold");
+    }
+    if (baseTime <= 0) {
+      throw new IllegalArgumentException("base_time_seconds must be positive");
+    }
+  }
+
+  @Override
+  public List<SimulatedSSTable> nextCompaction(List<SimulatedSSTable> sstables) {
+    if (sstables.isEmpty()) {
+      return new ArrayList<SimulatedSSTable>();
+    }
+    long now = Long.MIN_VALUE;
+    for (SimulatedSSTable sstable : sstables) {
+      now = Math.max(now, sstable.maxTimestamp);
+    }
+
+    // Sstables whose newest data is older than max_sstable_age_days are never compacted again
+    List<SimulatedSSTable> candidates = new ArrayList<SimulatedSSTable>();
+    for (SimulatedSSTable sstable : sstables) {
+      if (sstable.maxTimestamp >= now - maxSSTableAge) {
+        candidates.add(sstable);
+      }
+    }
+
+    for (List<SimulatedSSTable> bucket : buckets(candidates, baseTime, minThreshold, now)) {
+      if (bucket.size() >= minThreshold) {
+        return trimToThreshold(bucket, maxThreshold);
+      }
+    }
+    return new ArrayList<SimulatedSSTable>();
+  }
+
+  /**
+   * Groups sstables by the time window their minimum timestamp falls in, newest window first
+   */
+  static List<List<SimulatedSSTable>> buckets(List<SimulatedSSTable> sstables, long timeUnit, int base, long now) {
+    List<SimulatedSSTable> sorted = new ArrayList<SimulatedSSTable>(sstables);
+    Collections.sort(sorted, new Comparator<SimulatedSSTable>() {
+      @Override
+      public int compare(SimulatedSSTable a, SimulatedSSTable b) {
+        return Long.compare(b.minTimestamp, a.minTimestamp);
+      }
+    });
+
+    List<List<SimulatedSSTable>> buckets = new ArrayList<List<SimulatedSSTable>>();
+    // The current window is [position * size, (position + 1) * size)
+    long size = timeUnit;
+    long position = now / timeUnit;
+    int i = 0;
+    while (i < sorted.size()) {
+      long windowOf = sorted.get(i).minTimestamp / size;
+      if (windowOf > position) {
+        // Newer than the current window, which only happens for the first one
+        i++;
+        continue;
+      }
+      if (windowOf < position) {
+        // Older, move to the previous window, which is base times larger at every base windows
+        if (position % base > 0) {
+          position--;
+        } else {
+          size *= base;
+          position = position / base - 1;
+        }
+        continue;
+      }
+      List<SimulatedSSTable> bucket = new ArrayList<SimulatedSSTable>();
+      while (i < sorted.size() && sorted.get(i).minTimestamp / size == position) {
+        bucket.add(sorted.get(i++));
+      }
+      buckets.add(bucket);
+    }
+    return buckets;
+  }
+
+  private static List<SimulatedSSTable> trimToThreshold(List<SimulatedSSTable> bucket, int maxThreshold) {
+    List<SimulatedSSTable> bySize = new ArrayList<SimulatedSSTable>(bucket);
+    Collections.sort(bySize, new Comparator<SimulatedSSTable>() {
+      @Override
+      public int compare(SimulatedSSTable a, SimulatedSSTable b) {
+        return Long.compare(a.size, b.size);
+      }
+    });
+    return new ArrayList<SimulatedSSTable>(bySize.subList(0, Math.min(bySize.size(), maxThreshold)));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DateTieredCompactionStrategy {min_threshold=%d, max_threshold=%d, timestamp_resolution=%s, " +
+                         "base_time_seconds=%d, max_sstable_age_days=%d}",
+                         minThreshold, maxThreshold, timestampResolution,
+                         timestampResolution.toSeconds(baseTime), timestampResolution.toDays(maxSSTableAge));
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.compaction;
+
+import org.apache.cassandra.dht.Token;
+
+import java.util.List;
+
+/**
+ * The metadata of an sstable that compaction strategies base their decisions on
+ */
+public class SimulatedSSTable {
+  public final String name;
+  public final long size;
+  public final long droppableBytes;
+  public final long minTimestamp;
+  public final long maxTimestamp;
+  public final Token<?> first;
+  public final Token<?> last;
+
+  public SimulatedSSTable(String name, long size, long droppableBytes, long minTimestamp, long maxTimestamp,
+                          Token<?> first, Token<?> last) {
+    this.name = name;
+    this.size = size;
+    this.droppableBytes = droppableBytes;
+    this.minTimestamp = minTimestamp;
+    this.maxTimestamp = maxTimestamp;
+    this.first = first;
+    this.last = last;
+  }
+
+  /**
+   * Estimates the sstable written by compacting the given sstables. Partitions are assumed not to
+   * overlap between them, so only the droppable tombstones make the result smaller than the sum of
+   * their sizes.
+   */
+  static SimulatedSSTable compact(String name, List<SimulatedSSTable> sstables) {
+    long size = 0;
+    long minTimestamp = Long.MAX_VALUE;
+    long maxTimestamp = Long.MIN_VALUE;
+    Token<?> first = null;
+    Token<?> last = null;
+    for (SimulatedSSTable sstable : sstables) {
+      size += sstable.size - sstable.droppableBytes;
+      minTimestamp = Math.min(minTimestamp, sstable.minTimestamp);
+      maxTimestamp = Math.max(maxTimestamp, sstable.maxTimestamp);
+      if (first == null || compare(sstable.first, first) < 0) {
+        first = sstable.first;
+      }
+      if (last == null || compare(sstable.last, last) > 0) {
+        last = sstable.last;
+      }
+    }
+    return new SimulatedSSTable(name, size, 0, minTimestamp, maxTimestamp, first, last);
+  }
+
+  // The sstables of a simulation all come from one partitioner, so their tokens have the same type
+  @SuppressWarnings("unchecked")
+  private static int compare(Token<?> a, Token<?> b) {
+    return ((Token<Object>) a).compareTo((Token<Object>) b);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
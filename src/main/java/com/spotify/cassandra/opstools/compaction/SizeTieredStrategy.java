@@ -0,0 +1,85 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.compaction;
+
+import org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy;
+import org.apache.cassandra.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buckets sstables of similar size together like SizeTieredCompactionStrategy. Without read
+ * statistics all sstables are equally hot, so the bucket with the smallest sstables is compacted first.
+ */
+public class SizeTieredStrategy implements CompactionStrategy {
+  private final int minThreshold;
+  private final int maxThreshold;
+  private final double bucketLow;
+  private final double bucketHigh;
+  private final long minSSTableSize;
+
+  /**
+   * @param options the compaction options of the column family, using Cassandra's names and defaults
+   */
+  public SizeTieredStrategy(Map<String, String> options) {
+    minThreshold = StrategyOptions.intOption(options, "min_threshold", 4);
+    maxThreshold = StrategyOptions.intOption(options, "max_threshold", 32);
+    bucketLow = StrategyOptions.doubleOption(options, "bucket_low", 0.5);
+    bucketHigh = StrategyOptions.doubleOption(options, "bucket_high", 1.5);
+    minSSTableSize = StrategyOptions.longOption(options, "min_sstable_size", 50L * 1024 * 1024);
+    if (minThreshold < 2 || maxThreshold < minThreshold) {
+      throw new IllegalArgumentException("min_threshold must be at least 2 and at most max_threshold");
+    }
+    if (bucketLow >= bucketHigh) {
+      throw new IllegalArgumentException("bucket_low must be less than bucket_high");
+    }
+  }
+
+  @Override
+  public List<SimulatedSSTable> nextCompaction(List<SimulatedSSTable> sstables) {
+    List<Pair<SimulatedSSTable, Long>> sizes = new ArrayList<Pair<SimulatedSSTable, Long>>(sstables.size());
+    for (SimulatedSSTable sstable : sstables) {
+      sizes.add(Pair.create(sstable, sstable.size));
+    }
+
+    List<SimulatedSSTable> smallest = Collections.emptyList();
+    long smallestAverage = Long.MAX_VALUE;
+    for (List<SimulatedSSTable> bucket : SizeTieredCompactionStrategy.getBuckets(sizes, bucketHigh, bucketLow,
+                                                                                   minSSTableSize)) {
+      if (bucket.size() < minThreshold) {
+        continue;
+      }
+      List<SimulatedSSTable> trimmed = bucket.subList(0, Math.min(bucket.size(), maxThreshold));
+      long total = 0;
+      for (SimulatedSSTable sstable : trimmed) {
+        total += sstable.size;
+      }
+      if (total / trimmed.size() < smallestAverage) {
+        smallest = trimmed;
+        smallestAverage = total / trimmed.size();
+      }
+    }
+    return new ArrayList<SimulatedSSTable>(smallest);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SizeTieredCompactionStrategy {min_threshold=%d, max_threshold=%d, bucket_low=%s, " +
+                         "bucket_high=%s, min_sstable_size=%d}",
+                         minThreshold, maxThreshold, bucketLow, bucketHigh, minSSTableSize);
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.compaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates compaction strategies from their names and options
+ */
+public class StrategyOptions {
+
+  private StrategyOptions() {
+  }
+
+  /**
+   * @param strategy SizeTieredCompactionStrategy or DateTieredCompactionStrategy, or their initials
+   * @param options written like the compaction map of a CQL table, e.g. "min_threshold=4,bucket_high=2"
+   */
+  public static CompactionStrategy create(String strategy, String options) {
+    Map<String, String> parsed = parse(options);
+    if (strategy.equalsIgnoreCase("SizeTieredCompactionStrategy") || strategy.equalsIgnoreCase("stcs")) {
+      return new SizeTieredStrategy(parsed);
+    }
+    if (strategy.equalsIgnoreCase("DateTieredCompactionStrategy") || strategy.equalsIgnoreCase("dtcs")) {
+      return new DateTieredStrategy(parsed);
+    }
+    throw new IllegalArgumentException("Unknown compaction strategy " + strategy);
+  }
+
+  static Map<String, String> parse(String options) {
+    Map<String, String> parsed = new HashMap<String, String>();
+    if (options == null || options.trim().isEmpty()) {
+      return parsed;
+    }
+    for (String option : options.split(",")) {
+      String[] keyValue = option.split("=", 2);
+      if (keyValue.length != 2) {
+        throw new IllegalArgumentException("Compaction options must be written as name=value: " + option);
+      }
+      parsed.put(keyValue[0].trim(), keyValue[1].trim());
+    }
+    return parsed;
+  }
+
+  static int intOption(Map<String, String> options, String name, int defaultValue) {
+    return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+  }
+
+  static long longOption(Map<String, String> options, String name, long defaultValue) {
+    return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+  }
+
+  static double doubleOption(Map<String, String> options, String name, double defaultValue) {
+    return options.containsKey(name) ? Double.parseDouble(options.get(name)) : defaultValue;
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.exporter;
+
+import com.google.common.base.Charsets;
+import com.spotify.cassandra.opstools.JmxConnections;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects metrics on a schedule and serves the latest ones over HTTP, so that scrapes never wait
+ * for JMX
+ */
+public class MetricsExporter {
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final Map<String, Collector> collectors;
+  private final JmxConnections connections;
+  private final String host;
+  private final Map<String, Long> errors = new LinkedHashMap<String, Long>();
+  private volatile byte[] response = new byte[0];
+
+  /**
+   * @param collectors collectors by name, all reading from the given host
+   */
+  public MetricsExporter(Map<String, Collector> collectors, JmxConnections connections, String host) {
+    this.collectors = collectors;
+    this.connections = connections;
+    this.host = host;
+    for (String name : collectors.keySet()) {
+      errors.put(name, 0L);
+    }
+  }
+
+  /**
+   * Runs all collectors and replaces the response served. A failing collector leaves its metrics out
+   * until it succeeds again.
+   */
+  public synchronized void collect() {
+    MetricsWriter writer = new MetricsWriter();
+    Map<String, Boolean> succeeded = new LinkedHashMap<String, Boolean>();
+    Map<String, Long> durations = new LinkedHashMap<String, Long>();
+    for (Map.Entry<String, Collector> collector : collectors.entrySet()) {
+      long start = System.nanoTime();
+      MetricsWriter collected = new MetricsWriter();
+      try {
+        collector.getValue().collect(collected);
+        writer.append(collected);
+        succeeded.put(collector.getKey(), true);
+      } catch (Exception e) {
+        // Proxies wrap the IOExceptions of broken connections in UndeclaredThrowableExceptions
+        System.err.printf("Failed to collect %s metrics: %s%n", collector.getKey(), e);
+        errors.put(collector.getKey(), errors.get(collector.getKey()) + 1);
+        succeeded.put(collector.getKey(), false);
+        try {
+          connections.evict(host);
+        } catch (IOException closing) {
+          // The connection is broken anyway
+        }
+      }
+      durations.put(collector.getKey(), System.nanoTime() - start);
+    }
+
+    writer.family("opstools_collector_success", "gauge", "Whether the collector succeeded the last time it ran");
+    for (Map.Entry<String, Boolean> success : succeeded.entrySet()) {
+      writer.sample("opstools_collector_success", success.getValue() ? 1 : 0, "collector", success.getKey());
+    }
+    writer.family("opstools_collector_duration_seconds", "gauge", "How long the collector took the last time it ran");
+    for (Map.Entry<String, Long> duration : durations.entrySet()) {
+      writer.sample("opstools_collector_duration_seconds", duration.getValue() / 1e9, "collector", duration.getKey());
+    }
+    writer.family("opstools_collector_errors_total", "counter", "How many times the collector has failed");
+    for (Map.Entry<String, Long> error : errors.entrySet()) {
+      writer.sample("opstools_collector_errors_total", error.getValue(), "collector", error.getKey());
+    }
+    writer.family("opstools_last_collection_timestamp_seconds", "gauge", "When the metrics were collected");
+    writer.sample("opstools_last_collection_timestamp_seconds", System.currentTimeMillis() / 1000.0);
+
+    response = writer.toString().getBytes(Charsets.UTF_8);
+  }
+
+  /**
+   * @return the metrics of the last collection, in the Prometheus text format
+   */
+  public byte[] response() {
+    return response;
+  }
+
+  /**
+   * Serves the metrics on /metrics
+   */
+  public HttpServer serve(InetSocketAddress address) throws IOException {
+    HttpServer server = HttpServer.create(address, 0);
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          byte[] body = response;
+          exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+          if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+          }
+          exchange.sendResponseHeaders(200, body.length);
+          OutputStream out = exchange.getResponseBody();
+          out.write(body);
+          out.close();
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  public static void main(String[] args) throws IOException, ParseException {
+    String usage = String.format("Usage: %s [-h <host>] [-l [<address>:]<port>] [-i <seconds>] [-c <collector>,...]%n",
+                                 MetricsExporter.class.getName());
+
+    final Options options = new Options();
+    options.addOption("h", "host", true, "Cassandra host to collect metrics from (default: localhost)");
+    options.addOption("l", "listen", true, "Address and port to serve the metrics on (default: 127.0.0.1:7198)");
+    options.addOption("i", "interval", true, "Seconds between collections (default: 30)");
+    options.addOption("c", "collectors", true, "Collectors to run, out of snitch and threadpools (default: all)");
+    JmxConnections.addOptions(options);
+
+    CommandLineParser parser = new BasicParser();
+    CommandLine cmd = parser.parse(options, args);
+
+    String host = cmd.hasOption("h") ? cmd.getOptionValue("h") : "localhost";
+    String listen = cmd.hasOption("l") ? cmd.getOptionValue("l") : "127.0.0.1:7198";
+    int colon = listen.lastIndexOf(':');
+    InetSocketAddress address = colon < 0 ? new InetSocketAddress(Integer.parseInt(listen))
+        : new InetSocketAddress(listen.substring(0, colon), Integer.parseInt(listen.substring(colon + 1)));
+    long interval = cmd.hasOption("i") ? Long.parseLong(cmd.getOptionValue("i")) : 30;
+    List<String> enabled = Arrays.asList((cmd.hasOption("c") ? cmd.getOptionValue("c") : "snitch,threadpools").split(","));
+
+    JmxConnections connections = JmxConnections.fromCommandLine(cmd);
+    Map<String, Collector> collectors = new LinkedHashMap<String, Collector>();
+    for (String name : enabled) {
+      if (name.equals("snitch")) {
+        collectors.put(name, new SnitchCollector(connections, host));
+      } else if (name.equals("threadpools")) {
+        collectors.put(name, new ThreadPoolCollector(connections, host));
+      } else {
+        System.err.println("Unknown collector " + name);
+        System.err.println(usage);
+        System.exit(1);
+      }
+    }
+
+    final MetricsExporter exporter = new MetricsExporter(collectors, connections, host);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        exporter.collect();
+      }
+    }, 0, interval, TimeUnit.SECONDS);
+    exporter.serve(address);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.exporter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes metrics in the Prometheus text exposition format. All samples of a metric must be written
+ * right after its {@link #family}.
+ */
+public class MetricsWriter {
+  private final StringBuilder out = new StringBuilder();
+  private final Set<String> families = new HashSet<String>();
+
+  /**
+   * Declares a metric
+   *
+   * @param type counter, gauge or untyped
+   */
+  public MetricsWriter family(String name, String type, String help) {
+    if (!families.add(name)) {
+      throw new IllegalStateException("Metric " + name + " was already written");
+    }
+    out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    return this;
+  }
+
+  /**
+   * @param labels label names and values, alternating
+   */
+  public MetricsWriter sample(String name, double value, String... labels) {
+    out.append(name);
+    if (labels.length > 0) {
+      out.append('{');
+      for (int i = 0; i < labels.length; i += 2) {
+        if (i > 0) {
+          out.append(',');
+        }
+        out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+      }
+      out.append('}');
+    }
+    out.append(' ').append(format(value)).append('\n');
+    return this;
+  }
+
+  /**
+   * Adds the metrics of another writer, which must not declare the same metrics
+   */
+  public MetricsWriter append(MetricsWriter other) {
+    for (String family : other.families) {
+      if (!families.add(family)) {
+        throw new IllegalStateException("Metric " + family + " was already written");
+      }
+    }
+    out.append(other.out);
+    return this;
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String format(double value) {
+    if (Double.isNaN(value)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return String.valueOf((long) value);
+    }
+    return String.valueOf(value);
+  }
+
+  @Override
+  public String toString() {
+    return out.toString();
+  }
+}
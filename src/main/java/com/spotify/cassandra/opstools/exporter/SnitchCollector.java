@@ -0,0 +1,50 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.exporter;
+
+import com.spotify.cassandra.opstools.HostNames;
+import com.spotify.cassandra.opstools.JmxConnections;
+
+import org.apache.cassandra.locator.DynamicEndpointSnitchMBean;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Map;
+
+/**
+ * The dynamic snitch score the node has for each of its peers
+ */
+public class SnitchCollector implements Collector {
+  private static final String DSNITCH_PATTERN = "org.apache.cassandra.db:type=DynamicEndpointSnitch,*";
+
+  private final JmxConnections connections;
+  private final String host;
+  private final HostNames hostNames = new HostNames();
+
+  public SnitchCollector(JmxConnections connections, String host) {
+    this.connections = connections;
+    this.host = host;
+  }
+
+  @Override
+  public void collect(MetricsWriter writer) throws IOException {
+    Map<InetAddress, Double> scores =
+        connections.find(host, DSNITCH_PATTERN, DynamicEndpointSnitchMBean.class).getScores();
+    writer.family("cassandra_dynamic_snitch_score", "gauge", "Dynamic snitch score of each peer, higher is slower");
+    for (Map.Entry<InetAddress, Double> score : scores.entrySet()) {
+      writer.sample("cassandra_dynamic_snitch_score", score.getValue(),
+                    "peer", score.getKey().getHostAddress(), "peer_name", hostNames.get(score.getKey()));
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.exporter;
+
+import com.spotify.cassandra.opstools.JmxConnections;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * The tasks of Cassandra's thread pools, including the AntiEntropySessions, AntiEntropyStage and
+ * ValidationExecutor pools that show how repairs are doing. Each pool's attributes are read in one
+ * call.
+ */
+public class ThreadPoolCollector implements Collector {
+  private static final String[] PATTERNS = {"org.apache.cassandra.internal:type=*", "org.apache.cassandra.request:type=*"};
+  private static final String[] ATTRIBUTES = {"ActiveCount", "PendingTasks", "CompletedTasks", "CurrentlyBlockedTasks", "TotalBlockedTasks"};
+  private static final String[][] METRICS = {
+      {"cassandra_thread_pool_active_tasks", "gauge", "Tasks being run by the thread pool"},
+      {"cassandra_thread_pool_pending_tasks", "gauge", "Tasks waiting to be run by the thread pool"},
+      {"cassandra_thread_pool_completed_tasks_total", "counter", "Tasks completed by the thread pool"},
+      {"cassandra_thread_pool_blocked_tasks", "gauge", "Tasks blocked because the thread pool's queue is full"},
+      {"cassandra_thread_pool_blocked_tasks_total", "counter", "Tasks that have been blocked because the thread pool's queue was full"},
+  };
+
+  private final JmxConnections connections;
+  private final String host;
+
+  public ThreadPoolCollector(JmxConnections connections, String host) {
+    this.connections = connections;
+    this.host = host;
+  }
+
+  @Override
+  public void collect(MetricsWriter writer) throws IOException {
+    MBeanServerConnection connection = connections.connection(host);
+    List<Pool> pools = new ArrayList<Pool>();
+    for (String pattern : PATTERNS) {
+      List<ObjectName> names = new ArrayList<ObjectName>(connection.queryNames(objectName(pattern), null));
+      Collections.sort(names);
+      for (ObjectName name : names) {
+        AttributeList attributes;
+        try {
+          attributes = connection.getAttributes(name, ATTRIBUTES);
+        } catch (InstanceNotFoundException e) {
+          // The pool went away between listing and reading it
+          continue;
+        } catch (ReflectionException e) {
+          continue;
+        }
+        Pool pool = new Pool(name);
+        for (Attribute attribute : attributes.asList()) {
+          int i = Arrays.asList(ATTRIBUTES).indexOf(attribute.getName());
+          if (i >= 0 && attribute.getValue() instanceof Number) {
+            pool.values[i] = (Number) attribute.getValue();
+          }
+        }
+        pools.add(pool);
+      }
+    }
+
+    for (int i = 0; i < METRICS.length; i++) {
+      writer.family(METRICS[i][0], METRICS[i][1], METRICS[i][2]);
+      for (Pool pool : pools) {
+        if (pool.values[i] != null) {
+          writer.sample(METRICS[i][0], pool.values[i].doubleValue(), "pool", pool.name, "path", pool.path);
+        }
+      }
+    }
+  }
+
+  private static ObjectName objectName(String pattern) {
+    try {
+      return new ObjectName(pattern);
+    } catch (MalformedObjectNameException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static class Pool {
+    final String name;
+    // The last part of the MBean domain, e.g. internal or request
+    final String path;
+    final Number[] values = new Number[ATTRIBUTES.length];
+
+    Pool(ObjectName objectName) {
+      name = objectName.getKeyProperty("type");
+      path = objectName.getDomain().substring(objectName.getDomain().lastIndexOf('.') + 1);
+    }
+  }
+}
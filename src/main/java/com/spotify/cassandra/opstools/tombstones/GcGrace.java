@@ -0,0 +1,98 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.io.sstable.Descriptor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which tombstones a compaction at a given time could purge.
+ *
+ * A tombstone can be dropped once its local deletion time is more than gc_grace seconds in the past,
+ * but only if no sstable left out of the compaction may hold older data it shadows. Like Cassandra,
+ * any other sstable of the same column family with a minimum timestamp not newer than the tombstone
+ * blocks it; whether that sstable actually holds the partition isn't checked.
+ */
+public class GcGrace {
+  /** The reference time, in seconds */
+  public final int now;
+  /** Tombstones deleted before this time, in seconds, are past gc_grace */
+  public final int gcBefore;
+  private final Map<Descriptor, Long> maxPurgeableTimestamps;
+
+  /**
+   * @param minTimestamps the minimum timestamp of every sstable that could block tombstones
+   */
+  public GcGrace(int now, int gcGraceSeconds, Map<Descriptor, Long> minTimestamps) {
+    this.now = now;
+    this.gcBefore = now - gcGraceSeconds;
+    this.maxPurgeableTimestamps = maxPurgeableTimestamps(minTimestamps);
+  }
+
+  /**
+   * @return the timestamp below which tombstones of the given sstable aren't blocked by other sstables
+   */
+  public long maxPurgeableTimestamp(Descriptor desc) {
+    Long timestamp = maxPurgeableTimestamps.get(desc);
+    return timestamp != null ? timestamp : Long.MAX_VALUE;
+  }
+
+  /**
+   * Counts a tombstone if it is past gc_grace
+   *
+   * @param bytes the space taken by the tombstone in the data file
+   */
+  void tombstone(TombstoneCount partition, int localDeletionTime, long timestamp, long maxPurgeableTimestamp,
+                 long bytes) {
+    if (localDeletionTime < gcBefore) {
+      partition.droppable++;
+      if (timestamp >= maxPurgeableTimestamp) {
+        partition.blocked++;
+      } else {
+        partition.droppableBytes += bytes;
+      }
+    }
+  }
+
+  static Map<Descriptor, Long> maxPurgeableTimestamps(Map<Descriptor, Long> minTimestamps) {
+    // The two smallest minimum timestamps of each column family are enough: every sstable is blocked
+    // by the smallest one, except the sstable holding it, which is blocked by the second smallest
+    Map<String, long[]> smallest = new HashMap<String, long[]>();
+    for (Map.Entry<Descriptor, Long> entry : minTimestamps.entrySet()) {
+      String cf = entry.getKey().ksname + "/" + entry.getKey().cfname;
+      long[] timestamps = smallest.get(cf);
+      if (timestamps == null) {
+        timestamps = new long[] {Long.MAX_VALUE, Long.MAX_VALUE};
+        smallest.put(cf, timestamps);
+      }
+      long timestamp = entry.getValue();
+      if (timestamp < timestamps[0]) {
+        timestamps[1] = timestamps[0];
+        timestamps[0] = timestamp;
+      } else if (timestamp < timestamps[1]) {
+        timestamps[1] = timestamp;
+      }
+    }
+
+    Map<Descriptor, Long> maxPurgeable = new HashMap<Descriptor, Long>();
+    for (Map.Entry<Descriptor, Long> entry : minTimestamps.entrySet()) {
+      long[] timestamps = smallest.get(entry.getKey().ksname + "/" + entry.getKey().cfname);
+      // If several sstables share the smallest timestamp, the second smallest is the same
+      maxPurgeable.put(entry.getKey(), entry.getValue() == timestamps[0] ? timestamps[1] : timestamps[0]);
+    }
+    return maxPurgeable;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.db.Column;
+import org.apache.cassandra.db.DataRange;
+import org.apache.cassandra.db.DeletedColumn;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.ExpiringColumn;
+import org.apache.cassandra.db.OnDiskAtom;
+import org.apache.cassandra.db.RangeTombstone;
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.sstable.SSTableScanner;
+
+import java.io.IOException;
+
+/**
+ * Counts tombstones by deserializing every column through the regular sstable scanner.
+ *
+ * Cassandra turns expired cells into plain tombstones when reading them, so cells that had already
+ * expired when the scan started are counted as deleted cells rather than expired cells, and the
+ * space they would free is underestimated as that of a plain tombstone.
+ */
+public class IteratorTombstoneScanner implements TombstoneScanner {
+  private final ScanRate rate;
+  private final GcGrace gcGrace;
+
+  public IteratorTombstoneScanner() {
+    this(new ScanRate(0), null);
+  }
+
+  /**
+   * @param gcGrace counts droppable tombstones as of its reference time, unless null
+   */
+  public IteratorTombstoneScanner(ScanRate rate, GcGrace gcGrace) {
+    this.rate = rate;
+    this.gcGrace = gcGrace;
+  }
+
+  @Override
+  public void scan(SSTableReader reader, Range<Token> range, PartitionListener listener) throws IOException {
+    // Scanning a DataRange only seeks using the index summary, which unlike reader.getScanner(Range, RateLimiter)
+    // doesn't require the file cache settings from cassandra.yaml
+    SSTableScanner scanner = range == null ? reader.getScanner() : reader.getScanner(DataRange.forKeyRange(range));
+
+    long now = gcGrace != null ? gcGrace.now * 1000L : System.currentTimeMillis();
+    long maxPurgeableTimestamp = gcGrace != null ? gcGrace.maxPurgeableTimestamp(reader.descriptor) : 0;
+    TombstoneCount partition = new TombstoneCount();
+    // The scanner only seeks to the start of the range when reading the first partition
+    long position = -1;
+    try {
+      while (scanner.hasNext()) {
+        OnDiskAtomIterator row = scanner.next();
+        if (position < 0) {
+          position = scanner.getCurrentPosition();
+        }
+
+        partition.clear();
+        DeletionTime partitionDeletion = row.getColumnFamily().deletionInfo().getTopLevelDeletion();
+        if (!partitionDeletion.isLive()) {
+          partition.partitionDeletions++;
+          if (gcGrace != null) {
+            gcGrace.tombstone(partition, partitionDeletion.localDeletionTime, partitionDeletion.markedForDeleteAt,
+                              maxPurgeableTimestamp, 0);
+          }
+        }
+        while (row.hasNext()) {
+          OnDiskAtom column = row.next();
+          if (column instanceof RangeTombstone) {
+            partition.rangeTombstones++;
+            droppable(partition, column, column.getLocalDeletionTime(), maxPurgeableTimestamp);
+          } else if (column instanceof DeletedColumn) {
+            partition.deletedCells++;
+            droppable(partition, column, column.getLocalDeletionTime(), maxPurgeableTimestamp);
+          } else if (column instanceof ExpiringColumn && ((Column) column).isMarkedForDelete(now)) {
+            // Only cells expiring between now and the reference time are still read as expiring cells
+            partition.expiredCells++;
+            ExpiringColumn expired = (ExpiringColumn) column;
+            droppable(partition, column, expired.getLocalDeletionTime() - expired.getTimeToLive(),
+                      maxPurgeableTimestamp);
+          }
+          partition.columns++;
+        }
+
+        listener.partition(row.getKey().key, partition);
+        rate.scanned(reader, scanner.getCurrentPosition() - position);
+        position = scanner.getCurrentPosition();
+      }
+    } finally {
+      scanner.close();
+    }
+  }
+
+  private void droppable(TombstoneCount partition, OnDiskAtom tombstone, int localDeletionTime,
+                         long maxPurgeableTimestamp) {
+    if (gcGrace != null) {
+      gcGrace.tombstone(partition, localDeletionTime, tombstone.maxTimestamp(), maxPurgeableTimestamp,
+                        tombstone.serializedSizeForSSTable());
+    }
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the tombstone count of every partition scanned by a {@link TombstoneScanner}
+ */
+public interface PartitionListener {
+
+  /**
+   * @param key the partition key; only valid for the duration of the call
+   * @param partition the counts of the partition; only valid for the duration of the call
+   */
+  void partition(ByteBuffer key, TombstoneCount partition);
+}
@@ -0,0 +1,63 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits sstables into token ranges that can be scanned independently
+ */
+public class SSTableSplits {
+  private SSTableSplits() {
+  }
+
+  /**
+   * Splits the token range covered by an sstable into (at most) {@code splits} ranges containing
+   * roughly the same number of partitions, using the keys sampled in the index summary as boundaries.
+   */
+  public static List<Range<Token>> split(SSTableReader reader, int splits) {
+    Token<?> minimum = reader.partitioner.getMinimumToken();
+    int samples = reader.getKeySampleSize();
+
+    List<Range<Token>> ranges = new ArrayList<Range<Token>>();
+    Token<?> left = minimum;
+    for (int i = 1; i < splits; i++) {
+      int index = (int) ((long) samples * i / splits);
+      if (index >= samples) {
+        break;
+      }
+      Token<?> right = reader.partitioner.getToken(ByteBuffer.wrap(reader.getKeySample(index)));
+      // Index summary entries are sorted, but several may share a token; only keep strictly increasing bounds
+      if (compare(right, left) > 0) {
+        ranges.add(new Range<Token>(left, right, reader.partitioner));
+        left = right;
+      }
+    }
+    // A range ending at the minimum token wraps around to the end of the ring
+    ranges.add(new Range<Token>(left, minimum, reader.partitioner));
+    return ranges;
+  }
+
+  // The tokens of one sstable all come from its partitioner, so they have the same type
+  @SuppressWarnings("unchecked")
+  private static int compare(Token<?> a, Token<?> b) {
+    return ((Token<Object>) a).compareTo((Token<Object>) b);
+  }
+}
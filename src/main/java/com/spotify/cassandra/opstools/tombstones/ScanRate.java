@@ -0,0 +1,64 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate at which scanners read sstables, and counts the bytes read so far.
+ *
+ * Scanners report the uncompressed bytes they have gone past after every partition, which are
+ * scaled down to on-disk bytes for compressed sstables. A single instance can be shared by
+ * scanners running in several threads.
+ */
+public class ScanRate {
+  private final RateLimiter limiter;
+  private final AtomicLong bytes = new AtomicLong();
+
+  /**
+   * @param bytesPerSecond the maximum rate, or 0 for no limit
+   */
+  public ScanRate(long bytesPerSecond) {
+    this.limiter = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+  }
+
+  /**
+   * Accounts for dataBytes more bytes read from the data file of the given sstable,
+   * blocking as long as needed to stay below the rate limit
+   */
+  public void scanned(SSTableReader reader, long dataBytes) {
+    long diskBytes = reader.compression
+                     ? (long) ((double) dataBytes * reader.onDiskLength() / Math.max(reader.uncompressedLength(), 1))
+                     : dataBytes;
+    bytes.addAndGet(diskBytes);
+    if (limiter != null) {
+      while (diskBytes > 0) {
+        int permits = (int) Math.min(diskBytes, Integer.MAX_VALUE);
+        limiter.acquire(permits);
+        diskBytes -= permits;
+      }
+    }
+  }
+
+  /**
+   * @return the number of on-disk bytes read so far
+   */
+  public long bytes() {
+    return bytes.get();
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the tombstone summary of sstables between runs.
+ *
+ * Sstables are immutable, so a summary stays valid as long as a file with the same keyspace,
+ * column family and generation has the same size and modification time. The scanners classify some
+ * cells differently, so summaries are kept apart by the scanner that produced them. Entries are stored
+ * one per line, tab separated, and entries for sstables that no longer exist are dropped on save.
+ */
+public class TombstoneCache {
+  private final File file;
+  private final String scanner;
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+  private TombstoneCache(File file, String scanner) {
+    this.file = file;
+    this.scanner = scanner;
+  }
+
+  /**
+   * Loads the cache from the given file, starting out empty if it doesn't exist yet
+   *
+   * @param scanner the name of the scanner the summaries are looked up and stored for
+   */
+  public static TombstoneCache load(File file, String scanner) throws IOException {
+    TombstoneCache cache = new TombstoneCache(file, scanner);
+    if (file.exists()) {
+      for (String line : Files.readLines(file, Charsets.UTF_8)) {
+        if (!line.isEmpty()) {
+          Entry entry = Entry.parse(line);
+          cache.entries.put(entry.key, entry);
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @return the cached summary of the given sstable, or null if it hasn't been scanned or has changed since
+   */
+  public TombstoneSummary get(Descriptor desc) {
+    File data = new File(desc.filenameFor(Component.DATA));
+    Entry entry = entries.get(key(desc));
+    if (entry == null || entry.size != data.length() || entry.modified != data.lastModified()) {
+      return null;
+    }
+    return entry.summary;
+  }
+
+  public void put(Descriptor desc, TombstoneSummary summary) {
+    File data = new File(desc.filenameFor(Component.DATA));
+    Entry entry = new Entry(key(desc), data.length(), data.lastModified(), data.getAbsolutePath(), summary);
+    entries.put(entry.key, entry);
+  }
+
+  /**
+   * Writes the cache to a temporary file which then replaces the previous one
+   */
+  public void save() throws IOException {
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      if (!new File(iterator.next().path).exists()) {
+        iterator.remove();
+      }
+    }
+
+    File temporary = new File(file.getAbsolutePath() + ".tmp");
+    BufferedWriter writer = Files.newWriter(temporary, Charsets.UTF_8);
+    try {
+      for (Entry entry : entries.values()) {
+        writer.write(entry.toString());
+        writer.newLine();
+      }
+    } finally {
+      writer.close();
+    }
+    if (!temporary.renameTo(file)) {
+      throw new IOException("Failed to replace " + file + " with " + temporary);
+    }
+  }
+
+  private String key(Descriptor desc) {
+    return desc.ksname + "/" + desc.cfname + "/" + desc.generation + "/" + scanner;
+  }
+
+  private static class Entry {
+    private static final Joiner TAB = Joiner.on('\t');
+    private static final Joiner COMMA = Joiner.on(',');
+
+    final String key;
+    final long size;
+    final long modified;
+    final String path;
+    final TombstoneSummary summary;
+
+    Entry(String key, long size, long modified, String path, TombstoneSummary summary) {
+      this.key = key;
+      this.size = size;
+      this.modified = modified;
+      this.path = path;
+      this.summary = summary;
+    }
+
+    static Entry parse(String line) throws IOException {
+      List<String> fields = Splitter.on('\t').splitToList(line);
+      if (fields.size() != 11) {
+        throw new IOException("Malformed tombstone cache entry: " + line);
+      }
+      try {
+        TombstoneSummary summary = new TombstoneSummary();
+        summary.totals.deletedCells = Long.parseLong(fields.get(3));
+        summary.totals.expiredCells = Long.parseLong(fields.get(4));
+        summary.totals.rangeTombstones = Long.parseLong(fields.get(5));
+        summary.totals.partitionDeletions = Long.parseLong(fields.get(6));
+        summary.totals.columns = Long.parseLong(fields.get(7));
+        summary.partitions = Long.parseLong(fields.get(8));
+        List<String> buckets = Splitter.on(',').splitToList(fields.get(9));
+        for (int i = 0; i < buckets.size() && i < summary.histogram.length; i++) {
+          summary.histogram[i] = Long.parseLong(buckets.get(i));
+        }
+        return new Entry(fields.get(0), Long.parseLong(fields.get(1)), Long.parseLong(fields.get(2)),
+                         fields.get(10), summary);
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed tombstone cache entry: " + line, e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      // Trailing empty buckets are left out
+      int buckets = summary.histogram.length;
+      while (buckets > 1 && summary.histogram[buckets - 1] == 0) {
+        buckets--;
+      }
+      List<Long> histogram = new ArrayList<Long>(buckets);
+      for (int i = 0; i < buckets; i++) {
+        histogram.add(summary.histogram[i]);
+      }
+      TombstoneCount totals = summary.totals;
+      return TAB.join(key, size, modified, totals.deletedCells, totals.expiredCells, totals.rangeTombstones,
+                      totals.partitionDeletions, totals.columns, summary.partitions, COMMA.join(histogram), path);
+    }
+  }
+}
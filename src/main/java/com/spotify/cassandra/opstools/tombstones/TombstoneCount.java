@@ -0,0 +1,64 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+/**
+ * Number of tombstones, by kind, and columns in a partition or a set of partitions
+ */
+public class TombstoneCount {
+  /** Cells deleted explicitly */
+  public long deletedCells;
+  /** Cells whose TTL has expired */
+  public long expiredCells;
+  public long rangeTombstones;
+  /** Partitions deleted as a whole */
+  public long partitionDeletions;
+  /** All atoms, including range tombstones */
+  public long columns;
+  /** Tombstones of any kind past gc_grace, only counted when scanning with a {@link GcGrace} */
+  public long droppable;
+  /** Droppable tombstones that may shadow data in other sstables */
+  public long blocked;
+  /** Bytes taken by droppable tombstones that aren't blocked */
+  public long droppableBytes;
+
+  /**
+   * @return the number of cell tombstones, i.e. deleted and expired cells
+   */
+  public long tombstones() {
+    return deletedCells + expiredCells;
+  }
+
+  public void add(TombstoneCount other) {
+    deletedCells += other.deletedCells;
+    expiredCells += other.expiredCells;
+    rangeTombstones += other.rangeTombstones;
+    partitionDeletions += other.partitionDeletions;
+    columns += other.columns;
+    droppable += other.droppable;
+    blocked += other.blocked;
+    droppableBytes += other.droppableBytes;
+  }
+
+  public void clear() {
+    deletedCells = 0;
+    expiredCells = 0;
+    rangeTombstones = 0;
+    partitionDeletions = 0;
+    columns = 0;
+    droppable = 0;
+    blocked = 0;
+    droppableBytes = 0;
+  }
+}
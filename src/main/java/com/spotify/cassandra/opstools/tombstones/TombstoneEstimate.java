@@ -0,0 +1,87 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates the tombstone ratio of an sstable from a uniform sample of its partitions.
+ *
+ * The ratio of the sums is used as estimator, with its variance approximated by the usual
+ * first order (linearization) formula for ratio estimators.
+ */
+public class TombstoneEstimate implements PartitionListener {
+  /** z-score of a two-sided 95% confidence interval */
+  private static final double Z_95 = 1.96;
+
+  public long partitions;
+  private double tombstones;
+  private double columns;
+  private double tombstonesSquared;
+  private double columnsSquared;
+  private double tombstonesColumns;
+
+  @Override
+  public void partition(ByteBuffer key, TombstoneCount partition) {
+    double t = partition.tombstones();
+    double c = partition.columns;
+    partitions++;
+    tombstones += t;
+    columns += c;
+    tombstonesSquared += t * t;
+    columnsSquared += c * c;
+    tombstonesColumns += t * c;
+  }
+
+  /**
+   * @return the estimated fraction of columns that are tombstones
+   */
+  public double ratio() {
+    return columns == 0 ? 0 : tombstones / columns;
+  }
+
+  /**
+   * @return half the width of the 95% confidence interval of {@link #ratio()}
+   */
+  public double ratioMargin() {
+    if (partitions < 2 || columns == 0) {
+      return Double.NaN;
+    }
+    double r = ratio();
+    double meanColumns = columns / partitions;
+    // Sum of squared residuals t - r * c
+    double residuals = tombstonesSquared - 2 * r * tombstonesColumns + r * r * columnsSquared;
+    double variance = Math.max(residuals, 0) / (partitions - 1) / partitions / (meanColumns * meanColumns);
+    return Z_95 * Math.sqrt(variance);
+  }
+
+  /**
+   * @return the estimated number of tombstones in an sstable with the given number of partitions
+   */
+  public double tombstones(long totalPartitions) {
+    return partitions == 0 ? 0 : tombstones / partitions * totalPartitions;
+  }
+
+  /**
+   * @return half the width of the 95% confidence interval of {@link #tombstones(long)}
+   */
+  public double tombstonesMargin(long totalPartitions) {
+    if (partitions < 2) {
+      return Double.NaN;
+    }
+    double mean = tombstones / partitions;
+    double variance = Math.max(tombstonesSquared - partitions * mean * mean, 0) / (partitions - 1);
+    return Z_95 * Math.sqrt(variance / partitions) * totalPartitions;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.db.RowIndexEntry;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.util.RandomAccessReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Scans randomly chosen partitions of an sstable, so the cost depends on the sample size rather
+ * than the size of the sstable.
+ *
+ * Partitions are drawn uniformly (with replacement) by picking a random index summary entry, and then
+ * a random partition among those the entry covers in the index file.
+ */
+public class TombstoneSampler {
+  private final Random random;
+
+  public TombstoneSampler(Random random) {
+    this.random = random;
+  }
+
+  public void sample(SSTableReader reader, int partitions, PartitionListener listener) throws IOException {
+    int samples = reader.getKeySampleSize();
+    if (samples == 0) {
+      return;
+    }
+    RandomAccessReader ifile = reader.openIndexReader();
+    RandomAccessReader dfile = reader.openDataReader();
+    try {
+      for (int n = 0; n < partitions; n++) {
+        int i = random.nextInt(samples);
+        long end = i + 1 < samples ? indexPosition(reader, i + 1) : ifile.length();
+        long position = randomDataPosition(ifile, indexPosition(reader, i), end);
+        if (position < 0) {
+          continue;
+        }
+        RawTombstoneScanner.scanPartitions(reader, dfile, position, position + 1, listener, null, null);
+      }
+    } finally {
+      dfile.close();
+      ifile.close();
+    }
+  }
+
+  /**
+   * @return the index file position of the partition of index summary entry i; only looked up for
+   *     the entries drawn, so the cost stays independent of the size of the summary
+   */
+  private static long indexPosition(SSTableReader reader, int i) {
+    ByteBuffer key = ByteBuffer.wrap(reader.getKeySample(i));
+    return reader.getIndexScanPosition(reader.partitioner.decorateKey(key));
+  }
+
+  /**
+   * Picks one of the index entries between start and end, with reservoir sampling since
+   * the number of entries isn't known up front
+   *
+   * @return the data file position of the chosen partition
+   */
+  private long randomDataPosition(RandomAccessReader ifile, long start, long end) throws IOException {
+    long chosen = -1;
+    int seen = 0;
+    ifile.seek(start);
+    while (ifile.getFilePointer() < end) {
+      RawTombstoneScanner.skip(ifile, ifile.readUnsignedShort()); // key
+      long position = ifile.readLong();
+      RowIndexEntry.serializer.skipPromotedIndex(ifile);
+      if (random.nextInt(++seen) == 0) {
+        chosen = position;
+      }
+    }
+    return chosen;
+  }
+}
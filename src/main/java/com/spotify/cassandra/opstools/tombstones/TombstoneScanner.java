@@ -0,0 +1,33 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+import java.io.IOException;
+
+/**
+ * Counts the tombstones of the partitions in an sstable
+ */
+public interface TombstoneScanner {
+
+  /**
+   * Scans the partitions in the given token range, or the whole sstable if range is null
+   *
+   * @param listener called once for every partition, in token order
+   */
+  void scan(SSTableReader reader, Range<Token> range, PartitionListener listener) throws IOException;
+}
@@ -0,0 +1,73 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sums up the tombstones of all partitions scanned, and how tombstones are spread over partitions
+ */
+public class TombstoneSummary implements PartitionListener {
+  private static final int BUCKETS = 64;
+
+  public final TombstoneCount totals = new TombstoneCount();
+  public long partitions;
+
+  // Bucket 0 counts partitions without tombstones; bucket i > 0 those with [2^(i-1), 2^i) tombstones
+  final long[] histogram = new long[BUCKETS];
+
+  @Override
+  public void partition(ByteBuffer key, TombstoneCount partition) {
+    totals.add(partition);
+    partitions++;
+    histogram[bucket(partition.tombstones() + partition.rangeTombstones)]++;
+  }
+
+  public void add(TombstoneSummary other) {
+    totals.add(other.totals);
+    partitions += other.partitions;
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i] += other.histogram[i];
+    }
+  }
+
+  /**
+   * @return the number of partitions whose cell and range tombstones add up to a count in bucket i
+   */
+  public long partitionsInBucket(int bucket) {
+    return histogram[bucket];
+  }
+
+  public int buckets() {
+    return BUCKETS;
+  }
+
+  /**
+   * @return the smallest tombstone count in the given bucket
+   */
+  public static long bucketStart(int bucket) {
+    return bucket == 0 ? 0 : 1L << (bucket - 1);
+  }
+
+  /**
+   * @return the largest tombstone count in the given bucket
+   */
+  public static long bucketEnd(int bucket) {
+    return bucket == 0 ? 0 : (1L << bucket) - 1;
+  }
+
+  static int bucket(long tombstones) {
+    return 64 - Long.numberOfLeadingZeros(tombstones);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the partitions with the most tombstones in a bounded heap,
+ * so memory usage doesn't depend on the size of the sstable
+ */
+public class TopPartitions implements PartitionListener {
+
+  public enum Order {
+    /** Rank partitions by number of tombstones */
+    COUNT,
+    /** Rank partitions by fraction of columns being tombstones */
+    RATIO
+  }
+
+  private final int size;
+  private final Comparator<Partition> comparator;
+  // The head of the heap is the partition that is first to be evicted
+  private final PriorityQueue<Partition> heap;
+
+  public TopPartitions(int size, Order order) {
+    this.size = size;
+    this.comparator = order == Order.RATIO ? BY_RATIO : BY_COUNT;
+    this.heap = new PriorityQueue<Partition>(Math.max(size, 1), comparator);
+  }
+
+  @Override
+  public void partition(ByteBuffer key, TombstoneCount partition) {
+    if (partition.tombstones() > 0) {
+      offer(new Partition(key, partition.tombstones(), partition.columns), true);
+    }
+  }
+
+  /**
+   * Adds the partitions kept by another instance, e.g. one that scanned a different token range
+   */
+  public void addAll(TopPartitions other) {
+    for (Partition partition : other.heap) {
+      offer(partition, false);
+    }
+  }
+
+  /**
+   * @return the kept partitions, worst first
+   */
+  public List<Partition> sorted() {
+    List<Partition> partitions = new ArrayList<Partition>(heap);
+    Collections.sort(partitions, Collections.reverseOrder(comparator));
+    return partitions;
+  }
+
+  private void offer(Partition partition, boolean copyKey) {
+    if (heap.size() >= size) {
+      if (size == 0 || comparator.compare(partition, heap.peek()) <= 0) {
+        return;
+      }
+      heap.poll();
+    }
+    // Keys handed to a listener are only valid during the call, so only copy them once they are kept
+    heap.add(copyKey ? new Partition(ByteBufferUtil.clone(partition.key), partition.tombstones, partition.columns)
+                     : partition);
+  }
+
+  public static class Partition {
+    public final ByteBuffer key;
+    public final long tombstones;
+    public final long columns;
+
+    Partition(ByteBuffer key, long tombstones, long columns) {
+      this.key = key;
+      this.tombstones = tombstones;
+      this.columns = columns;
+    }
+  }
+
+  // Ties are broken on the key, so the result doesn't depend on the order partitions were seen in
+
+  private static final Comparator<Partition> BY_COUNT = new Comparator<Partition>() {
+    @Override
+    public int compare(Partition o1, Partition o2) {
+      if (o1.tombstones != o2.tombstones) {
+        return Long.compare(o1.tombstones, o2.tombstones);
+      }
+      if (o1.columns != o2.columns) {
+        return Long.compare(o2.columns, o1.columns);
+      }
+      return o2.key.compareTo(o1.key);
+    }
+  };
+
+  private static final Comparator<Partition> BY_RATIO = new Comparator<Partition>() {
+    @Override
+    public int compare(Partition o1, Partition o2) {
+      // Compares o1.tombstones / o1.columns with o2.tombstones / o2.columns
+      int cmp = Long.compare(o1.tombstones * o2.columns, o2.tombstones * o1.columns);
+      if (cmp != 0) {
+        return cmp;
+      }
+      if (o1.tombstones != o2.tombstones) {
+        return Long.compare(o1.tombstones, o2.tombstones);
+      }
+      return o2.key.compareTo(o1.key);
+    }
+  };
+}
@@ -0,0 +1,62 @@
+package com.spotify.cassandra.opstools;
+
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DataDirectoryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void createDataDirectory() throws IOException {
+    touch("ks1/cf1/ks1-cf1-jb-2-Data.db");
+    touch("ks1/cf1/ks1-cf1-jb-2-Index.db");
+    touch("ks1/cf1/ks1-cf1-jb-1-Data.db");
+    touch("ks1/cf1/ks1-cf1-tmp-jb-3-Data.db");
+    touch("ks1/cf1/snapshots/1234/ks1-cf1-jb-1-Data.db");
+    touch("ks1/cf1/backups/ks1-cf1-jb-1-Data.db");
+    touch("ks1/cf2/ks1-cf2-jb-1-Data.db");
+    touch("ks2/cf1/ks2-cf1-jb-1-Data.db");
+  }
+
+  @Test
+  public void findsLiveSSTables() throws IOException {
+    Assert.assertEquals(Arrays.asList("ks1-cf1-jb-1", "ks1-cf1-jb-2", "ks1-cf2-jb-1", "ks2-cf1-jb-1"),
+                        names(DataDirectory.findSSTables(folder.getRoot(), null, null)));
+  }
+
+  @Test
+  public void filtersByKeyspaceAndColumnFamily() throws IOException {
+    Assert.assertEquals(Arrays.asList("ks1-cf1-jb-1", "ks1-cf1-jb-2", "ks1-cf2-jb-1"),
+                        names(DataDirectory.findSSTables(folder.getRoot(), "ks1", null)));
+    Assert.assertEquals(Arrays.asList("ks1-cf1-jb-1", "ks1-cf1-jb-2", "ks2-cf1-jb-1"),
+                        names(DataDirectory.findSSTables(folder.getRoot(), null, "cf1")));
+    Assert.assertEquals(Arrays.asList("ks1-cf2-jb-1"),
+                        names(DataDirectory.findSSTables(folder.getRoot(), "ks1", "cf2")));
+  }
+
+  private void touch(String path) throws IOException {
+    File file = new File(folder.getRoot(), path);
+    Assert.assertTrue(file.getParentFile().mkdirs() || file.getParentFile().isDirectory());
+    Assert.assertTrue(file.createNewFile());
+  }
+
+  private static List<String> names(List<Descriptor> descriptors) {
+    List<String> names = new ArrayList<String>();
+    for (Descriptor desc : descriptors) {
+      names.add(new File(desc.baseFilename()).getName());
+    }
+    return names;
+  }
+}
@@ -0,0 +1,101 @@
+package com.spotify.cassandra.opstools;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+public class SSTableTimestampViewerTest {
+
+  private static List<SSTableTimestampViewer.TimeMetadata> sstables(long... timestamps) {
+    List<SSTableTimestampViewer.TimeMetadata> metadata = Lists.newArrayList();
+    for (int i = 0; i < timestamps.length; i += 2) {
+      metadata.add(new SSTableTimestampViewer.TimeMetadata("sstable" + i / 2, timestamps[i], timestamps[i + 1], 0, 0));
+    }
+    return metadata;
+  }
+
+  @Test
+  public void coveredTimeByNumberOfSSTables() {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    SSTableTimestampViewer.Timespans timespans = SSTableTimestampViewer.sweep(sstables(1, 5, 3, 8, 10, 12),
+                                                                              new PrintStream(buffer, true));
+
+    Assert.assertArrayEquals(new long[] {2, 7, 2}, timespans.time());
+    Assert.assertEquals(String.format("In interval [1, 3): 1 sstables%n" +
+                                      "In interval [3, 5]: 2 sstables%n" +
+                                      "In interval (5, 8]: 1 sstables%n" +
+                                      "In interval (8, 10): 0 sstables%n" +
+                                      "In interval [10, 12]: 1 sstables%n"),
+                        buffer.toString());
+  }
+
+  @Test
+  public void sstablesEndingTogether() {
+    Assert.assertArrayEquals(new long[] {0, 1, 3}, SSTableTimestampViewer.sweep(sstables(1, 5, 2, 5), null).time());
+  }
+
+  @Test
+  public void sstableStartingWhenAnotherEnds() {
+    // [1, 5] and [5, 9] overlap at 5
+    Assert.assertArrayEquals(new long[] {0, 8, 0}, SSTableTimestampViewer.sweep(sstables(1, 5, 5, 9), null).time());
+  }
+
+  @Test
+  public void histogramOnlyReachesMaximumOverlap() {
+    int sstables = 100000;
+    long[] timestamps = new long[sstables * 2];
+    for (int i = 0; i < sstables; i++) {
+      // Every sstable overlaps the next one
+      timestamps[2 * i] = i * 10;
+      timestamps[2 * i + 1] = i * 10 + 15;
+    }
+
+    long[] histogram = SSTableTimestampViewer.sweep(sstables(timestamps), null).time();
+    Assert.assertEquals(3, histogram.length);
+    Assert.assertEquals(0, histogram[0]);
+    Assert.assertEquals(timestamps[timestamps.length - 1] - timestamps[0], histogram[1] + histogram[2]);
+  }
+
+  @Test
+  public void dataIsSpreadOverTimespan() {
+    // [0, 10] with 100 bytes, 40 of them droppable, and [5, 25] with 200 bytes
+    List<SSTableTimestampViewer.TimeMetadata> metadata = Lists.newArrayList(
+        new SSTableTimestampViewer.TimeMetadata("a", 0, 10, 100, 40),
+        new SSTableTimestampViewer.TimeMetadata("b", 5, 25, 200, 0));
+    SSTableTimestampViewer.Timespans timespans = SSTableTimestampViewer.sweep(metadata, null);
+
+    Assert.assertArrayEquals(new long[] {0, 20, 5}, timespans.time());
+    Assert.assertArrayEquals(new double[] {0, 50 + 150, 50 + 50},
+                             timespans.weighted(SSTableTimestampViewer.Timespans.BYTES), 1e-9);
+    Assert.assertArrayEquals(new double[] {0, 20, 20},
+                             timespans.weighted(SSTableTimestampViewer.Timespans.DROPPABLE_BYTES), 1e-9);
+  }
+
+  @Test
+  public void noTimeCoveredPrintsZeroPercent() {
+    // Only sstables with a single timestamp, all the same
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    SSTableTimestampViewer.printTimespans(new PrintStream(buffer, true),
+                                          SSTableTimestampViewer.sweep(sstables(4, 4, 4, 4), null).time());
+
+    Assert.assertFalse(buffer.toString().contains("NaN"));
+    Assert.assertTrue(buffer.toString().contains(String.format("(%.2f%%)", 0.0)));
+  }
+
+  @Test
+  public void sstableWithSingleTimestamp() {
+    List<SSTableTimestampViewer.TimeMetadata> metadata = Lists.newArrayList(
+        new SSTableTimestampViewer.TimeMetadata("a", 0, 10, 100, 0),
+        new SSTableTimestampViewer.TimeMetadata("b", 4, 4, 30, 30));
+    SSTableTimestampViewer.Timespans timespans = SSTableTimestampViewer.sweep(metadata, null);
+
+    Assert.assertArrayEquals(new double[] {0, 100, 30}, timespans.weighted(SSTableTimestampViewer.Timespans.BYTES), 1e-9);
+    Assert.assertArrayEquals(new double[] {0, 0, 30},
+                             timespans.weighted(SSTableTimestampViewer.Timespans.DROPPABLE_BYTES), 1e-9);
+  }
+}
@@ -0,0 +1,62 @@
+package com.spotify.cassandra.opstools;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+public class ScoreMatrixTest {
+
+  private static InetAddress node(int i) throws UnknownHostException {
+    return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) i});
+  }
+
+  private static ScoreMatrix matrix() throws UnknownHostException {
+    ScoreMatrix matrix = new ScoreMatrix();
+    matrix.put(node(1), ImmutableMap.of(node(2), 0.1, node(3), 0.9));
+    matrix.put(node(2), ImmutableMap.of(node(1), 0.1, node(3), 0.2));
+    matrix.put(node(3), ImmutableMap.of(node(1), 0.3, node(2), 0.4));
+    return matrix;
+  }
+
+  @Test
+  public void slowestTargetFirst() throws UnknownHostException {
+    List<ScoreMatrix.Target> targets = matrix().summarize();
+
+    Assert.assertEquals(3, targets.size());
+    ScoreMatrix.Target slowest = targets.get(0);
+    Assert.assertEquals(node(3), slowest.target);
+    Assert.assertEquals(2, slowest.observers);
+    Assert.assertEquals(0.2, slowest.min, 0);
+    Assert.assertEquals(0.55, slowest.median, 1e-9);
+    Assert.assertEquals(0.9, slowest.max, 0);
+    Assert.assertEquals(node(1), slowest.worstObserver);
+  }
+
+  @Test
+  public void mostAsymmetricPairs() throws UnknownHostException {
+    List<ScoreMatrix.Pair> pairs = matrix().mostAsymmetric(2);
+
+    Assert.assertEquals(2, pairs.size());
+    Assert.assertEquals(Arrays.asList(node(1), node(3)), Arrays.asList(pairs.get(0).first, pairs.get(0).second));
+    Assert.assertEquals(0.6, pairs.get(0).difference(), 1e-9);
+    Assert.assertEquals(Arrays.asList(node(3), node(2)), Arrays.asList(pairs.get(1).first, pairs.get(1).second));
+    Assert.assertEquals(0.2, pairs.get(1).difference(), 1e-9);
+  }
+
+  @Test
+  public void missingObserversAreSkipped() throws UnknownHostException {
+    ScoreMatrix matrix = new ScoreMatrix();
+    matrix.put(node(1), ImmutableMap.of(node(2), 0.5));
+
+    Assert.assertEquals(0.5, matrix.score(node(1), node(2)), 0);
+    Assert.assertNull(matrix.score(node(2), node(1)));
+    Assert.assertTrue(matrix.mostAsymmetric(10).isEmpty());
+    Assert.assertEquals(1, matrix.targets().size());
+  }
+}
@@ -0,0 +1,93 @@
+package com.spotify.cassandra.opstools;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+
+public class SnitchSamplerTest {
+
+  private static InetAddress peer(int i) throws UnknownHostException {
+    return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) i});
+  }
+
+  private static Map<InetAddress, Double> scores(double... scores) throws UnknownHostException {
+    ImmutableMap.Builder<InetAddress, Double> builder = ImmutableMap.builder();
+    for (int i = 0; i < scores.length; i++) {
+      builder.put(peer(i + 1), scores[i]);
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void windowKeepsMostRecentSamples() throws UnknownHostException {
+    SnitchSampler sampler = new SnitchSampler(4);
+    for (int i = 1; i <= 10; i++) {
+      sampler.add(scores(i));
+    }
+
+    SnitchSampler.History history = sampler.history(peer(1));
+    Assert.assertEquals(4, history.count());
+    Assert.assertEquals(10, history.latest(), 0);
+    Assert.assertEquals(8, history.percentile(0.5), 0);
+    Assert.assertEquals(7, history.percentile(0), 0);
+    Assert.assertEquals(10, history.max(), 0);
+  }
+
+  @Test
+  public void percentilesBeforeWindowFillsUp() throws UnknownHostException {
+    SnitchSampler sampler = new SnitchSampler(100);
+    sampler.add(scores(3));
+    sampler.add(scores(1));
+
+    SnitchSampler.History history = sampler.history(peer(1));
+    Assert.assertEquals(1, history.percentile(0.5), 0);
+    Assert.assertEquals(3, history.percentile(0.99), 0);
+  }
+
+  @Test
+  public void slowPeerIsOutlier() throws UnknownHostException {
+    SnitchSampler sampler = new SnitchSampler(10);
+    sampler.add(scores(0.10, 0.12, 0.11, 0.09, 0.10, 0.95));
+    Assert.assertEquals(ImmutableSet.of(peer(6)), sampler.outliers(3.5));
+
+    // Recovered
+    sampler.add(scores(0.10, 0.12, 0.11, 0.09, 0.10, 0.11));
+    Assert.assertTrue(sampler.outliers(3.5).isEmpty());
+  }
+
+  @Test
+  public void fastPeerIsNotOutlier() throws UnknownHostException {
+    SnitchSampler sampler = new SnitchSampler(10);
+    sampler.add(scores(0.5, 0.5, 0.5, 0.5, 0));
+    Assert.assertTrue(sampler.outliers(3.5).isEmpty());
+  }
+
+  @Test
+  public void identicalScoresFallBackToMeanDeviation() throws UnknownHostException {
+    SnitchSampler sampler = new SnitchSampler(10);
+    sampler.add(scores(0, 0, 0, 0, 0, 0, 0, 0, 1));
+    Assert.assertEquals(ImmutableSet.of(peer(9)), sampler.outliers(3.5));
+  }
+
+  @Test
+  public void missingPeerIsNotComparedAndForgotten() throws UnknownHostException {
+    SnitchSampler sampler = new SnitchSampler(2);
+    sampler.add(scores(0.10, 0.12, 0.11, 0.09, 0.10, 0.95));
+    Assert.assertEquals(ImmutableSet.of(peer(6)), sampler.outliers(3.5));
+
+    // Peer 6 left the cluster
+    sampler.add(scores(0.10, 0.12, 0.11, 0.09, 0.10));
+    Assert.assertTrue(sampler.outliers(3.5).isEmpty());
+    Assert.assertNotNull(sampler.history(peer(6)));
+
+    sampler.add(scores(0.10, 0.12, 0.11, 0.09, 0.10));
+    sampler.add(scores(0.10, 0.12, 0.11, 0.09, 0.10));
+    Assert.assertNull(sampler.history(peer(6)));
+  }
+}
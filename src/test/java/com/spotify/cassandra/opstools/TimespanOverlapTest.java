@@ -0,0 +1,67 @@
+package com.spotify.cassandra.opstools;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class TimespanOverlapTest {
+
+  private static SSTableTimestampViewer.TimeMetadata sstable(String name, long minTimestamp, long maxTimestamp) {
+    return new SSTableTimestampViewer.TimeMetadata(name, minTimestamp, maxTimestamp, 10, 0);
+  }
+
+  @Test
+  public void sameHistogramAsSweep() {
+    Random random = new Random(42);
+    List<SSTableTimestampViewer.TimeMetadata> metadata = Lists.newArrayList();
+    TimespanOverlap overlap = new TimespanOverlap();
+    for (int i = 0; i < 200; i++) {
+      long minTimestamp = random.nextInt(1000);
+      SSTableTimestampViewer.TimeMetadata sstable = sstable("sstable" + i, minTimestamp, minTimestamp + random.nextInt(50));
+      metadata.add(sstable);
+      Assert.assertTrue(overlap.add(sstable));
+    }
+    Collections.sort(metadata, new Comparator<SSTableTimestampViewer.TimeMetadata>() {
+      @Override
+      public int compare(SSTableTimestampViewer.TimeMetadata a, SSTableTimestampViewer.TimeMetadata b) {
+        return Long.compare(a.minTimestamp, b.minTimestamp);
+      }
+    });
+
+    Assert.assertArrayEquals(SSTableTimestampViewer.sweep(metadata, null).time(), overlap.histogram());
+    Assert.assertEquals(200, overlap.size());
+    Assert.assertEquals(2000, overlap.bytes());
+  }
+
+  @Test
+  public void sstablesTouchingAtOneTimestampOverlap() {
+    TimespanOverlap overlap = new TimespanOverlap();
+    overlap.add(sstable("a", 1, 5));
+    overlap.add(sstable("b", 5, 9));
+    Assert.assertArrayEquals(new long[] {0, 8, 0}, overlap.histogram());
+  }
+
+  @Test
+  public void removingUndoesAdding() {
+    TimespanOverlap overlap = new TimespanOverlap();
+    overlap.add(sstable("a", 1, 5));
+    overlap.add(sstable("b", 3, 8));
+    Assert.assertFalse(overlap.add(sstable("b", 3, 8)));
+    overlap.add(sstable("c", 10, 12));
+
+    Assert.assertTrue(overlap.remove("b"));
+    Assert.assertFalse(overlap.remove("b"));
+    Assert.assertArrayEquals(new long[] {5, 6}, overlap.histogram());
+
+    Assert.assertTrue(overlap.remove("a"));
+    Assert.assertTrue(overlap.remove("c"));
+    Assert.assertArrayEquals(new long[] {0}, overlap.histogram());
+    Assert.assertEquals(0, overlap.bytes());
+  }
+}
@@ -0,0 +1,75 @@
+package com.spotify.cassandra.opstools;
+
+import org.apache.cassandra.dht.LongToken;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TokenOverlapTest {
+  private static final long QUARTER = 1L << 62;
+
+  @Test
+  public void depthOfEachSegment() {
+    // [0, 100], [50, 200] and a single partition at 300
+    TokenOverlap overlap = new TokenOverlap(new Murmur3Partitioner(), tokens(0, 50, 300), tokens(100, 200, 300));
+
+    Assert.assertEquals(5, overlap.segments());
+    Assert.assertEquals(token(300), overlap.start(0));
+    Assert.assertEquals(token(0), overlap.end(0));
+    int[] depths = new int[overlap.segments()];
+    for (int i = 0; i < depths.length; i++) {
+      depths[i] = overlap.depth(i);
+    }
+    Assert.assertArrayEquals(new int[] {0, 1, 2, 1, 0}, depths);
+    Assert.assertEquals(2, overlap.maxDepth());
+  }
+
+  @Test
+  public void uncoveredRingHasNoPercentiles() {
+    TokenOverlap overlap = new TokenOverlap(new Murmur3Partitioner(), tokens(7), tokens(7));
+    Assert.assertEquals(0, overlap.percentile(0.99));
+    Assert.assertEquals(1, overlap.maxDepth());
+  }
+
+  @Test
+  public void singlePartitionsCountTowardsMaxDepth() {
+    // Three sstables holding only the same partition
+    TokenOverlap overlap = new TokenOverlap(new Murmur3Partitioner(), tokens(7, 7, 7), tokens(7, 7, 7));
+    Assert.assertEquals(3, overlap.maxDepth());
+    Assert.assertEquals(0, overlap.depth(0));
+  }
+
+  @Test
+  public void percentilesWeightedByRingFraction() {
+    // One sstable covering half the ring and one covering the second quarter of it
+    TokenOverlap overlap = new TokenOverlap(new Murmur3Partitioner(), tokens(-QUARTER, 0), tokens(QUARTER, QUARTER));
+
+    double[] histogram = overlap.histogram();
+    Assert.assertEquals(3, histogram.length);
+    Assert.assertEquals(0.5, histogram[0], 1e-6);
+    Assert.assertEquals(0.25, histogram[1], 1e-6);
+    Assert.assertEquals(0.25, histogram[2], 1e-6);
+
+    // Only the covered half of the ring counts towards percentiles
+    Assert.assertEquals(1, overlap.percentile(0.5));
+    Assert.assertEquals(2, overlap.percentile(0.75));
+    Assert.assertEquals(2, overlap.percentile(0.9));
+    Assert.assertEquals(Arrays.asList(2, 1), overlap.deepest(2));
+  }
+
+  private static List<Token<?>> tokens(long... values) {
+    Token<?>[] tokens = new Token<?>[values.length];
+    for (int i = 0; i < values.length; i++) {
+      tokens[i] = token(values[i]);
+    }
+    return Arrays.asList(tokens);
+  }
+
+  private static Token<?> token(long value) {
+    return new LongToken(value);
+  }
+}
@@ -87,6 +87,73 @@ public class BalancerTest {
     Assert.assertEquals(token(1), best.get("dc3-f"));
   }
 
+  @Test
+  public void loadedNodesStreamLeastData() {
+    Balancer balancer = new Balancer(
+        ImmutableMap.of("a", token(2100), "b", token(1100), "c", token(100)),
+        ImmutableMap.of("a", "cloud", "b", "cloud", "c", "cloud"),
+        ImmutableMap.of("a", 1000L, "b", 1000L, "c", 1000L),
+        token(0), token(3000));
+
+    Map<String, BigInteger> best = balancer.balance();
+
+    // Each node takes the token closest to its own range instead of following host name order
+    Assert.assertEquals(token(2000), best.get("a"));
+    Assert.assertEquals(token(1000), best.get("b"));
+    Assert.assertEquals(token(0), best.get("c"));
+  }
+
+  @Test
+  public void differentDcSizes() {
+    Balancer balancer = new Balancer(
+        ImmutableMap.of("dc1-a", token(0), "dc1-b", token(1400), "dc2-c", token(1), "dc2-d", token(1100), "dc2-e", token(2001)),
+        ImmutableMap.of("dc1-a", "dc1", "dc1-b", "dc1", "dc2-c", "dc2", "dc2-d", "dc2", "dc2-e", "dc2"),
+        token(0), token(3000));
+
+    Map<String, BigInteger> best = balancer.balance();
+
+    Assert.assertEquals(token(0), best.get("dc1-a"));
+    Assert.assertEquals(token(1500), best.get("dc1-b"));
+    Assert.assertEquals(token(1), best.get("dc2-c"));
+    Assert.assertEquals(token(1001), best.get("dc2-d"));
+    Assert.assertEquals(token(2001), best.get("dc2-e"));
+  }
+
+  @Test
+  public void weightedRanges() {
+    Balancer balancer = new Balancer(
+        ImmutableMap.of("a", token(0), "b", token(900), "c", token(2100)),
+        ImmutableMap.of("a", "cloud", "b", "cloud", "c", "cloud"),
+        null,
+        ImmutableMap.of("a", 1.0, "b", 2.0, "c", 3.0),
+        token(0), token(3000));
+
+    Map<String, BigInteger> best = balancer.balance();
+
+    // Each node keeps its place in the ring, and owns the range ending at its token
+    Assert.assertEquals(token(0), best.get("a"));    // (2500, 0]: 500
+    Assert.assertEquals(token(1000), best.get("b")); // (0, 1000]: 1000
+    Assert.assertEquals(token(2500), best.get("c")); // (1000, 2500]: 1500
+  }
+
+  @Test
+  public void racksAlternateWhenEveningOutOwnership() {
+    Map<String, String> hostDc = ImmutableMap.of("a", "cloud", "b", "cloud", "c", "cloud", "d", "cloud");
+    Balancer balancer = new Balancer(
+        ImmutableMap.of("a", token(500), "b", token(1500), "c", token(2500), "d", token(3500)),
+        hostDc, token(0), token(4000));
+    balancer.setReplication(new ReplicatedOwnership(
+        hostDc, ImmutableMap.of("a", "r1", "b", "r1", "c", "r2", "d", "r2"),
+        ImmutableMap.of("cloud", 2), token(0), token(4000)));
+    balancer.setEvenOwnership(true);
+
+    Map<String, BigInteger> best = balancer.balance();
+
+    // In host name order both nodes of a rack would be next to each other
+    Assert.assertEquals(token(2000), best.get("b").subtract(best.get("a")).abs());
+    Assert.assertEquals(token(2000), best.get("d").subtract(best.get("c")).abs());
+  }
+
   private static BigInteger token(int token) {
     return BigInteger.valueOf(token);
   }
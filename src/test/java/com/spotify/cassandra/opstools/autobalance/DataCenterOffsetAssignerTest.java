@@ -8,6 +8,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.HashMap;
 import java.util.Map;
 
 public class DataCenterOffsetAssignerTest {
@@ -92,6 +93,34 @@ public class DataCenterOffsetAssignerTest {
     Assert.assertEquals(1, (int) best.get("dc3"));
   }
 
+  @Test
+  public void manyDataCentersAndNodes() {
+    // 40 DCs with 500 nodes each; every node of DC i is at offset i except one per DC
+    int dcs = 40;
+    int nodes = 500;
+    BigInteger[] tokens = new BigInteger[nodes];
+    for (int i = 0; i < nodes; i++) {
+      tokens[i] = token(i * 1000);
+    }
+    Map<String, BigInteger> currentMap = new HashMap<String, BigInteger>();
+    Map<String, String> hostDc = new HashMap<String, String>();
+    for (int dc = 0; dc < dcs; dc++) {
+      for (int i = 0; i < nodes; i++) {
+        String host = "dc" + dc + "-" + i;
+        currentMap.put(host, token(i * 1000 + (i == 0 ? 500 : dc)));
+        hostDc.put(host, "dc" + dc);
+      }
+    }
+
+    DataCenterOffsetAssigner assigner = new DataCenterOffsetAssigner(currentMap, hostDc, tokens);
+    Map<String, Integer> best = assigner.findBestAssignment();
+
+    Assert.assertEquals(dcs, assigner.fewestMovesNeeed);
+    for (int dc = 0; dc < dcs; dc++) {
+      Assert.assertEquals(dc, (int) best.get("dc" + dc));
+    }
+  }
+
   private static BigInteger token(int token) {
     return BigInteger.valueOf(token);
   }
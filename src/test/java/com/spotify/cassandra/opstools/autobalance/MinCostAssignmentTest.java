@@ -0,0 +1,73 @@
+package com.spotify.cassandra.opstools.autobalance;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class MinCostAssignmentTest {
+
+  @Test
+  public void squareMatrix() {
+    long[][] cost = {
+        {4, 1, 3},
+        {2, 0, 5},
+        {3, 2, 2},
+    };
+    Assert.assertArrayEquals(new int[] {1, 0, 2}, MinCostAssignment.solve(cost));
+  }
+
+  @Test
+  public void moreColumnsThanRows() {
+    long[][] cost = {
+        {9, 9, 1, 9},
+        {9, 9, 2, 3},
+    };
+    Assert.assertArrayEquals(new int[] {2, 3}, MinCostAssignment.solve(cost));
+  }
+
+  @Test
+  public void sameTotalAsBruteForce() {
+    Random random = new Random(7);
+    for (int round = 0; round < 200; round++) {
+      int rows = 1 + random.nextInt(5);
+      int columns = rows + random.nextInt(3);
+      long[][] cost = new long[rows][columns];
+      for (long[] row : cost) {
+        for (int j = 0; j < columns; j++) {
+          row[j] = random.nextInt(100);
+        }
+      }
+
+      int[] assignment = MinCostAssignment.solve(cost);
+      boolean[] taken = new boolean[columns];
+      long total = 0;
+      for (int i = 0; i < rows; i++) {
+        Assert.assertFalse(taken[assignment[i]]);
+        taken[assignment[i]] = true;
+        total += cost[i][assignment[i]];
+      }
+      Assert.assertEquals(bruteForce(cost, 0, new boolean[columns]), total);
+    }
+  }
+
+  private static long bruteForce(long[][] cost, int row, boolean[] taken) {
+    if (row == cost.length) {
+      return 0;
+    }
+    long best = Long.MAX_VALUE;
+    for (int j = 0; j < taken.length; j++) {
+      if (!taken[j]) {
+        taken[j] = true;
+        best = Math.min(best, cost[row][j] + bruteForce(cost, row + 1, taken));
+        taken[j] = false;
+      }
+    }
+    return best;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tooFewColumns() {
+    MinCostAssignment.solve(new long[][] {{1}, {2}});
+  }
+}
@@ -0,0 +1,155 @@
+package com.spotify.cassandra.opstools.autobalance;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.spotify.cassandra.opstools.autobalance.MoveScheduler.Move;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MoveSchedulerTest {
+  // Eight nodes 1000 apart, in one data center
+  private static final Map<String, BigInteger> TOKENS = new ImmutableMap.Builder<String, BigInteger>()
+      .put("a", token(0)).put("b", token(1000)).put("c", token(2000)).put("d", token(3000))
+      .put("e", token(4000)).put("f", token(5000)).put("g", token(6000)).put("h", token(7000))
+      .build();
+  private static final Map<String, String> DCS = new ImmutableMap.Builder<String, String>()
+      .put("a", "cloud").put("b", "cloud").put("c", "cloud").put("d", "cloud")
+      .put("e", "cloud").put("f", "cloud").put("g", "cloud").put("h", "cloud")
+      .build();
+  private static final Map<String, String> ONE_RACK = new ImmutableMap.Builder<String, String>()
+      .put("a", "r1").put("b", "r1").put("c", "r1").put("d", "r1")
+      .put("e", "r1").put("f", "r1").put("g", "r1").put("h", "r1")
+      .build();
+  private static final Map<String, String> TWO_RACKS = new ImmutableMap.Builder<String, String>()
+      .put("a", "r1").put("b", "r1").put("c", "r2").put("d", "r2")
+      .put("e", "r1").put("f", "r1").put("g", "r2").put("h", "r2")
+      .build();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void footprintCoversNeighbours() {
+    MoveScheduler scheduler = scheduler(ONE_RACK, 2, new RecordingMover(), null);
+
+    Set<String> footprint = scheduler.footprint(new Move("a", "cloud", token(0), token(10)));
+
+    Assert.assertEquals(new HashSet<String>(ImmutableList.of("a", "b", "c", "h")), footprint);
+  }
+
+  @Test
+  public void footprintFollowsRackPlacement() {
+    MoveScheduler scheduler = scheduler(TWO_RACKS, 2, new RecordingMover(), null);
+
+    Set<String> footprint = scheduler.footprint(new Move("a", "cloud", token(0), token(10)));
+
+    // a is the second replica of the ranges of g and h, and c rather than b the second replica of a's
+    Assert.assertEquals(new HashSet<String>(ImmutableList.of("a", "b", "c", "g", "h")), footprint);
+  }
+
+  @Test
+  public void movesSharingARackReplicaRunOneAtATime() throws Exception {
+    RecordingMover mover = new RecordingMover();
+    scheduler(TWO_RACKS, 2, mover, null).run(ImmutableList.of(
+        new Move("a", "cloud", token(0), token(10)),
+        new Move("e", "cloud", token(4000), token(4010))));
+
+    Assert.assertEquals(1, mover.maxConcurrent.get());
+    Assert.assertEquals(2, mover.moved.size());
+  }
+
+  @Test
+  public void distantMovesRunTogether() throws Exception {
+    RecordingMover mover = new RecordingMover();
+    scheduler(ONE_RACK, 2, mover, null).run(ImmutableList.of(
+        new Move("a", "cloud", token(0), token(10)),
+        new Move("e", "cloud", token(4000), token(4010))));
+
+    Assert.assertEquals(2, mover.maxConcurrent.get());
+    Assert.assertEquals(2, mover.moved.size());
+  }
+
+  @Test
+  public void neighboursMoveOneAtATime() throws Exception {
+    RecordingMover mover = new RecordingMover();
+    scheduler(ONE_RACK, 2, mover, null).run(ImmutableList.of(
+        new Move("a", "cloud", token(0), token(10)),
+        new Move("b", "cloud", token(1000), token(1010))));
+
+    Assert.assertEquals(1, mover.maxConcurrent.get());
+    Assert.assertEquals(2, mover.moved.size());
+  }
+
+  @Test
+  public void failureStopsAndJournalResumes() throws Exception {
+    File file = new File(folder.getRoot(), "journal");
+    MoveJournal journal = MoveJournal.load(file);
+    Move first = new Move("a", "cloud", token(0), token(10));
+    Move second = new Move("b", "cloud", token(1000), token(1010));
+    journal.start(ImmutableList.of(first, second));
+
+    RecordingMover mover = new RecordingMover();
+    mover.failing = "b";
+    try {
+      scheduler(ONE_RACK, 1, mover, journal).run(ImmutableList.of(first, second));
+      Assert.fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    Assert.assertEquals(ImmutableList.of(second), MoveJournal.load(file).pending());
+  }
+
+  private static MoveScheduler scheduler(Map<String, String> racks, int parallelism, MoveScheduler.Mover mover,
+                                         MoveJournal journal) {
+    ReplicatedOwnership ownership = new ReplicatedOwnership(DCS, racks, ImmutableMap.of("cloud", 2),
+                                                            token(0), token(8000));
+    return new MoveScheduler(TOKENS, ownership, parallelism, mover, journal,
+                             new PrintStream(new ByteArrayOutputStream()));
+  }
+
+  private static BigInteger token(int token) {
+    return BigInteger.valueOf(token);
+  }
+
+  private static class RecordingMover implements MoveScheduler.Mover {
+    final Set<String> moved = Collections.synchronizedSet(new HashSet<String>());
+    final AtomicInteger concurrent = new AtomicInteger();
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+    String failing;
+
+    @Override
+    public void move(Move move) throws Exception {
+      int now = concurrent.incrementAndGet();
+      synchronized (maxConcurrent) {
+        maxConcurrent.set(Math.max(maxConcurrent.get(), now));
+      }
+      Thread.sleep(100);
+      concurrent.decrementAndGet();
+      if (move.host.equals(failing)) {
+        throw new IOException("Failed to move " + move.host);
+      }
+      moved.add(move.host);
+    }
+
+    @Override
+    public String progress(Move move) {
+      return "moving";
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.spotify.cassandra.opstools.autobalance;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+public class ReplicatedOwnershipTest {
+  private static final Map<String, String> ONE_DC = ImmutableMap.of("a", "cloud", "b", "cloud", "c", "cloud", "d", "cloud");
+
+  @Test
+  public void singleRack() {
+    ReplicatedOwnership ownership = new ReplicatedOwnership(
+        ONE_DC, ImmutableMap.of("a", "r1", "b", "r1", "c", "r1", "d", "r1"),
+        ImmutableMap.of("cloud", 2), token(0), token(4000));
+
+    Map<String, Double> owns = ownership.ownership(
+        ImmutableMap.of("a", token(0), "b", token(1000), "c", token(2000), "d", token(3000)));
+
+    for (double owned : owns.values()) {
+      Assert.assertEquals(0.5, owned, 1e-9);
+    }
+    Assert.assertEquals(0, ownership.spread(owns), 1e-9);
+  }
+
+  @Test
+  public void racksInBadOrder() {
+    ReplicatedOwnership ownership = new ReplicatedOwnership(
+        ONE_DC, ImmutableMap.of("a", "r1", "b", "r1", "c", "r2", "d", "r2"),
+        ImmutableMap.of("cloud", 2), token(0), token(4000));
+
+    Map<String, Double> owns = ownership.ownership(
+        ImmutableMap.of("a", token(0), "b", token(1000), "c", token(2000), "d", token(3000)));
+
+    // The second replica skips the next node when it is in the same rack
+    Assert.assertEquals(0.75, owns.get("a"), 1e-9);
+    Assert.assertEquals(0.25, owns.get("b"), 1e-9);
+    Assert.assertEquals(0.75, owns.get("c"), 1e-9);
+    Assert.assertEquals(0.25, owns.get("d"), 1e-9);
+    Assert.assertEquals(1.0, ownership.spread(owns), 1e-9);
+  }
+
+  @Test
+  public void racksAlternating() {
+    ReplicatedOwnership ownership = new ReplicatedOwnership(
+        ONE_DC, ImmutableMap.of("a", "r1", "b", "r2", "c", "r1", "d", "r2"),
+        ImmutableMap.of("cloud", 2), token(0), token(4000));
+
+    Map<String, Double> owns = ownership.ownership(
+        ImmutableMap.of("a", token(0), "b", token(1000), "c", token(2000), "d", token(3000)));
+
+    Assert.assertEquals(0, ownership.spread(owns), 1e-9);
+  }
+
+  @Test
+  public void vnodes() {
+    ReplicatedOwnership ownership = new ReplicatedOwnership(
+        ImmutableMap.of("a", "cloud", "b", "cloud"), ImmutableMap.of("a", "r1", "b", "r1"),
+        ImmutableMap.of("cloud", 1), token(0), token(4000));
+
+    Map<String, Double> owns = ownership.ownershipOfVnodes(ImmutableMap.<String, List<BigInteger>>of(
+        "a", ImmutableList.of(token(0), token(1000), token(2000)),
+        "b", ImmutableList.of(token(3000))));
+
+    Assert.assertEquals(0.75, owns.get("a"), 1e-9);
+    Assert.assertEquals(0.25, owns.get("b"), 1e-9);
+  }
+
+  @Test
+  public void dataCentersAreSeparate() {
+    ReplicatedOwnership ownership = new ReplicatedOwnership(
+        ImmutableMap.of("a", "dc1", "b", "dc1", "c", "dc2"), ImmutableMap.of("a", "r1", "b", "r1", "c", "r1"),
+        ImmutableMap.of("dc1", 1, "dc2", 1), token(0), token(4000));
+
+    Map<String, Double> owns = ownership.ownership(
+        ImmutableMap.of("a", token(0), "b", token(1000), "c", token(500)));
+
+    Assert.assertEquals(0.75, owns.get("a"), 1e-9);
+    Assert.assertEquals(0.25, owns.get("b"), 1e-9);
+    Assert.assertEquals(1.0, owns.get("c"), 1e-9);
+  }
+
+  private static BigInteger token(int token) {
+    return BigInteger.valueOf(token);
+  }
+}
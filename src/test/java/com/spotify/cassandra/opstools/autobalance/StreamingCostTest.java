@@ -0,0 +1,54 @@
+package com.spotify.cassandra.opstools.autobalance;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+public class StreamingCostTest {
+  private final StreamingCost cost = new StreamingCost(
+      ImmutableMap.of("a", token(1000), "b", token(2000), "c", token(3000)),
+      ImmutableMap.of("a", 100L, "b", 200L, "c", 300L),
+      token(0), token(3000));
+
+  @Test
+  public void ownRangeIsFree() {
+    Assert.assertEquals(0, cost.streamed("b", token(1000), token(2000)));
+  }
+
+  @Test
+  public void otherRangesAreStreamed() {
+    // Half of the ranges of the other two nodes
+    Assert.assertEquals(250, cost.streamed("a", token(1500), token(2500)));
+    Assert.assertEquals(200, cost.streamed("b", token(500), token(2500)));
+  }
+
+  @Test
+  public void wrappingRange() {
+    // Half of c's range and half of a's range
+    Assert.assertEquals(200, cost.streamed("b", token(2500), token(500)));
+  }
+
+  @Test
+  public void replicatedRanges() {
+    // With a replication factor of 2 every node stores two ranges, so its data is spread over 2000 tokens
+    StreamingCost replicated = new StreamingCost(
+        ImmutableMap.of("a", token(1000), "b", token(2000), "c", token(3000)),
+        ImmutableMap.of("a", 200L, "b", 400L, "c", 600L),
+        new ReplicatedOwnership(ImmutableMap.of("a", "cloud", "b", "cloud", "c", "cloud"),
+                                ImmutableMap.of("a", "r1", "b", "r1", "c", "r1"),
+                                ImmutableMap.of("cloud", 2), token(0), token(3000)),
+        "cloud");
+
+    // The range ending at b is replicated by b and c, and a doesn't store any of it
+    Assert.assertEquals(250, replicated.streamed("a", token(1000), token(2000)));
+    // b already stores the range ending at a, but not the one ending at c
+    Assert.assertEquals(100, replicated.streamed("b", token(2500), token(500)));
+  }
+
+  private static BigInteger token(int token) {
+    return BigInteger.valueOf(token);
+  }
+}
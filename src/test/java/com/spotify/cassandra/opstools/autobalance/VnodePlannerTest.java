@@ -0,0 +1,67 @@
+package com.spotify.cassandra.opstools.autobalance;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class VnodePlannerTest {
+  private static final BigInteger MIN = BigInteger.valueOf(Long.MIN_VALUE);
+  private static final BigInteger MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+  @Test
+  public void randomTokensWithinSpread() {
+    Map<String, String> hostDc = new HashMap<String, String>();
+    Map<String, String> hostRack = new HashMap<String, String>();
+    Map<String, List<BigInteger>> tokens = new HashMap<String, List<BigInteger>>();
+    Random random = new Random(1);
+    for (int i = 0; i < 30; i++) {
+      String host = "host" + i;
+      hostDc.put(host, "cloud");
+      hostRack.put(host, "rack" + i % 3);
+      List<BigInteger> hostTokens = new ArrayList<BigInteger>();
+      for (int j = 0; j < 32; j++) {
+        hostTokens.add(BigInteger.valueOf(random.nextLong()));
+      }
+      tokens.put(host, hostTokens);
+    }
+    ReplicatedOwnership ownership = new ReplicatedOwnership(hostDc, hostRack, ImmutableMap.of("cloud", 3), MIN, MAX);
+    Assert.assertTrue(ownership.spread(ownership.ownershipOfVnodes(tokens)) > 0.2);
+
+    VnodePlanner planner = new VnodePlanner(ownership, tokens, 0.1, Integer.MAX_VALUE);
+    List<VnodePlanner.Change> changes = planner.plan();
+    Map<String, List<BigInteger>> newTokens = planner.apply(changes);
+
+    Assert.assertTrue(ownership.spread(ownership.ownershipOfVnodes(newTokens)) <= 0.1);
+    Assert.assertTrue(changes.size() < 30 * 32 / 4);
+    for (String host : tokens.keySet()) {
+      Assert.assertEquals(32, newTokens.get(host).size());
+    }
+  }
+
+  @Test
+  public void balancedRingIsLeftAlone() {
+    Map<String, List<BigInteger>> tokens = ImmutableMap.<String, List<BigInteger>>of(
+        "a", tokens(0, 2000), "b", tokens(1000, 3000));
+    ReplicatedOwnership ownership = new ReplicatedOwnership(
+        ImmutableMap.of("a", "cloud", "b", "cloud"), ImmutableMap.of("a", "r1", "b", "r1"),
+        ImmutableMap.of("cloud", 1), BigInteger.ZERO, BigInteger.valueOf(4000));
+
+    Assert.assertTrue(new VnodePlanner(ownership, tokens, 0.1, Integer.MAX_VALUE).plan().isEmpty());
+  }
+
+  private static List<BigInteger> tokens(int... tokens) {
+    List<BigInteger> list = new ArrayList<BigInteger>();
+    for (int token : tokens) {
+      list.add(BigInteger.valueOf(token));
+    }
+    return list;
+  }
+}
@@ -0,0 +1,92 @@
+package com.spotify.cassandra.opstools.compaction;
+
+import org.apache.cassandra.dht.LongToken;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CompactionSimulatorTest {
+  private static final long MB = 1024 * 1024;
+  private static final long HOUR = 3600L * 1000 * 1000;
+
+  private static SimulatedSSTable sstable(String name, long size, long minTimestamp, long maxTimestamp) {
+    return new SimulatedSSTable(name, size, 0, minTimestamp, maxTimestamp, new LongToken(-100L), new LongToken(100L));
+  }
+
+  @Test
+  public void sizeTieredCompactsSimilarSizes() {
+    CompactionStrategy strategy = StrategyOptions.create("stcs", "min_threshold=2,min_sstable_size=0");
+    SimulatedSSTable small1 = sstable("small1", 10 * MB, 0, 1);
+    SimulatedSSTable small2 = sstable("small2", 12 * MB, 0, 1);
+    SimulatedSSTable large1 = sstable("large1", 1000 * MB, 0, 1);
+    SimulatedSSTable large2 = sstable("large2", 1100 * MB, 0, 1);
+    SimulatedSSTable single = sstable("single", 100 * MB, 0, 1);
+
+    List<SimulatedSSTable> compacting = strategy.nextCompaction(Arrays.asList(large1, small1, single, large2, small2));
+    Assert.assertEquals(2, compacting.size());
+    Assert.assertTrue(compacting.containsAll(Arrays.asList(small1, small2)));
+
+    Assert.assertTrue(strategy.nextCompaction(Arrays.asList(small1, single, large1)).isEmpty());
+  }
+
+  @Test
+  public void dateTieredWindowsGrowWithAge() {
+    // With base 4, the windows before hour 17 are [16, 17), [12, 16), [8, 12), [4, 8), [0, 4)...
+    List<SimulatedSSTable> sstables = new ArrayList<SimulatedSSTable>();
+    for (long hour : new long[] {16, 13, 12, 9, 1}) {
+      sstables.add(sstable("hour" + hour, MB, hour * HOUR, hour * HOUR + 1));
+    }
+    List<List<SimulatedSSTable>> buckets = DateTieredStrategy.buckets(sstables, HOUR, 4, 16 * HOUR + 1);
+
+    Assert.assertEquals(4, buckets.size());
+    Assert.assertEquals(Arrays.asList(sstables.get(0)), buckets.get(0));
+    Assert.assertEquals(Arrays.asList(sstables.get(1), sstables.get(2)), buckets.get(1));
+    Assert.assertEquals(Arrays.asList(sstables.get(3)), buckets.get(2));
+    Assert.assertEquals(Arrays.asList(sstables.get(4)), buckets.get(3));
+
+    CompactionStrategy strategy = StrategyOptions.create("DateTieredCompactionStrategy", "min_threshold=2");
+    Assert.assertEquals(Arrays.asList(sstables.get(1), sstables.get(2)), strategy.nextCompaction(sstables));
+  }
+
+  @Test
+  public void dateTieredIgnoresOldSSTables() {
+    long day = 24 * HOUR;
+    CompactionStrategy strategy = StrategyOptions.create("dtcs", "min_threshold=2,max_sstable_age_days=1");
+    List<SimulatedSSTable> sstables = Arrays.asList(sstable("old1", MB, 0, 1), sstable("old2", MB, 0, 1),
+                                                    sstable("new", MB, 10 * day, 10 * day));
+    Assert.assertTrue(strategy.nextCompaction(sstables).isEmpty());
+  }
+
+  @Test
+  public void simulatorCountsRewrittenBytes() {
+    CompactionSimulator simulator = new CompactionSimulator(StrategyOptions.create("stcs", "min_threshold=2,max_threshold=2"));
+    for (int i = 0; i < 4; i++) {
+      simulator.add(new SimulatedSSTable("sstable" + i, 100, i == 0 ? 20 : 0, i, i,
+                                         new LongToken((long) i * 10), new LongToken((long) i * 10 + 5)));
+    }
+    simulator.compact(null);
+
+    // Two pairs are compacted, then the two results
+    Assert.assertEquals(3, simulator.compactions());
+    Assert.assertEquals(1, simulator.sstables().size());
+    SimulatedSSTable compacted = simulator.sstables().get(0);
+    Assert.assertEquals(380, compacted.size);
+    Assert.assertEquals(0, compacted.minTimestamp);
+    Assert.assertEquals(3, compacted.maxTimestamp);
+    Assert.assertEquals(new LongToken(0L), compacted.first);
+    Assert.assertEquals(new LongToken(35L), compacted.last);
+    Assert.assertEquals(400 + 380, simulator.bytesRead());
+    Assert.assertEquals(380 + 380, simulator.bytesWritten());
+    Assert.assertEquals((400 + 760) / 400.0, simulator.writeAmplification(), 1e-9);
+    Assert.assertEquals(1, simulator.overlap(new Murmur3Partitioner()).maxDepth());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownStrategy() {
+    StrategyOptions.create("LeveledCompactionStrategy", "");
+  }
+}
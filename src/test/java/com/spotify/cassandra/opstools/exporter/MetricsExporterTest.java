@@ -0,0 +1,43 @@
+package com.spotify.cassandra.opstools.exporter;
+
+import com.google.common.base.Charsets;
+import com.spotify.cassandra.opstools.JmxConnections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MetricsExporterTest {
+
+  @Test
+  public void failingCollectorIsLeftOut() {
+    Map<String, Collector> collectors = new LinkedHashMap<String, Collector>();
+    collectors.put("working", new Collector() {
+      @Override
+      public void collect(MetricsWriter writer) {
+        writer.family("working_metric", "gauge", "Works").sample("working_metric", 1);
+      }
+    });
+    collectors.put("broken", new Collector() {
+      @Override
+      public void collect(MetricsWriter writer) throws IOException {
+        writer.family("broken_metric", "gauge", "Half written");
+        throw new IOException("Connection refused");
+      }
+    });
+    MetricsExporter exporter = new MetricsExporter(collectors, new JmxConnections(), "localhost");
+
+    exporter.collect();
+    exporter.collect();
+    String response = new String(exporter.response(), Charsets.UTF_8);
+
+    Assert.assertTrue(response.contains("working_metric 1\n"));
+    Assert.assertFalse(response.contains("broken_metric"));
+    Assert.assertTrue(response.contains("opstools_collector_success{collector=\"working\"} 1\n"));
+    Assert.assertTrue(response.contains("opstools_collector_success{collector=\"broken\"} 0\n"));
+    Assert.assertTrue(response.contains("opstools_collector_errors_total{collector=\"broken\"} 2\n"));
+  }
+}
@@ -0,0 +1,41 @@
+package com.spotify.cassandra.opstools.exporter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsWriterTest {
+
+  @Test
+  public void textFormat() {
+    MetricsWriter writer = new MetricsWriter();
+    writer.family("pending_tasks", "gauge", "Tasks waiting")
+        .sample("pending_tasks", 3, "pool", "ReadStage")
+        .sample("pending_tasks", 0.5, "pool", "MutationStage", "path", "request");
+    writer.family("uptime_seconds", "counter", "Uptime").sample("uptime_seconds", Double.POSITIVE_INFINITY);
+
+    Assert.assertEquals("# HELP pending_tasks Tasks waiting\n" +
+                        "# TYPE pending_tasks gauge\n" +
+                        "pending_tasks{pool=\"ReadStage\"} 3\n" +
+                        "pending_tasks{pool=\"MutationStage\",path=\"request\"} 0.5\n" +
+                        "# HELP uptime_seconds Uptime\n" +
+                        "# TYPE uptime_seconds counter\n" +
+                        "uptime_seconds +Inf\n",
+                        writer.toString());
+  }
+
+  @Test
+  public void labelValuesAreEscaped() {
+    MetricsWriter writer = new MetricsWriter();
+    writer.family("score", "gauge", "Score").sample("score", 1, "peer", "a\"b\\c\nd");
+    Assert.assertTrue(writer.toString().contains("score{peer=\"a\\\"b\\\\c\\nd\"} 1\n"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void metricsAreDeclaredOnce() {
+    MetricsWriter first = new MetricsWriter();
+    first.family("score", "gauge", "Score");
+    MetricsWriter second = new MetricsWriter();
+    second.family("score", "gauge", "Score");
+    first.append(second);
+  }
+}
@@ -0,0 +1,65 @@
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+public class GcGraceTest {
+
+  private static final Descriptor CF1_1 = sstable("cf1", 1);
+  private static final Descriptor CF1_2 = sstable("cf1", 2);
+  private static final Descriptor CF1_3 = sstable("cf1", 3);
+  private static final Descriptor CF2_1 = sstable("cf2", 1);
+
+  @Test
+  public void blockedByOldestOtherSSTableOfSameColumnFamily() {
+    Map<Descriptor, Long> minTimestamps = new HashMap<Descriptor, Long>();
+    minTimestamps.put(CF1_1, 100L);
+    minTimestamps.put(CF1_2, 200L);
+    minTimestamps.put(CF1_3, 300L);
+    minTimestamps.put(CF2_1, 50L);
+
+    GcGrace gcGrace = new GcGrace(1000, 100, minTimestamps);
+    Assert.assertEquals(200L, gcGrace.maxPurgeableTimestamp(CF1_1));
+    Assert.assertEquals(100L, gcGrace.maxPurgeableTimestamp(CF1_2));
+    Assert.assertEquals(100L, gcGrace.maxPurgeableTimestamp(CF1_3));
+    Assert.assertEquals(Long.MAX_VALUE, gcGrace.maxPurgeableTimestamp(CF2_1));
+    Assert.assertEquals(Long.MAX_VALUE, gcGrace.maxPurgeableTimestamp(sstable("cf3", 1)));
+  }
+
+  @Test
+  public void sharedMinimumTimestampBlocksBoth() {
+    Map<Descriptor, Long> minTimestamps = new HashMap<Descriptor, Long>();
+    minTimestamps.put(CF1_1, 100L);
+    minTimestamps.put(CF1_2, 100L);
+    minTimestamps.put(CF1_3, 300L);
+
+    GcGrace gcGrace = new GcGrace(1000, 100, minTimestamps);
+    Assert.assertEquals(100L, gcGrace.maxPurgeableTimestamp(CF1_1));
+    Assert.assertEquals(100L, gcGrace.maxPurgeableTimestamp(CF1_2));
+  }
+
+  @Test
+  public void countsTombstonesPastGcGrace() {
+    GcGrace gcGrace = new GcGrace(1000, 100, new HashMap<Descriptor, Long>());
+    Assert.assertEquals(900, gcGrace.gcBefore);
+
+    TombstoneCount partition = new TombstoneCount();
+    gcGrace.tombstone(partition, 900, 10, 50, 20);  // within gc_grace
+    gcGrace.tombstone(partition, 899, 10, 50, 20);
+    gcGrace.tombstone(partition, 100, 49, 50, 30);
+    gcGrace.tombstone(partition, 100, 50, 50, 40);  // may shadow older data elsewhere
+
+    Assert.assertEquals(3, partition.droppable);
+    Assert.assertEquals(1, partition.blocked);
+    Assert.assertEquals(50, partition.droppableBytes);
+  }
+
+  private static Descriptor sstable(String cf, int generation) {
+    return new Descriptor(new File("/var/lib/cassandra/data/ks/" + cf), "ks", cf, generation, false);
+  }
+}
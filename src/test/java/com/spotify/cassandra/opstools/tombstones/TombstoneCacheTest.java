@@ -0,0 +1,105 @@
+package com.spotify.cassandra.opstools.tombstones;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TombstoneCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void remembersSummariesAcrossRuns() throws IOException {
+    File file = new File(folder.getRoot(), "cache");
+    Descriptor desc = sstable(1, "data");
+
+    TombstoneCache cache = TombstoneCache.load(file, "raw");
+    Assert.assertNull(cache.get(desc));
+    cache.put(desc, summary());
+    cache.save();
+
+    TombstoneSummary cached = TombstoneCache.load(file, "raw").get(desc);
+    Assert.assertNotNull(cached);
+    Assert.assertEquals(2, cached.partitions);
+    Assert.assertEquals(3, cached.totals.deletedCells);
+    Assert.assertEquals(1, cached.totals.expiredCells);
+    Assert.assertEquals(1, cached.totals.rangeTombstones);
+    Assert.assertEquals(1, cached.totals.partitionDeletions);
+    Assert.assertEquals(20, cached.totals.columns);
+    Assert.assertEquals(1, cached.partitionsInBucket(0));
+    Assert.assertEquals(1, cached.partitionsInBucket(3));
+    Assert.assertEquals(0, cached.partitionsInBucket(63));
+  }
+
+  @Test
+  public void ignoresModifiedSstables() throws IOException {
+    File file = new File(folder.getRoot(), "cache");
+    Descriptor desc = sstable(1, "data");
+
+    TombstoneCache cache = TombstoneCache.load(file, "raw");
+    cache.put(desc, summary());
+    cache.save();
+
+    sstable(1, "rewritten data");
+    Assert.assertNull(TombstoneCache.load(file, "raw").get(desc));
+  }
+
+  @Test
+  public void dropsRemovedSstables() throws IOException {
+    File file = new File(folder.getRoot(), "cache");
+    Descriptor kept = sstable(1, "data");
+    Descriptor removed = sstable(2, "data");
+
+    TombstoneCache cache = TombstoneCache.load(file, "raw");
+    cache.put(kept, summary());
+    cache.put(removed, summary());
+    Assert.assertTrue(new File(removed.filenameFor(Component.DATA)).delete());
+    cache.save();
+
+    Assert.assertEquals(1, Files.readLines(file, Charsets.UTF_8).size());
+    Assert.assertNotNull(TombstoneCache.load(file, "raw").get(kept));
+  }
+
+  @Test
+  public void keepsScannersApart() throws IOException {
+    File file = new File(folder.getRoot(), "cache");
+    Descriptor desc = sstable(1, "data");
+
+    TombstoneCache cache = TombstoneCache.load(file, "raw");
+    cache.put(desc, summary());
+    cache.save();
+
+    Assert.assertNull(TombstoneCache.load(file, "iterator").get(desc));
+    Assert.assertNotNull(TombstoneCache.load(file, "raw").get(desc));
+  }
+
+  private Descriptor sstable(int generation, String contents) throws IOException {
+    Descriptor desc = new Descriptor(folder.getRoot(), "ks", "cf", generation, false);
+    Files.write(contents, new File(desc.filenameFor(Component.DATA)), Charsets.UTF_8);
+    return desc;
+  }
+
+  private static TombstoneSummary summary() {
+    TombstoneSummary summary = new TombstoneSummary();
+    TombstoneCount partition = new TombstoneCount();
+    partition.columns = 10;
+    summary.partition(ByteBufferUtil.bytes("a"), partition);
+    partition.deletedCells = 3;
+    partition.expiredCells = 1;
+    partition.rangeTombstones = 1;
+    partition.partitionDeletions = 1;
+    summary.partition(ByteBufferUtil.bytes("b"), partition);
+    return summary;
+  }
+}
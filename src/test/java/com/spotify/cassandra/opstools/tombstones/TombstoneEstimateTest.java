@@ -0,0 +1,67 @@
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TombstoneEstimateTest {
+
+  @Test
+  public void exactForUniformPartitions() {
+    TombstoneEstimate estimate = new TombstoneEstimate();
+    for (int i = 0; i < 10; i++) {
+      estimate.partition(ByteBufferUtil.bytes(i), count(2, 10));
+    }
+
+    Assert.assertEquals(10, estimate.partitions);
+    Assert.assertEquals(0.2, estimate.ratio(), 1e-9);
+    Assert.assertEquals(0.0, estimate.ratioMargin(), 1e-6);
+    Assert.assertEquals(2000.0, estimate.tombstones(1000), 1e-9);
+    Assert.assertEquals(0.0, estimate.tombstonesMargin(1000), 1e-6);
+  }
+
+  @Test
+  public void weighsRatioByColumns() {
+    TombstoneEstimate estimate = new TombstoneEstimate();
+    estimate.partition(ByteBufferUtil.bytes("a"), count(0, 90));
+    estimate.partition(ByteBufferUtil.bytes("b"), count(10, 10));
+
+    Assert.assertEquals(0.1, estimate.ratio(), 1e-9);
+    Assert.assertEquals(50.0, estimate.tombstones(10), 1e-9);
+  }
+
+  @Test
+  public void marginShrinksWithSampleSize() {
+    TombstoneEstimate small = new TombstoneEstimate();
+    TombstoneEstimate large = new TombstoneEstimate();
+    for (int i = 0; i < 400; i++) {
+      TombstoneCount partition = count(i % 2 == 0 ? 0 : 4, 10);
+      if (i < 100) {
+        small.partition(ByteBufferUtil.bytes(i), partition);
+      }
+      large.partition(ByteBufferUtil.bytes(i), partition);
+    }
+
+    Assert.assertEquals(0.2, small.ratio(), 1e-9);
+    Assert.assertEquals(0.2, large.ratio(), 1e-9);
+    Assert.assertTrue(small.ratioMargin() > 0);
+    Assert.assertEquals(small.ratioMargin() / 2, large.ratioMargin(), 0.01);
+  }
+
+  @Test
+  public void noMarginWithoutEnoughSamples() {
+    TombstoneEstimate estimate = new TombstoneEstimate();
+    Assert.assertEquals(0.0, estimate.ratio(), 0);
+    Assert.assertTrue(Double.isNaN(estimate.ratioMargin()));
+
+    estimate.partition(ByteBufferUtil.bytes("a"), count(1, 2));
+    Assert.assertTrue(Double.isNaN(estimate.tombstonesMargin(10)));
+  }
+
+  private static TombstoneCount count(int deleted, int columns) {
+    TombstoneCount count = new TombstoneCount();
+    count.deletedCells = deleted;
+    count.columns = columns;
+    return count;
+  }
+}
@@ -0,0 +1,221 @@
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Column;
+import org.apache.cassandra.db.ColumnFamilyType;
+import org.apache.cassandra.db.DeletedColumn;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.ExpiringColumn;
+import org.apache.cassandra.db.RangeTombstone;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.sstable.SSTableSimpleUnsortedWriter;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TombstoneScannerTest {
+  private static final int NOW = (int) (System.currentTimeMillis() / 1000);
+  private static final long TIMESTAMP = NOW * 1000000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void clientMode() {
+    Config.setClientMode(true);
+    DatabaseDescriptor.setPartitioner(new Murmur3Partitioner());
+  }
+
+  @Test
+  public void rawAndIteratorScannersAgree() throws IOException {
+    SSTableReader reader = writeSSTable();
+
+    TombstoneSummary raw = new TombstoneSummary();
+    new RawTombstoneScanner().scan(reader, null, raw);
+    TombstoneSummary iterator = new TombstoneSummary();
+    new IteratorTombstoneScanner().scan(reader, null, iterator);
+
+    Assert.assertEquals(4, raw.partitions);
+    Assert.assertEquals(2, raw.totals.deletedCells);
+    Assert.assertEquals(0, raw.totals.expiredCells);
+    Assert.assertEquals(1, raw.totals.rangeTombstones);
+    Assert.assertEquals(1, raw.totals.partitionDeletions);
+    Assert.assertEquals(8, raw.totals.columns);
+    assertSameSummary(raw, iterator);
+  }
+
+  @Test
+  public void scannersAgreeOnDroppableTombstones() throws IOException {
+    SSTableReader reader = writeSSTable();
+    // An hour later, when the TTL'd cells have expired, with a grace period of ten minutes
+    GcGrace gcGrace = new GcGrace(NOW + 3600, 600, Collections.singletonMap(reader.descriptor, TIMESTAMP));
+
+    TombstoneSummary raw = new TombstoneSummary();
+    new RawTombstoneScanner(new ScanRate(0), gcGrace).scan(reader, null, raw);
+    TombstoneSummary iterator = new TombstoneSummary();
+    new IteratorTombstoneScanner(new ScanRate(0), gcGrace).scan(reader, null, iterator);
+
+    Assert.assertEquals(2, raw.totals.expiredCells);
+    Assert.assertTrue(raw.totals.droppable > 0);
+    assertSameSummary(raw, iterator);
+  }
+
+  @Test
+  public void rangedScansAddUpToFullScan() throws IOException {
+    SSTableReader reader = writeSSTable(1000);
+    List<Range<Token>> ranges = SSTableSplits.split(reader, 4);
+    Assert.assertEquals(4, ranges.size());
+
+    for (TombstoneScanner scanner : new TombstoneScanner[] {new RawTombstoneScanner(), new IteratorTombstoneScanner()}) {
+      TombstoneSummary full = new TombstoneSummary();
+      scanner.scan(reader, null, full);
+
+      TombstoneSummary ranged = new TombstoneSummary();
+      final Set<ByteBuffer> keys = new HashSet<ByteBuffer>();
+      for (Range<Token> range : ranges) {
+        TombstoneSummary summary = new TombstoneSummary();
+        scanner.scan(reader, range, new PartitionListener() {
+          @Override
+          public void partition(ByteBuffer key, TombstoneCount partition) {
+            Assert.assertTrue("Scanned twice: " + ByteBufferUtil.bytesToHex(key), keys.add(ByteBufferUtil.clone(key)));
+          }
+        });
+        scanner.scan(reader, range, summary);
+        Assert.assertTrue(summary.partitions > 0);
+        ranged.add(summary);
+      }
+
+      Assert.assertEquals(1000, full.partitions);
+      Assert.assertEquals(1000, keys.size());
+      assertSameSummary(full, ranged);
+    }
+  }
+
+  /**
+   * Writes live cells, deleted cells, cells expiring within the next 20 minutes, a range tombstone and
+   * a deleted partition
+   */
+  private SSTableReader writeSSTable() throws IOException {
+    CFMetaData cfm = new CFMetaData("ks", "cf", ColumnFamilyType.Standard, UTF8Type.instance, UTF8Type.instance);
+    File directory = folder.newFolder("ks", "cf");
+    TestWriter writer = new TestWriter(directory, cfm);
+
+    writer.newRow(ByteBufferUtil.bytes("live"));
+    writer.addColumn(name("a"), ByteBufferUtil.bytes("value"), TIMESTAMP);
+    writer.addColumn(name("b"), ByteBufferUtil.bytes("value"), TIMESTAMP);
+
+    writer.newRow(ByteBufferUtil.bytes("deleted cells"));
+    writer.add(new DeletedColumn(name("a"), NOW - 1200, TIMESTAMP));
+    writer.add(new DeletedColumn(name("b"), NOW, TIMESTAMP));
+    writer.addColumn(name("c"), ByteBufferUtil.bytes("value"), TIMESTAMP);
+
+    writer.newRow(ByteBufferUtil.bytes("expiring"));
+    writer.add(new ExpiringColumn(name("a"), ByteBufferUtil.bytes("value"), TIMESTAMP, 600, NOW + 600));
+    writer.add(new ExpiringColumn(name("b"), ByteBufferUtil.bytes("value"), TIMESTAMP, 1200, NOW + 1200));
+    writer.addRangeTombstone(name("c"), name("d"), TIMESTAMP, NOW - 1200);
+
+    writer.newRow(ByteBufferUtil.bytes("deleted partition"));
+    writer.deletePartition(TIMESTAMP, NOW - 1200);
+    writer.close();
+
+    return open(directory, cfm);
+  }
+
+  /**
+   * Writes enough partitions for the index summary to sample several of them, each with a live cell
+   * and one of the kinds of tombstones
+   */
+  private SSTableReader writeSSTable(int partitions) throws IOException {
+    CFMetaData cfm = new CFMetaData("ks", "cf", ColumnFamilyType.Standard, UTF8Type.instance, UTF8Type.instance);
+    File directory = folder.newFolder("ks", "cf");
+    TestWriter writer = new TestWriter(directory, cfm);
+
+    for (int i = 0; i < partitions; i++) {
+      writer.newRow(ByteBufferUtil.bytes("partition " + i));
+      writer.addColumn(name("a"), ByteBufferUtil.bytes("value"), TIMESTAMP);
+      switch (i % 4) {
+        case 0:
+          writer.add(new DeletedColumn(name("b"), NOW - 1200, TIMESTAMP));
+          break;
+        case 1:
+          writer.add(new ExpiringColumn(name("b"), ByteBufferUtil.bytes("value"), TIMESTAMP, 600, NOW + 600));
+          break;
+        case 2:
+          writer.addRangeTombstone(name("c"), name("d"), TIMESTAMP, NOW - 1200);
+          break;
+        default:
+          writer.deletePartition(TIMESTAMP, NOW - 1200);
+      }
+    }
+    writer.close();
+
+    return open(directory, cfm);
+  }
+
+  private static SSTableReader open(File directory, CFMetaData cfm) throws IOException {
+    for (File file : directory.listFiles()) {
+      if (file.getName().endsWith("-Data.db")) {
+        return SSTableReader.open(Descriptor.fromFilename(file.getAbsolutePath()), cfm);
+      }
+    }
+    throw new IOException("No sstable written to " + directory);
+  }
+
+  private static void assertSameSummary(TombstoneSummary expected, TombstoneSummary actual) {
+    Assert.assertEquals(expected.partitions, actual.partitions);
+    Assert.assertEquals(expected.totals.deletedCells, actual.totals.deletedCells);
+    Assert.assertEquals(expected.totals.expiredCells, actual.totals.expiredCells);
+    Assert.assertEquals(expected.totals.rangeTombstones, actual.totals.rangeTombstones);
+    Assert.assertEquals(expected.totals.partitionDeletions, actual.totals.partitionDeletions);
+    Assert.assertEquals(expected.totals.columns, actual.totals.columns);
+    Assert.assertEquals(expected.totals.droppable, actual.totals.droppable);
+    Assert.assertEquals(expected.totals.blocked, actual.totals.blocked);
+    Assert.assertEquals(expected.totals.droppableBytes, actual.totals.droppableBytes);
+    for (int i = 0; i < expected.buckets(); i++) {
+      Assert.assertEquals(expected.partitionsInBucket(i), actual.partitionsInBucket(i));
+    }
+  }
+
+  private static ByteBuffer name(String name) {
+    return ByteBufferUtil.bytes(name);
+  }
+
+  /**
+   * Also writes tombstones, which the simple writer has no methods for, and sorts partitions by token
+   */
+  private static class TestWriter extends SSTableSimpleUnsortedWriter {
+    TestWriter(File directory, CFMetaData cfm) {
+      super(directory, cfm, new Murmur3Partitioner(), 16);
+    }
+
+    void add(Column column) throws IOException {
+      addColumn(column);
+    }
+
+    void addRangeTombstone(ByteBuffer start, ByteBuffer end, long timestamp, int localDeletionTime) {
+      columnFamily.addAtom(new RangeTombstone(start, end, timestamp, localDeletionTime));
+    }
+
+    void deletePartition(long timestamp, int localDeletionTime) {
+      columnFamily.delete(new DeletionTime(timestamp, localDeletionTime));
+    }
+  }
+}
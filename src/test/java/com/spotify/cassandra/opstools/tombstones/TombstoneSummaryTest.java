@@ -0,0 +1,66 @@
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TombstoneSummaryTest {
+
+  @Test
+  public void bucketsAreLogScale() {
+    Assert.assertEquals(0, TombstoneSummary.bucket(0));
+    Assert.assertEquals(1, TombstoneSummary.bucket(1));
+    Assert.assertEquals(2, TombstoneSummary.bucket(2));
+    Assert.assertEquals(2, TombstoneSummary.bucket(3));
+    Assert.assertEquals(3, TombstoneSummary.bucket(4));
+    Assert.assertEquals(11, TombstoneSummary.bucket(1024));
+
+    for (int i = 1; i < 63; i++) {
+      Assert.assertEquals(i, TombstoneSummary.bucket(TombstoneSummary.bucketStart(i)));
+      Assert.assertEquals(i, TombstoneSummary.bucket(TombstoneSummary.bucketEnd(i)));
+    }
+  }
+
+  @Test
+  public void countsCellAndRangeTombstones() {
+    TombstoneSummary summary = new TombstoneSummary();
+    summary.partition(ByteBufferUtil.bytes("a"), count(0, 0, 0, 1));
+    summary.partition(ByteBufferUtil.bytes("b"), count(2, 1, 1, 0));
+    summary.partition(ByteBufferUtil.bytes("c"), count(1, 0, 0, 0));
+
+    Assert.assertEquals(3, summary.partitions);
+    Assert.assertEquals(3, summary.totals.deletedCells);
+    Assert.assertEquals(1, summary.totals.expiredCells);
+    Assert.assertEquals(1, summary.totals.rangeTombstones);
+    Assert.assertEquals(1, summary.totals.partitionDeletions);
+    Assert.assertEquals(1, summary.partitionsInBucket(0));
+    Assert.assertEquals(1, summary.partitionsInBucket(1));
+    Assert.assertEquals(1, summary.partitionsInBucket(3));
+  }
+
+  @Test
+  public void mergesSummaries() {
+    TombstoneSummary first = new TombstoneSummary();
+    TombstoneSummary second = new TombstoneSummary();
+    first.partition(ByteBufferUtil.bytes("a"), count(1, 0, 0, 0));
+    second.partition(ByteBufferUtil.bytes("b"), count(1, 0, 0, 0));
+    second.partition(ByteBufferUtil.bytes("c"), count(0, 0, 0, 0));
+
+    first.add(second);
+
+    Assert.assertEquals(3, first.partitions);
+    Assert.assertEquals(2, first.totals.deletedCells);
+    Assert.assertEquals(2, first.partitionsInBucket(1));
+    Assert.assertEquals(1, first.partitionsInBucket(0));
+  }
+
+  private static TombstoneCount count(int deleted, int expired, int ranges, int partitionDeletions) {
+    TombstoneCount count = new TombstoneCount();
+    count.deletedCells = deleted;
+    count.expiredCells = expired;
+    count.rangeTombstones = ranges;
+    count.partitionDeletions = partitionDeletions;
+    count.columns = deleted + expired + ranges;
+    return count;
+  }
+}
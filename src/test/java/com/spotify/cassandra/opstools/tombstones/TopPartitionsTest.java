@@ -0,0 +1,85 @@
+package com.spotify.cassandra.opstools.tombstones;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class TopPartitionsTest {
+
+  @Test
+  public void keepsPartitionsWithMostTombstones() {
+    TopPartitions top = new TopPartitions(2, TopPartitions.Order.COUNT);
+    top.partition(key("a"), count(5, 100));
+    top.partition(key("b"), count(10, 100));
+    top.partition(key("c"), count(0, 100));
+    top.partition(key("d"), count(7, 10));
+    top.partition(key("e"), count(1, 1));
+
+    List<TopPartitions.Partition> partitions = top.sorted();
+
+    Assert.assertEquals(2, partitions.size());
+    Assert.assertEquals(key("b"), partitions.get(0).key);
+    Assert.assertEquals(key("d"), partitions.get(1).key);
+  }
+
+  @Test
+  public void keepsPartitionsWithHighestRatio() {
+    TopPartitions top = new TopPartitions(2, TopPartitions.Order.RATIO);
+    top.partition(key("a"), count(5, 100));
+    top.partition(key("b"), count(10, 100));
+    top.partition(key("d"), count(7, 10));
+    top.partition(key("e"), count(1, 1));
+
+    List<TopPartitions.Partition> partitions = top.sorted();
+
+    Assert.assertEquals(2, partitions.size());
+    Assert.assertEquals(key("e"), partitions.get(0).key);
+    Assert.assertEquals(key("d"), partitions.get(1).key);
+  }
+
+  @Test
+  public void copiesKeptKeys() {
+    TopPartitions top = new TopPartitions(1, TopPartitions.Order.COUNT);
+    ByteBuffer reused = key("a");
+    top.partition(reused, count(1, 1));
+    reused.put(0, (byte) 'z');
+
+    Assert.assertEquals(key("a"), top.sorted().get(0).key);
+  }
+
+  @Test
+  public void mergeIsIndependentOfSplit() {
+    TopPartitions whole = new TopPartitions(3, TopPartitions.Order.COUNT);
+    TopPartitions first = new TopPartitions(3, TopPartitions.Order.COUNT);
+    TopPartitions second = new TopPartitions(3, TopPartitions.Order.COUNT);
+    for (int i = 0; i < 20; i++) {
+      whole.partition(key("k" + i), count(i % 4 + 1, 10));
+      (i < 10 ? first : second).partition(key("k" + i), count(i % 4 + 1, 10));
+    }
+
+    TopPartitions merged = new TopPartitions(3, TopPartitions.Order.COUNT);
+    merged.addAll(second);
+    merged.addAll(first);
+
+    List<TopPartitions.Partition> expected = whole.sorted();
+    List<TopPartitions.Partition> actual = merged.sorted();
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(expected.get(i).key, actual.get(i).key);
+    }
+  }
+
+  private static TombstoneCount count(int tombstones, int columns) {
+    TombstoneCount count = new TombstoneCount();
+    count.deletedCells = tombstones;
+    count.columns = columns;
+    return count;
+  }
+
+  private static ByteBuffer key(String key) {
+    return ByteBufferUtil.bytes(key);
+  }
+}